@@ -43,6 +43,11 @@ public abstract class AbstractSimpleStackedEntityDataStorage extends StackedEnti
         this.size += stackedEntityDataStorage.size();
     }
 
+    @Override
+    public void addEntries(List<EntityDataEntry> entries) {
+        this.size += entries.size();
+    }
+
     @Override
     public void addClones(int amount) {
         this.size += amount;
@@ -88,14 +93,15 @@ public abstract class AbstractSimpleStackedEntityDataStorage extends StackedEnti
     }
 
     @Override
-    public byte[] serialize(int maxAmount) {
+    public SerializedEntityData serializeSized(int maxAmount) {
         try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
              ObjectOutputStream dataOutput = new ObjectOutputStream(outputStream)) {
 
-            dataOutput.writeInt(Math.min(maxAmount, this.size()));
+            int size = Math.min(maxAmount, this.size());
+            dataOutput.writeInt(size);
 
             dataOutput.close();
-            return outputStream.toByteArray();
+            return new SerializedEntityData(outputStream.toByteArray(), size);
         } catch (Exception e) {
             throw new StackedEntityDataIOException(e);
         }
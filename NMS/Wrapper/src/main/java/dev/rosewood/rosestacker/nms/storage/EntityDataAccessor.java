@@ -0,0 +1,63 @@
+package dev.rosewood.rosestacker.nms.storage;
+
+import org.bukkit.DyeColor;
+
+/**
+ * Reads and changes common values of a single stored entity without having to create the entity
+ */
+public interface EntityDataAccessor {
+
+    /**
+     * @return true if the entity is sheared, false otherwise
+     */
+    boolean isSheared();
+
+    /**
+     * Sets if the entity is sheared
+     *
+     * @param sheared true to shear the entity, false to regrow its wool
+     */
+    void setSheared(boolean sheared);
+
+    /**
+     * @return the color of the entity, or null if it doesn't have one
+     */
+    DyeColor getColor();
+
+    /**
+     * Sets the color of the entity
+     *
+     * @param color The new color
+     */
+    void setColor(DyeColor color);
+
+    /**
+     * @return the age of the entity in ticks, negative if it's a baby
+     */
+    int getAge();
+
+    /**
+     * Sets the age of the entity
+     *
+     * @param age The new age in ticks, negative for a baby
+     */
+    void setAge(int age);
+
+    /**
+     * @return the health of the entity
+     */
+    double getHealth();
+
+    /**
+     * Sets the health of the entity
+     *
+     * @param health The new health
+     */
+    void setHealth(double health);
+
+    /**
+     * @return true if any value has been changed through this accessor, false otherwise
+     */
+    boolean isModified();
+
+}
@@ -0,0 +1,254 @@
+package dev.rosewood.rosestacker.nms.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Stores serialized entity records back to back in a single growable {@link ByteBuffer} with an index of record offsets.
+ * Removing records from the front only advances a cursor, the space is reclaimed the next time the slab needs to grow.
+ */
+public class EntityDataSlab {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INITIAL_RECORDS = 16;
+
+    private final boolean direct;
+    private ByteBuffer buffer;
+    private int[] offsets;
+    private int head;
+    private int tail;
+
+    /**
+     * @param direct true to store the records outside of the Java heap, false to use a heap array
+     */
+    public EntityDataSlab(boolean direct) {
+        this.direct = direct;
+        this.buffer = this.allocate(INITIAL_CAPACITY);
+        this.offsets = new int[INITIAL_RECORDS + 1];
+    }
+
+    /**
+     * Adds a record to the end of the slab
+     *
+     * @param record The record to add
+     */
+    public synchronized void add(byte[] record) {
+        this.ensureCapacity(record.length, 1);
+        int offset = this.offsets[this.tail];
+        this.buffer.put(offset, record);
+        this.offsets[++this.tail] = offset + record.length;
+    }
+
+    /**
+     * Adds all live records of another slab to the end of this one
+     *
+     * @param other The slab to copy the records of
+     */
+    public void addAll(EntityDataSlab other) {
+        int count;
+        int[] lengths;
+        byte[] data;
+        synchronized (other) {
+            count = other.size();
+            lengths = new int[count];
+            for (int i = 0; i < count; i++)
+                lengths[i] = other.length(other.head + i);
+            data = new byte[other.offsets[other.tail] - other.offsets[other.head]];
+            other.buffer.get(other.offsets[other.head], data);
+        }
+
+        this.addAll(lengths, data);
+    }
+
+    /**
+     * @return the record at the front of the slab without removing it
+     */
+    public synchronized byte[] peek() {
+        if (this.head == this.tail)
+            throw new NoSuchElementException();
+        return this.get(this.head);
+    }
+
+    /**
+     * @return the record at the front of the slab, which is then removed
+     */
+    public synchronized byte[] poll() {
+        if (this.head == this.tail)
+            throw new NoSuchElementException();
+
+        byte[] record = this.get(this.head++);
+        this.resetIfEmpty();
+        return record;
+    }
+
+    /**
+     * Removes records from the front of the slab
+     *
+     * @param amount The max number of records to remove
+     * @return the removed records
+     */
+    public synchronized List<byte[]> poll(int amount) {
+        amount = Math.min(amount, this.size());
+        List<byte[]> records = new ArrayList<>(Math.max(amount, 0));
+        for (int i = 0; i < amount; i++)
+            records.add(this.get(this.head++));
+        this.resetIfEmpty();
+        return records;
+    }
+
+    /**
+     * Gets up to a number of records from the front of the slab without removing them
+     *
+     * @param amount The max number of records to get
+     * @return the records
+     */
+    public synchronized List<byte[]> peek(int amount) {
+        amount = Math.min(amount, this.size());
+        List<byte[]> records = new ArrayList<>(Math.max(amount, 0));
+        for (int i = 0; i < amount; i++)
+            records.add(this.get(this.head + i));
+        return records;
+    }
+
+    /**
+     * Removes every record
+     */
+    public synchronized void clear() {
+        this.head = 0;
+        this.tail = 0;
+        this.offsets[0] = 0;
+    }
+
+    /**
+     * @return the number of records
+     */
+    public synchronized int size() {
+        return this.tail - this.head;
+    }
+
+    /**
+     * Writes the record lengths followed by the records themselves, copied from the slab in one piece
+     *
+     * @param dataOutput The output to write to
+     * @param maxAmount The max number of records to write
+     * @return the number of records that were written
+     * @throws IOException if the records could not be written
+     */
+    public int write(DataOutput dataOutput, int maxAmount) throws IOException {
+        int count;
+        int[] lengths;
+        byte[] data;
+        synchronized (this) {
+            count = Math.min(maxAmount, this.size());
+            lengths = new int[count];
+            for (int i = 0; i < count; i++)
+                lengths[i] = this.length(this.head + i);
+            data = new byte[this.offsets[this.head + count] - this.offsets[this.head]];
+            this.buffer.get(this.offsets[this.head], data);
+        }
+
+        dataOutput.writeInt(count);
+        for (int length : lengths)
+            dataOutput.writeInt(length);
+        dataOutput.writeInt(data.length);
+        dataOutput.write(data);
+        return count;
+    }
+
+    /**
+     * Reads records written by {@link #write(DataOutput, int)} and adds them to the end of the slab
+     *
+     * @param dataInput The input to read from
+     * @throws IOException if the records could not be read
+     */
+    public void read(DataInput dataInput) throws IOException {
+        int count = dataInput.readInt();
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++)
+            lengths[i] = dataInput.readInt();
+        byte[] data = new byte[dataInput.readInt()];
+        dataInput.readFully(data);
+
+        this.addAll(lengths, data);
+    }
+
+    private synchronized void addAll(int[] lengths, byte[] data) {
+        this.ensureCapacity(data.length, lengths.length);
+        int offset = this.offsets[this.tail];
+        this.buffer.put(offset, data);
+        for (int length : lengths) {
+            offset += length;
+            this.offsets[++this.tail] = offset;
+        }
+    }
+
+    private byte[] get(int index) {
+        byte[] record = new byte[this.length(index)];
+        this.buffer.get(this.offsets[index], record);
+        return record;
+    }
+
+    private int length(int index) {
+        return this.offsets[index + 1] - this.offsets[index];
+    }
+
+    private void resetIfEmpty() {
+        if (this.head == this.tail)
+            this.clear();
+    }
+
+    /**
+     * Makes room for more records, dropping the space used by removed records first
+     *
+     * @param bytes The number of bytes to make room for
+     * @param records The number of records to make room for
+     */
+    private void ensureCapacity(int bytes, int records) {
+        int start = this.offsets[this.head];
+        int end = this.offsets[this.tail];
+        if (end + bytes <= this.buffer.capacity() && this.tail + records < this.offsets.length)
+            return;
+
+        int liveBytes = end - start;
+        int count = this.size();
+        this.buffer.limit(end).position(start);
+        if (liveBytes + bytes <= this.buffer.capacity()) {
+            // Dropping the removed records makes enough room, shift the live records to the front
+            this.buffer.compact();
+        } else {
+            int capacity = this.buffer.capacity();
+            while (capacity < liveBytes + bytes)
+                capacity = Math.multiplyExact(capacity, 2);
+
+            ByteBuffer resized = this.allocate(capacity);
+            resized.put(this.buffer);
+            this.buffer = resized;
+        }
+        this.buffer.clear();
+
+        int[] offsets = this.offsets;
+        if (count + records >= offsets.length) {
+            int length = offsets.length;
+            while (length <= count + records)
+                length = Math.multiplyExact(length, 2);
+            offsets = new int[length];
+        }
+
+        for (int i = 0; i <= count; i++)
+            offsets[i] = this.offsets[this.head + i] - start;
+
+        this.offsets = offsets;
+        this.head = 0;
+        this.tail = count;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+}
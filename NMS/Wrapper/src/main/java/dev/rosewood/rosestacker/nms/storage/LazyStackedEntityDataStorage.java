@@ -0,0 +1,162 @@
+package dev.rosewood.rosestacker.nms.storage;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.bukkit.entity.LivingEntity;
+
+/**
+ * Holds the serialized data of another storage and only decodes it the first time the entries are needed.
+ * The size is known ahead of time, so stacks that are loaded and saved again without being changed
+ * never have their entries decoded, and are saved with their original bytes.
+ */
+public class LazyStackedEntityDataStorage extends StackedEntityDataStorage {
+
+    private final BiFunction<LivingEntity, byte[], StackedEntityDataStorage> decoder;
+    private final int serializedSize;
+    private byte[] serialized;
+    private volatile StackedEntityDataStorage decoded;
+
+    /**
+     * @param type The type of the serialized storage
+     * @param entity The entity that the storage is for
+     * @param serialized The serialized storage data
+     * @param serializedSize The number of entries in the serialized data
+     * @param decoder The function to decode the serialized data with
+     */
+    public LazyStackedEntityDataStorage(StackedEntityDataStorageType type, LivingEntity entity, byte[] serialized, int serializedSize,
+                                        BiFunction<LivingEntity, byte[], StackedEntityDataStorage> decoder) {
+        super(type, entity);
+        this.decoder = decoder;
+        this.serializedSize = serializedSize;
+        this.serialized = serialized;
+    }
+
+    /**
+     * @return true if the serialized data has been decoded, false otherwise
+     */
+    public boolean isDecoded() {
+        return this.decoded != null;
+    }
+
+    /**
+     * Gets the decoded storage, decoding it first if it hasn't been yet
+     *
+     * @return the decoded storage
+     */
+    public StackedEntityDataStorage decode() {
+        StackedEntityDataStorage decoded = this.decoded;
+        if (decoded != null)
+            return decoded;
+
+        synchronized (this) {
+            if (this.decoded == null) {
+                this.decoded = this.decoder.apply(this.getEntity(), this.serialized);
+                this.serialized = null;
+            }
+            return this.decoded;
+        }
+    }
+
+    @Override
+    public void updateEntity(LivingEntity entity) {
+        super.updateEntity(entity);
+
+        StackedEntityDataStorage decoded = this.decoded;
+        if (decoded != null)
+            decoded.updateEntity(entity);
+    }
+
+    @Override
+    public void add(LivingEntity entity) {
+        this.decode().add(entity);
+    }
+
+    @Override
+    public void addAll(StackedEntityDataStorage stackedEntityDataStorage) {
+        if (stackedEntityDataStorage instanceof LazyStackedEntityDataStorage lazyStorage)
+            stackedEntityDataStorage = lazyStorage.decode();
+        this.decode().addAll(stackedEntityDataStorage);
+    }
+
+    @Override
+    public void addEntries(List<EntityDataEntry> entries) {
+        this.decode().addEntries(entries);
+    }
+
+    @Override
+    public void addClones(int amount) {
+        this.decode().addClones(amount);
+    }
+
+    @Override
+    public EntityDataEntry peek() {
+        return this.decode().peek();
+    }
+
+    @Override
+    public EntityDataEntry pop() {
+        return this.decode().pop();
+    }
+
+    @Override
+    public List<EntityDataEntry> pop(int amount) {
+        return this.decode().pop(amount);
+    }
+
+    @Override
+    public int size() {
+        StackedEntityDataStorage decoded = this.decoded;
+        return decoded != null ? decoded.size() : this.serializedSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    @Override
+    public List<EntityDataEntry> getAll() {
+        return this.decode().getAll();
+    }
+
+    @Override
+    public SerializedEntityData serializeSized(int maxAmount) {
+        // Untouched data can be written back as it was read, as long as it wouldn't be cut off
+        if (this.decoded == null) {
+            synchronized (this) {
+                if (this.decoded == null && this.serializedSize <= maxAmount)
+                    return new SerializedEntityData(this.serialized, this.serializedSize);
+            }
+        }
+
+        return this.decode().serializeSized(maxAmount);
+    }
+
+    @Override
+    public void forEachCapped(int count, Consumer<LivingEntity> consumer) {
+        this.decode().forEachCapped(count, consumer);
+    }
+
+    @Override
+    public void forEachTransforming(Function<LivingEntity, Boolean> function) {
+        this.decode().forEachTransforming(function);
+    }
+
+    @Override
+    public List<LivingEntity> removeIf(Function<LivingEntity, Boolean> function) {
+        return this.decode().removeIf(function);
+    }
+
+    @Override
+    public void forEachDataTransforming(Consumer<EntityDataAccessor> consumer) {
+        this.decode().forEachDataTransforming(consumer);
+    }
+
+    @Override
+    public List<LivingEntity> removeDataIf(Function<EntityDataAccessor, Boolean> function) {
+        return this.decode().removeDataIf(function);
+    }
+
+}
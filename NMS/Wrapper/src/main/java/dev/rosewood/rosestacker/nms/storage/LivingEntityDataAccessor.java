@@ -0,0 +1,79 @@
+package dev.rosewood.rosestacker.nms.storage;
+
+import dev.rosewood.rosegarden.compatibility.CompatibilityAdapter;
+import org.bukkit.DyeColor;
+import org.bukkit.entity.Ageable;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Sheep;
+import org.bukkit.material.Colorable;
+
+/**
+ * Accesses the values of an entity that has already been created, used by storages that don't keep entities as data
+ */
+class LivingEntityDataAccessor implements EntityDataAccessor {
+
+    private final LivingEntity entity;
+    private boolean modified;
+
+    public LivingEntityDataAccessor(LivingEntity entity) {
+        this.entity = entity;
+    }
+
+    @Override
+    public boolean isSheared() {
+        return this.entity instanceof Sheep sheep && CompatibilityAdapter.getShearedHandler().isSheared(sheep);
+    }
+
+    @Override
+    public void setSheared(boolean sheared) {
+        if (this.entity instanceof Sheep sheep && this.isSheared() != sheared) {
+            CompatibilityAdapter.getShearedHandler().setSheared(sheep, sheared);
+            this.modified = true;
+        }
+    }
+
+    @Override
+    public DyeColor getColor() {
+        return this.entity instanceof Colorable colorable ? colorable.getColor() : null;
+    }
+
+    @Override
+    public void setColor(DyeColor color) {
+        if (this.entity instanceof Colorable colorable && colorable.getColor() != color) {
+            colorable.setColor(color);
+            this.modified = true;
+        }
+    }
+
+    @Override
+    public int getAge() {
+        return this.entity instanceof Ageable ageable ? ageable.getAge() : 0;
+    }
+
+    @Override
+    public void setAge(int age) {
+        if (this.entity instanceof Ageable ageable && ageable.getAge() != age) {
+            ageable.setAge(age);
+            this.modified = true;
+        }
+    }
+
+    @Override
+    public double getHealth() {
+        return this.entity.getHealth();
+    }
+
+    @Override
+    public void setHealth(double health) {
+        if (this.entity.getHealth() != health) {
+            this.entity.setHealth(health);
+            this.modified = true;
+        }
+    }
+
+    @Override
+    public boolean isModified() {
+        return this.modified;
+    }
+
+}
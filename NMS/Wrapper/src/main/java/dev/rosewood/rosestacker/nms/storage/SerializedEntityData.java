@@ -0,0 +1,11 @@
+package dev.rosewood.rosestacker.nms.storage;
+
+/**
+ * The serialized data of a storage along with the number of entries that were written to it
+ *
+ * @param data The serialized data
+ * @param size The number of entries in the data
+ */
+public record SerializedEntityData(byte[] data, int size) {
+
+}
@@ -0,0 +1,235 @@
+package dev.rosewood.rosestacker.nms.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append-only file that holds serialized entity data that has been moved out of memory.
+ * Each write creates a {@link Segment}, and the space of a segment becomes garbage once it is released.
+ * The file is compacted once most of it is garbage, and is deleted when closed since it is only used while running.
+ */
+public class SpillFile implements AutoCloseable {
+
+    private static final long COMPACTION_MIN_SIZE = 16 * 1024 * 1024;
+
+    private final Path basePath;
+    private final Logger logger;
+    private final Set<Segment> liveSegments;
+    private Path path;
+    private FileChannel channel;
+    private long size;
+    private long liveBytes;
+
+    /**
+     * @param path The path of the file, any existing file is replaced
+     * @param logger The logger to report failures to that can't be passed on to the caller
+     * @throws IOException if the file could not be created
+     */
+    public SpillFile(Path path, Logger logger) throws IOException {
+        this.basePath = path;
+        this.path = path;
+        this.logger = logger;
+        this.liveSegments = Collections.newSetFromMap(new IdentityHashMap<>());
+        Files.createDirectories(path.getParent());
+        this.channel = this.open(path);
+    }
+
+    /**
+     * Appends data to the end of the file
+     *
+     * @param data The data to write
+     * @param count The number of entities in the data
+     * @return the segment the data was written to
+     */
+    public synchronized Segment append(byte[] data, int count) {
+        this.checkOpen();
+        try {
+            Segment segment = new Segment(this.size, data.length, count);
+            this.writeFully(this.channel, ByteBuffer.wrap(data), segment.offset);
+            this.size += data.length;
+            this.liveBytes += data.length;
+            this.liveSegments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new StackedEntityDataIOException(e);
+        }
+    }
+
+    /**
+     * Reads the data of a segment
+     *
+     * @param segment The segment to read
+     * @return the data of the segment
+     */
+    public synchronized byte[] read(Segment segment) {
+        this.checkOpen();
+        if (!this.liveSegments.contains(segment))
+            throw new IllegalStateException("Segment has already been released");
+
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(segment.length);
+            while (buffer.hasRemaining())
+                if (this.channel.read(buffer, segment.offset + buffer.position()) < 0)
+                    throw new IOException("Unexpected end of spill file");
+            return buffer.array();
+        } catch (IOException e) {
+            throw new StackedEntityDataIOException(e);
+        }
+    }
+
+    /**
+     * Marks the space of a segment as garbage, does nothing if the segment was already released
+     *
+     * @param segment The segment to release
+     */
+    public synchronized void release(Segment segment) {
+        if (this.channel == null || !this.liveSegments.remove(segment))
+            return;
+
+        this.liveBytes -= segment.length;
+        try {
+            if (this.liveSegments.isEmpty()) {
+                this.channel.truncate(0);
+                this.size = 0;
+                this.liveBytes = 0;
+            } else if (this.size >= COMPACTION_MIN_SIZE && this.liveBytes < this.size / 4) {
+                this.compact();
+            }
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Failed to reclaim space in spill file " + this.path, e);
+        }
+    }
+
+    /**
+     * @return the size of the file in bytes, including garbage
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of bytes in the file that are still in use
+     */
+    public synchronized long getLiveBytes() {
+        return this.liveBytes;
+    }
+
+    /**
+     * Closes and deletes the file, any segments that haven't been released can no longer be read
+     */
+    @Override
+    public synchronized void close() {
+        if (this.channel == null)
+            return;
+
+        try {
+            this.channel.close();
+            Files.deleteIfExists(this.path);
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Failed to delete spill file " + this.path, e);
+        }
+
+        this.channel = null;
+        this.liveSegments.clear();
+    }
+
+    /**
+     * Copies all live segments back to back into a new file and switches over to it.
+     * The file alternates between two paths, so the old file stays untouched and in use if anything fails while copying.
+     */
+    private void compact() throws IOException {
+        List<Segment> segments = new ArrayList<>(this.liveSegments);
+        segments.sort((x, y) -> Long.compare(x.offset, y.offset));
+
+        Path compactedPath = this.path.equals(this.basePath) ? this.basePath.resolveSibling(this.basePath.getFileName() + ".compact") : this.basePath;
+        FileChannel compacted = this.open(compactedPath);
+        long[] offsets = new long[segments.size()];
+        long position = 0;
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                long transferred = 0;
+                while (transferred < segment.length)
+                    transferred += this.channel.transferTo(segment.offset + transferred, segment.length - transferred, compacted.position(position + transferred));
+                offsets[i] = position;
+                position += segment.length;
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                compacted.close();
+                Files.deleteIfExists(compactedPath);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+
+        // Everything has been copied, nothing below can leave the segments pointing at the wrong file
+        for (int i = 0; i < segments.size(); i++)
+            segments.get(i).offset = offsets[i];
+
+        FileChannel oldChannel = this.channel;
+        Path oldPath = this.path;
+        this.channel = compacted;
+        this.path = compactedPath;
+        this.size = position;
+        this.liveBytes = position;
+
+        try {
+            oldChannel.close();
+            Files.deleteIfExists(oldPath);
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Failed to delete old spill file " + oldPath, e);
+        }
+    }
+
+    private FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    private void checkOpen() {
+        if (this.channel == null)
+            throw new IllegalStateException("Spill file is closed");
+    }
+
+    /**
+     * A range of a {@link SpillFile} that holds the serialized data of some entities
+     */
+    public static final class Segment {
+
+        private long offset;
+        private final int length;
+        private final int count;
+
+        private Segment(long offset, int length, int count) {
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+        }
+
+        /**
+         * @return the number of entities in this segment
+         */
+        public int getCount() {
+            return this.count;
+        }
+
+    }
+
+}
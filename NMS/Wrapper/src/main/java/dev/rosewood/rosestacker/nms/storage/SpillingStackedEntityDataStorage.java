@@ -0,0 +1,480 @@
+package dev.rosewood.rosestacker.nms.storage;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.bukkit.entity.LivingEntity;
+
+/**
+ * Keeps at most a window of entries of another storage in memory and moves the rest to a {@link SpillFile}.
+ * Entries are kept in three parts, in the order they are popped in:
+ * the front of the stack in memory, segments in the spill file, and newly added entries in memory.
+ * New entries are moved to the spill file a window at a time, and segments are read back in order as the front is popped.
+ * Segments that are still held when the storage is garbage collected are released from the spill file.
+ */
+public class SpillingStackedEntityDataStorage extends StackedEntityDataStorage {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final SpillFile spillFile;
+    private final int windowSize;
+    private final BiFunction<LivingEntity, byte[], StackedEntityDataStorage> decoder;
+    private final byte[] emptyData;
+    private final Deque<SpillFile.Segment> segments;
+    private StackedEntityDataStorage front;
+    private StackedEntityDataStorage back;
+    private int segmentsSize;
+    private boolean windowChecked;
+
+    /**
+     * @param storage The storage to hold the entries of, its entries become the front of the stack
+     * @param spillFile The file to move entries to
+     * @param windowSize The max number of entries to keep in memory for each end of the stack
+     * @param factory The function to create an empty storage of the same type with, only called from this constructor
+     * @param decoder The function to decode serialized storages of the same type with
+     */
+    public SpillingStackedEntityDataStorage(StackedEntityDataStorage storage, SpillFile spillFile, int windowSize,
+                                            Function<LivingEntity, StackedEntityDataStorage> factory,
+                                            BiFunction<LivingEntity, byte[], StackedEntityDataStorage> decoder) {
+        this(storage, factory.apply(storage.getEntity()), spillFile, windowSize, decoder);
+    }
+
+    /**
+     * Empty storages are decoded from the data of an empty storage instead of being created from the entity,
+     * since creating one reads the live entity, which isn't safe off the main thread
+     */
+    private SpillingStackedEntityDataStorage(StackedEntityDataStorage storage, StackedEntityDataStorage empty, SpillFile spillFile,
+                                             int windowSize, BiFunction<LivingEntity, byte[], StackedEntityDataStorage> decoder) {
+        super(storage.getType(), storage.getEntity());
+        this.spillFile = spillFile;
+        this.windowSize = Math.max(windowSize, 1);
+        this.decoder = decoder;
+        this.emptyData = empty.serializeSized(0).data();
+        this.segments = new ArrayDeque<>();
+        this.front = storage;
+        this.back = empty;
+
+        Deque<SpillFile.Segment> segments = this.segments;
+        CLEANER.register(this, () -> {
+            synchronized (segments) {
+                segments.forEach(spillFile::release);
+                segments.clear();
+            }
+        });
+    }
+
+    /**
+     * @return the number of entries that are currently in the spill file
+     */
+    public synchronized int getSpilledSize() {
+        return this.segmentsSize;
+    }
+
+    /**
+     * @return the spill file the entries are moved to
+     */
+    public SpillFile getSpillFile() {
+        return this.spillFile;
+    }
+
+    /**
+     * Moves this storage over to another spill file, such as the spill file of the world the entity has moved to.
+     * Segments are copied over one at a time as they are and released from the current spill file.
+     * This storage is left empty and should no longer be used.
+     *
+     * @param spillFile The spill file to move to
+     * @return a storage holding the same entries that spills to the given file
+     */
+    public synchronized SpillingStackedEntityDataStorage transferTo(SpillFile spillFile) {
+        SpillingStackedEntityDataStorage transferred = new SpillingStackedEntityDataStorage(this.front, this.createEmpty(), spillFile, this.windowSize, this.decoder);
+        synchronized (this.segments) {
+            for (SpillFile.Segment segment : this.segments) {
+                SpillFile.Segment copied = spillFile.append(this.spillFile.read(segment), segment.getCount());
+                synchronized (transferred.segments) {
+                    transferred.segments.add(copied);
+                }
+                this.spillFile.release(segment);
+            }
+            this.segments.clear();
+        }
+
+        // The new storage hasn't been handed out yet, so it doesn't need to be locked
+        transferred.back = this.back;
+        transferred.segmentsSize = this.segmentsSize;
+        transferred.windowChecked = this.windowChecked;
+
+        this.front = this.createEmpty();
+        this.back = this.createEmpty();
+        this.segmentsSize = 0;
+        return transferred;
+    }
+
+    /**
+     * Reads all spilled entries back into memory, used when the entity moves to a world without a spill file.
+     * This storage is left empty and should no longer be used.
+     *
+     * @return a storage holding the same entries that is only kept in memory
+     */
+    public synchronized StackedEntityDataStorage unspill() {
+        StackedEntityDataStorage storage = this.front;
+        synchronized (this.segments) {
+            for (SpillFile.Segment segment : this.segments) {
+                storage.addAll(this.readSegment(segment));
+                this.spillFile.release(segment);
+            }
+            this.segments.clear();
+        }
+        storage.addAll(this.back);
+
+        this.front = this.createEmpty();
+        this.back = this.createEmpty();
+        this.segmentsSize = 0;
+        return storage;
+    }
+
+    @Override
+    public synchronized void updateEntity(LivingEntity entity) {
+        super.updateEntity(entity);
+        this.front.updateEntity(entity);
+        this.back.updateEntity(entity);
+    }
+
+    @Override
+    public synchronized void add(LivingEntity entity) {
+        this.checkWindow();
+        if (this.canAddToFront(1)) {
+            this.front.add(entity);
+        } else {
+            this.back.add(entity);
+            this.spillBack(false);
+        }
+    }
+
+    @Override
+    public void addAll(StackedEntityDataStorage stackedEntityDataStorage) {
+        if (stackedEntityDataStorage instanceof LazyStackedEntityDataStorage lazyStorage)
+            stackedEntityDataStorage = lazyStorage.decode();
+
+        // Segments in the same file can be taken over as they are instead of being read back in.
+        // The other storage is emptied before this one is locked so two storages are never locked at once.
+        if (stackedEntityDataStorage instanceof SpillingStackedEntityDataStorage other && other.spillFile == this.spillFile && other != this) {
+            StackedEntityDataStorage otherFront, otherBack;
+            List<SpillFile.Segment> otherSegments;
+            int otherSegmentsSize;
+            synchronized (other) {
+                otherFront = other.front;
+                otherBack = other.back;
+                synchronized (other.segments) {
+                    otherSegments = new ArrayList<>(other.segments);
+                    other.segments.clear();
+                }
+                otherSegmentsSize = other.segmentsSize;
+                other.front = other.createEmpty();
+                other.back = other.createEmpty();
+                other.segmentsSize = 0;
+            }
+
+            synchronized (this) {
+                this.checkWindow();
+                this.spillBack(true);
+                this.back.addAll(otherFront);
+                this.spillBack(true);
+                synchronized (this.segments) {
+                    this.segments.addAll(otherSegments);
+                }
+                this.segmentsSize += otherSegmentsSize;
+                this.back.addAll(otherBack);
+                this.spillBack(false);
+            }
+            return;
+        }
+
+        synchronized (this) {
+            this.checkWindow();
+            if (this.canAddToFront(stackedEntityDataStorage.size())) {
+                this.front.addAll(stackedEntityDataStorage);
+            } else {
+                this.back.addAll(stackedEntityDataStorage);
+                this.spillBack(false);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void addEntries(List<EntityDataEntry> entries) {
+        this.checkWindow();
+        if (this.canAddToFront(entries.size())) {
+            this.front.addEntries(entries);
+        } else {
+            this.back.addEntries(entries);
+            this.spillBack(false);
+        }
+    }
+
+    @Override
+    public synchronized void addClones(int amount) {
+        this.checkWindow();
+        if (this.canAddToFront(amount)) {
+            this.front.addClones(amount);
+        } else {
+            this.back.addClones(amount);
+            this.spillBack(false);
+        }
+    }
+
+    @Override
+    public synchronized EntityDataEntry peek() {
+        this.checkWindow();
+        this.fillFront();
+        return this.front.peek();
+    }
+
+    @Override
+    public synchronized EntityDataEntry pop() {
+        this.checkWindow();
+        this.fillFront();
+        return this.front.pop();
+    }
+
+    @Override
+    public synchronized List<EntityDataEntry> pop(int amount) {
+        this.checkWindow();
+        List<EntityDataEntry> popped = new ArrayList<>(Math.min(amount, this.size()));
+        while (popped.size() < amount) {
+            this.fillFront();
+            if (this.front.isEmpty())
+                break;
+            popped.addAll(this.front.pop(amount - popped.size()));
+        }
+        return popped;
+    }
+
+    @Override
+    public synchronized int size() {
+        return this.front.size() + this.segmentsSize + this.back.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    @Override
+    public synchronized List<EntityDataEntry> getAll() {
+        List<EntityDataEntry> entries = new ArrayList<>(this.size());
+        entries.addAll(this.front.getAll());
+        for (SpillFile.Segment segment : this.segments)
+            entries.addAll(this.readSegment(segment).getAll());
+        entries.addAll(this.back.getAll());
+        return entries;
+    }
+
+    @Override
+    public synchronized SerializedEntityData serializeSized(int maxAmount) {
+        List<SerializedEntityData> parts = this.serializeParts(maxAmount);
+        if (parts.size() == 1)
+            return parts.get(0);
+
+        StackedEntityDataStorage merged = this.decoder.apply(this.getEntity(), parts.get(0).data());
+        for (int i = 1; i < parts.size(); i++)
+            merged.addAll(this.decoder.apply(this.getEntity(), parts.get(i).data()));
+        return merged.serializeSized(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes the front, each segment and the back as separate parts.
+     * Segments are copied from the spill file as they are, only a segment that has to be cut off is decoded.
+     */
+    @Override
+    public synchronized List<SerializedEntityData> serializeParts(int maxAmount) {
+        List<SerializedEntityData> parts = new ArrayList<>(this.segments.size() + 2);
+        int remaining = this.addPart(parts, this.front, maxAmount);
+        for (SpillFile.Segment segment : this.segments) {
+            if (remaining <= 0)
+                return parts;
+
+            if (segment.getCount() <= remaining) {
+                parts.add(new SerializedEntityData(this.spillFile.read(segment), segment.getCount()));
+                remaining -= segment.getCount();
+            } else {
+                remaining = this.addPart(parts, this.readSegment(segment), remaining);
+            }
+        }
+        this.addPart(parts, this.back, remaining);
+        return parts;
+    }
+
+    @Override
+    public synchronized void forEachCapped(int count, Consumer<LivingEntity> consumer) {
+        int remaining = count;
+        remaining -= this.forEachCapped(this.front, remaining, consumer);
+        for (SpillFile.Segment segment : this.segments) {
+            if (remaining <= 0)
+                return;
+            remaining -= this.forEachCapped(this.readSegment(segment), remaining, consumer);
+        }
+        this.forEachCapped(this.back, remaining, consumer);
+    }
+
+    @Override
+    public synchronized void forEachTransforming(Function<LivingEntity, Boolean> function) {
+        this.front.forEachTransforming(function);
+        this.rewriteSegments(storage -> storage.forEachTransforming(function));
+        this.back.forEachTransforming(function);
+    }
+
+    @Override
+    public synchronized List<LivingEntity> removeIf(Function<LivingEntity, Boolean> function) {
+        List<LivingEntity> removed = new ArrayList<>(this.front.removeIf(function));
+        this.rewriteSegments(storage -> removed.addAll(storage.removeIf(function)));
+        removed.addAll(this.back.removeIf(function));
+        return removed;
+    }
+
+    @Override
+    public synchronized void forEachDataTransforming(Consumer<EntityDataAccessor> consumer) {
+        this.front.forEachDataTransforming(consumer);
+        this.rewriteSegments(storage -> storage.forEachDataTransforming(consumer));
+        this.back.forEachDataTransforming(consumer);
+    }
+
+    @Override
+    public synchronized List<LivingEntity> removeDataIf(Function<EntityDataAccessor, Boolean> function) {
+        List<LivingEntity> removed = new ArrayList<>(this.front.removeDataIf(function));
+        this.rewriteSegments(storage -> removed.addAll(storage.removeDataIf(function)));
+        removed.addAll(this.back.removeDataIf(function));
+        return removed;
+    }
+
+    private int forEachCapped(StackedEntityDataStorage storage, int count, Consumer<LivingEntity> consumer) {
+        if (count <= 0)
+            return 0;
+
+        int amount = Math.min(count, storage.size());
+        storage.forEachCapped(amount, consumer);
+        return amount;
+    }
+
+    /**
+     * Serializes a storage as the next part, empty storages are skipped unless there are no parts yet
+     *
+     * @return the number of entries that can still be written after this part
+     */
+    private int addPart(List<SerializedEntityData> parts, StackedEntityDataStorage storage, int remaining) {
+        if (remaining <= 0 || (storage.isEmpty() && !parts.isEmpty()))
+            return remaining;
+
+        SerializedEntityData part = storage.serializeSized(remaining);
+        parts.add(part);
+        return remaining - part.size();
+    }
+
+    private boolean canAddToFront(int amount) {
+        return this.segments.isEmpty() && this.back.isEmpty() && this.front.size() + amount <= this.windowSize;
+    }
+
+    /**
+     * Moves anything past the window at the front of the stack to the spill file.
+     * Only done once the entries are first used, so loaded stacks that are never touched don't need to be decoded.
+     */
+    private void checkWindow() {
+        if (this.windowChecked)
+            return;
+
+        this.windowChecked = true;
+        if (this.front.size() <= this.windowSize)
+            return;
+
+        // Nothing has been added to the back yet, so the rest of the original storage can be spilled from there
+        StackedEntityDataStorage original = this.front;
+        this.front = this.createEmpty();
+        this.front.addEntries(original.pop(this.windowSize));
+        this.back = original;
+        this.spillBack(true);
+    }
+
+    /**
+     * Moves the entries at the back of the stack to the spill file, a window at a time
+     *
+     * @param force true to also move the last entries if there are less than a window of them
+     */
+    private void spillBack(boolean force) {
+        while (this.back.size() > this.windowSize) {
+            StackedEntityDataStorage chunk = this.createEmpty();
+            chunk.addEntries(this.back.pop(this.windowSize));
+            this.appendSegment(chunk);
+        }
+
+        if (!this.back.isEmpty() && (force || this.back.size() == this.windowSize)) {
+            this.appendSegment(this.back);
+            this.back = this.createEmpty();
+        }
+    }
+
+    /**
+     * Refills the front of the stack from the next segment, or from the back if nothing is left in the spill file
+     */
+    private void fillFront() {
+        if (!this.front.isEmpty())
+            return;
+
+        SpillFile.Segment segment;
+        synchronized (this.segments) {
+            segment = this.segments.poll();
+        }
+
+        if (segment != null) {
+            this.front = this.readSegment(segment);
+            this.segmentsSize -= segment.getCount();
+            this.spillFile.release(segment);
+        } else if (!this.back.isEmpty()) {
+            StackedEntityDataStorage empty = this.front;
+            this.front = this.back;
+            this.back = empty;
+        }
+    }
+
+    private void rewriteSegments(Consumer<StackedEntityDataStorage> action) {
+        List<SpillFile.Segment> rewritten = new ArrayList<>(this.segments.size());
+        int rewrittenSize = 0;
+        for (SpillFile.Segment segment : this.segments) {
+            StackedEntityDataStorage storage = this.readSegment(segment);
+            action.accept(storage);
+            if (!storage.isEmpty()) {
+                SerializedEntityData serialized = storage.serializeSized(Integer.MAX_VALUE);
+                rewritten.add(this.spillFile.append(serialized.data(), serialized.size()));
+                rewrittenSize += serialized.size();
+            }
+        }
+
+        synchronized (this.segments) {
+            this.segments.forEach(this.spillFile::release);
+            this.segments.clear();
+            this.segments.addAll(rewritten);
+        }
+        this.segmentsSize = rewrittenSize;
+    }
+
+    private void appendSegment(StackedEntityDataStorage storage) {
+        SerializedEntityData serialized = storage.serializeSized(Integer.MAX_VALUE);
+        SpillFile.Segment segment = this.spillFile.append(serialized.data(), serialized.size());
+        synchronized (this.segments) {
+            this.segments.add(segment);
+        }
+        this.segmentsSize += segment.getCount();
+    }
+
+    private StackedEntityDataStorage createEmpty() {
+        return this.decoder.apply(this.getEntity(), this.emptyData);
+    }
+
+    private StackedEntityDataStorage readSegment(SpillFile.Segment segment) {
+        return this.decoder.apply(this.getEntity(), this.spillFile.read(segment));
+    }
+
+}
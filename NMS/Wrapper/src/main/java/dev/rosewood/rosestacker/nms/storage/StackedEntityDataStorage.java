@@ -59,6 +59,13 @@ public abstract class StackedEntityDataStorage {
      */
     public abstract void addAll(StackedEntityDataStorage stackedEntityDataStorage);
 
+    /**
+     * Adds the given entries, such as entries that were popped from another storage
+     *
+     * @param entries The entries to add
+     */
+    public abstract void addEntries(List<EntityDataEntry> entries);
+
     /**
      * Adds a number of clones to the data storage
      *
@@ -107,7 +114,29 @@ public abstract class StackedEntityDataStorage {
      * @param maxAmount The max amount of entities to store
      * @return the compressed entries serialized into a savable format
      */
-    public abstract byte[] serialize(int maxAmount);
+    public byte[] serialize(int maxAmount) {
+        return this.serializeSized(maxAmount).data();
+    }
+
+    /**
+     * Serializes the stored entity data along with the number of entries that were written.
+     * The entries are captured at once, so the size always matches the data even if the storage is changed while it is serialized.
+     *
+     * @param maxAmount The max amount of entities to store
+     * @return the compressed entries serialized into a savable format and the number of entries in them
+     */
+    public abstract SerializedEntityData serializeSized(int maxAmount);
+
+    /**
+     * Serializes the stored entity data into one or more parts, each of which can be deserialized as a storage of the same type.
+     * Storages that keep all of their entries in memory write a single part.
+     *
+     * @param maxAmount The max amount of entities to store across all parts
+     * @return the serialized parts in the order the entries are stored in
+     */
+    public List<SerializedEntityData> serializeParts(int maxAmount) {
+        return List.of(this.serializeSized(maxAmount));
+    }
 
     /**
      * @return all compressed entries serialized into a savable format
@@ -134,6 +163,8 @@ public abstract class StackedEntityDataStorage {
 
     /**
      * Calls the given function for each element in this storage.
+     * Storages that group identical elements may call the function once for each group and apply the result to every element in it,
+     * use {@link #forEachDataTransforming(Consumer)} for anything that has to happen once per element.
      * Default implementation acts the same as {@link #forEach(Consumer)}.
      *
      * @param function The function to call for each element, returning true will re-serialize the element
@@ -143,13 +174,41 @@ public abstract class StackedEntityDataStorage {
     }
 
     /**
-     * Calls the given function for each element in this storage and removes any element where the function returns true
+     * Calls the given function for each element in this storage and removes any element where the function returns true.
+     * Storages that group identical elements may call the function once for each group and apply the result to every element in it,
+     * use {@link #removeDataIf(Function)} for anything that has to happen once per element.
      *
      * @param function The function to call for each element
      * @return a list of all removed entries
      */
     public abstract List<LivingEntity> removeIf(Function<LivingEntity, Boolean> function);
 
+    /**
+     * Calls the given consumer with the data of each element in this storage, only elements that were changed are re-serialized.
+     * Default implementation creates each entity the same as {@link #forEachTransforming(Function)}.
+     *
+     * @param consumer The consumer to call for the data of each element
+     */
+    public void forEachDataTransforming(Consumer<EntityDataAccessor> consumer) {
+        this.forEachTransforming(entity -> {
+            EntityDataAccessor accessor = new LivingEntityDataAccessor(entity);
+            consumer.accept(accessor);
+            return accessor.isModified();
+        });
+    }
+
+    /**
+     * Calls the given function with the data of each element in this storage and removes any element where the function returns true.
+     * Entities are only created for the removed elements, the other elements are only re-serialized if they were changed.
+     * Default implementation creates each entity the same as {@link #removeIf(Function)}.
+     *
+     * @param function The function to call for the data of each element
+     * @return a list of all removed entries
+     */
+    public List<LivingEntity> removeDataIf(Function<EntityDataAccessor, Boolean> function) {
+        return this.removeIf(entity -> function.apply(new LivingEntityDataAccessor(entity)));
+    }
+
     /**
      * Creates a backing queue to be used for the storage
      *
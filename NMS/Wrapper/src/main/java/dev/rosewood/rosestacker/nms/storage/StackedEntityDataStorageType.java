@@ -5,7 +5,10 @@ import java.util.Arrays;
 public enum StackedEntityDataStorageType {
 
     NBT(0, "Store all NBT data for internal entities, memory and performance intensive but highly accurate"),
-    SIMPLE(1, "Store only the stack size and clone the main entity, memory efficient and extremely fast but less accurate");
+    SIMPLE(1, "Store only the stack size and clone the main entity, memory efficient and extremely fast but less accurate"),
+    DELTA(2, "Store only the NBT data that differs from the main entity, as accurate as NBT but uses much less memory for similar entities"),
+    COUNTED(3, "Store identical entities once with a count, as accurate as NBT and much faster when most entities in a stack are the same"),
+    SLAB(4, "Store each entity's NBT data serialized back to back in a single buffer, as accurate as NBT and much lighter on the garbage collector");
 
     private final int id;
     private final String description;
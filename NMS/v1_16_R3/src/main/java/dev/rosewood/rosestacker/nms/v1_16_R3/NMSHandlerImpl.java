@@ -16,9 +16,12 @@ import dev.rosewood.rosestacker.nms.v1_16_R3.entity.SoloEntityStrider;
 import dev.rosewood.rosestacker.nms.v1_16_R3.event.AsyncEntityDeathEventImpl;
 import dev.rosewood.rosestacker.nms.v1_16_R3.hologram.HologramImpl;
 import dev.rosewood.rosestacker.nms.v1_16_R3.spawner.StackedSpawnerTileImpl;
+import dev.rosewood.rosestacker.nms.v1_16_R3.storage.CountedStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.v1_16_R3.storage.DeltaStackedEntityDataStorage;
 import dev.rosewood.rosestacker.nms.v1_16_R3.storage.NBTEntityDataEntry;
 import dev.rosewood.rosestacker.nms.v1_16_R3.storage.NBTStackedEntityDataStorage;
 import dev.rosewood.rosestacker.nms.v1_16_R3.storage.SimpleStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.v1_16_R3.storage.SlabStackedEntityDataStorage;
 import dev.rosewood.rosestacker.stack.StackedSpawner;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -392,6 +395,9 @@ public class NMSHandlerImpl implements NMSHandler {
         return switch (storageType) {
             case NBT -> new NBTStackedEntityDataStorage(livingEntity);
             case SIMPLE -> new SimpleStackedEntityDataStorage(livingEntity);
+            case DELTA -> new DeltaStackedEntityDataStorage(livingEntity);
+            case COUNTED -> new CountedStackedEntityDataStorage(livingEntity);
+            case SLAB -> new SlabStackedEntityDataStorage(livingEntity);
         };
     }
 
@@ -399,6 +405,9 @@ public class NMSHandlerImpl implements NMSHandler {
         return switch (storageType) {
             case NBT -> new NBTStackedEntityDataStorage(livingEntity, data);
             case SIMPLE -> new SimpleStackedEntityDataStorage(livingEntity, data);
+            case DELTA -> new DeltaStackedEntityDataStorage(livingEntity, data);
+            case COUNTED -> new CountedStackedEntityDataStorage(livingEntity, data);
+            case SLAB -> new SlabStackedEntityDataStorage(livingEntity, data);
         };
     }
 
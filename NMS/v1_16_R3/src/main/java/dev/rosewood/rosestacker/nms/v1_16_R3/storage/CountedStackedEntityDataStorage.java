@@ -0,0 +1,458 @@
+package dev.rosewood.rosestacker.nms.v1_16_R3.storage;
+
+import dev.rosewood.rosestacker.nms.NMSAdapter;
+import dev.rosewood.rosestacker.nms.NMSHandler;
+import dev.rosewood.rosestacker.nms.storage.EntityDataAccessor;
+import dev.rosewood.rosestacker.nms.storage.EntityDataEntry;
+import dev.rosewood.rosestacker.nms.storage.LazyStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.storage.SerializedEntityData;
+import dev.rosewood.rosestacker.nms.storage.StackedEntityDataIOException;
+import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorageType;
+import dev.rosewood.rosestacker.nms.v1_16_R3.NMSHandlerImpl;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import net.minecraft.server.v1_16_R3.NBTBase;
+import net.minecraft.server.v1_16_R3.NBTCompressedStreamTools;
+import net.minecraft.server.v1_16_R3.NBTTagCompound;
+import net.minecraft.server.v1_16_R3.NBTTagList;
+import org.bukkit.entity.LivingEntity;
+
+/**
+ * Stores identical internal entities once along with how many of them there are.
+ * Entries are stored the same way as {@link NBTStackedEntityDataStorage} so this is exactly as accurate,
+ * but adding clones, popping, getting the size, and transforming or removing entities only depend on the number of distinct entries.
+ * Entries are kept grouped by content, so the order they were added in is not preserved.
+ */
+public class CountedStackedEntityDataStorage extends StackedEntityDataStorage {
+
+    private final NBTTagCompound base;
+    // Keys are interned before they are added and are never modified afterwards, a changed key would no longer be found by its hash
+    private final Map<NBTTagCompound, Integer> data;
+    private volatile int size;
+
+    public CountedStackedEntityDataStorage(LivingEntity livingEntity) {
+        super(StackedEntityDataStorageType.COUNTED, livingEntity);
+        NBTTagCompound base = new NBTTagCompound();
+
+        ((NMSHandlerImpl) NMSAdapter.getHandler()).saveEntityToTag(livingEntity, base);
+        this.stripUnneeded(base);
+        this.stripAttributeUuids(base);
+        this.base = NBTTagInterner.intern(base);
+
+        this.data = new LinkedHashMap<>();
+    }
+
+    public CountedStackedEntityDataStorage(LivingEntity livingEntity, byte[] data) {
+        super(StackedEntityDataStorageType.COUNTED, livingEntity);
+        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+             ObjectInputStream dataInput = new ObjectInputStream(inputStream)) {
+
+            this.base = NBTTagInterner.intern(NBTCompressedStreamTools.a((DataInput) dataInput));
+            int length = dataInput.readInt();
+            this.data = new LinkedHashMap<>();
+            for (int i = 0; i < length; i++) {
+                NBTTagCompound compoundTag = NBTCompressedStreamTools.a((DataInput) dataInput);
+                this.addCount(compoundTag, dataInput.readInt());
+            }
+        } catch (Exception e) {
+            throw new StackedEntityDataIOException(e);
+        }
+    }
+
+    @Override
+    public void add(LivingEntity entity) {
+        NBTTagCompound compoundTag = new NBTTagCompound();
+        ((NMSHandlerImpl) NMSAdapter.getHandler()).saveEntityToTag(entity, compoundTag);
+        this.stripUnneeded(compoundTag);
+        this.stripAttributeUuids(compoundTag);
+        this.removeDuplicates(compoundTag);
+        synchronized (this.data) {
+            this.addCount(compoundTag, 1);
+        }
+    }
+
+    @Override
+    public void addAll(StackedEntityDataStorage stackedEntityDataStorage) {
+        if (stackedEntityDataStorage instanceof LazyStackedEntityDataStorage lazyStorage)
+            stackedEntityDataStorage = lazyStorage.decode();
+
+        // Counts can be moved over as they are if the entries were made against the same base
+        if (stackedEntityDataStorage instanceof CountedStackedEntityDataStorage other && other.base.equals(this.base)) {
+            Map<NBTTagCompound, Integer> otherData;
+            synchronized (other.data) {
+                otherData = new LinkedHashMap<>(other.data);
+            }
+
+            // The keys of the other storage are already interned
+            synchronized (this.data) {
+                otherData.forEach(this::addInternedCount);
+            }
+            return;
+        }
+
+        this.addEntries(stackedEntityDataStorage.getAll());
+    }
+
+    @Override
+    public void addEntries(List<EntityDataEntry> entries) {
+        synchronized (this.data) {
+            entries.forEach(entry -> {
+                // The entry may still be shared with the other storage, strip a copy of it instead
+                NBTTagCompound compoundTag = ((NBTEntityDataEntry) entry).get().clone();
+                this.stripUnneeded(compoundTag);
+                this.stripAttributeUuids(compoundTag);
+                this.removeDuplicates(compoundTag);
+                this.addCount(compoundTag, 1);
+            });
+        }
+    }
+
+    @Override
+    public void addClones(int amount) {
+        if (amount <= 0)
+            return;
+
+        synchronized (this.data) {
+            this.addCount(new NBTTagCompound(), amount);
+        }
+    }
+
+    @Override
+    public NBTEntityDataEntry peek() {
+        synchronized (this.data) {
+            if (this.data.isEmpty())
+                throw new NoSuchElementException();
+            return new NBTEntityDataEntry(this.rebuild(this.data.keySet().iterator().next()));
+        }
+    }
+
+    @Override
+    public NBTEntityDataEntry pop() {
+        synchronized (this.data) {
+            if (this.data.isEmpty())
+                throw new NoSuchElementException();
+            NBTTagCompound compoundTag = this.data.keySet().iterator().next();
+            this.removeCount(compoundTag, 1);
+            return new NBTEntityDataEntry(this.rebuild(compoundTag));
+        }
+    }
+
+    @Override
+    public List<EntityDataEntry> pop(int amount) {
+        synchronized (this.data) {
+            amount = Math.min(amount, this.size);
+
+            List<EntityDataEntry> popped = new ArrayList<>(Math.max(amount, 0));
+            Iterator<Map.Entry<NBTTagCompound, Integer>> iterator = this.data.entrySet().iterator();
+            while (amount > 0 && iterator.hasNext()) {
+                Map.Entry<NBTTagCompound, Integer> entry = iterator.next();
+                int count = entry.getValue();
+                int taken = Math.min(count, amount);
+                for (int i = 0; i < taken; i++)
+                    popped.add(new NBTEntityDataEntry(this.rebuild(entry.getKey())));
+
+                if (taken == count) {
+                    iterator.remove();
+                } else {
+                    entry.setValue(count - taken);
+                }
+
+                this.size -= taken;
+                amount -= taken;
+            }
+            return popped;
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    @Override
+    public List<EntityDataEntry> getAll() {
+        Map<NBTTagCompound, Integer> data;
+        synchronized (this.data) {
+            data = new LinkedHashMap<>(this.data);
+        }
+
+        List<EntityDataEntry> wrapped = new ArrayList<>(this.size);
+        data.forEach((compoundTag, count) -> {
+            for (int i = 0; i < count; i++)
+                wrapped.add(new NBTEntityDataEntry(this.rebuild(compoundTag)));
+        });
+        return wrapped;
+    }
+
+    @Override
+    public SerializedEntityData serializeSized(int maxAmount) {
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+             ObjectOutputStream dataOutput = new ObjectOutputStream(outputStream)) {
+
+            Map<NBTTagCompound, Integer> tagsToSave = new LinkedHashMap<>();
+            int savedSize = 0;
+            synchronized (this.data) {
+                int remaining = maxAmount;
+                for (Map.Entry<NBTTagCompound, Integer> entry : this.data.entrySet()) {
+                    if (remaining <= 0)
+                        break;
+
+                    int count = Math.min(entry.getValue(), remaining);
+                    tagsToSave.put(entry.getKey(), count);
+                    remaining -= count;
+                    savedSize += count;
+                }
+            }
+
+            NBTCompressedStreamTools.a(this.base, (DataOutput) dataOutput);
+            dataOutput.writeInt(tagsToSave.size());
+            for (Map.Entry<NBTTagCompound, Integer> entry : tagsToSave.entrySet()) {
+                NBTCompressedStreamTools.a(entry.getKey(), (DataOutput) dataOutput);
+                dataOutput.writeInt(entry.getValue());
+            }
+
+            dataOutput.close();
+            return new SerializedEntityData(outputStream.toByteArray(), savedSize);
+        } catch (Exception e) {
+            throw new StackedEntityDataIOException(e);
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<LivingEntity> consumer) {
+        this.forEachCapped(Integer.MAX_VALUE, consumer);
+    }
+
+    @Override
+    public void forEachCapped(int count, Consumer<LivingEntity> consumer) {
+        LivingEntity thisEntity = this.entity.get();
+        if (thisEntity == null)
+            return;
+
+        Map<NBTTagCompound, Integer> data;
+        synchronized (this.data) {
+            data = new LinkedHashMap<>(this.data);
+        }
+
+        for (Map.Entry<NBTTagCompound, Integer> entry : data.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                if (count-- <= 0)
+                    return;
+
+                LivingEntity entity = new NBTEntityDataEntry(this.rebuild(entry.getKey())).createEntity(thisEntity.getLocation(), false, thisEntity.getType());
+                consumer.accept(entity);
+            }
+        }
+    }
+
+    @Override
+    public void forEachTransforming(Function<LivingEntity, Boolean> function) {
+        LivingEntity thisEntity = this.entity.get();
+        if (thisEntity == null)
+            return;
+
+        synchronized (this.data) {
+            Map<NBTTagCompound, Integer> data = new LinkedHashMap<>(this.data);
+            this.data.clear();
+            this.size = 0;
+
+            // Identical entries create identical entities, so the function only has to be run once for each distinct entry
+            data.forEach((compoundTag, count) -> {
+                LivingEntity entity = new NBTEntityDataEntry(this.rebuild(compoundTag)).createEntity(thisEntity.getLocation(), false, thisEntity.getType());
+                if (function.apply(entity)) {
+                    this.addCount(this.createReplacementTag(entity), count);
+                } else {
+                    this.addInternedCount(compoundTag, count);
+                }
+            });
+        }
+    }
+
+    @Override
+    public List<LivingEntity> removeIf(Function<LivingEntity, Boolean> function) {
+        List<LivingEntity> removedEntries = new ArrayList<>(this.size);
+        LivingEntity thisEntity = this.entity.get();
+        if (thisEntity == null)
+            return removedEntries;
+
+        synchronized (this.data) {
+            Map<NBTTagCompound, Integer> data = new LinkedHashMap<>(this.data);
+            this.data.clear();
+            this.size = 0;
+
+            // Identical entries create identical entities, so the function only has to be run once for each distinct entry
+            // and only the removed entries need an entity each
+            data.forEach((compoundTag, count) -> {
+                LivingEntity entity = new NBTEntityDataEntry(this.rebuild(compoundTag)).createEntity(thisEntity.getLocation(), false, thisEntity.getType());
+                if (function.apply(entity)) {
+                    removedEntries.add(entity);
+                    for (int i = 1; i < count; i++)
+                        removedEntries.add(new NBTEntityDataEntry(this.rebuild(compoundTag)).createEntity(thisEntity.getLocation(), false, thisEntity.getType()));
+                } else {
+                    this.addCount(this.createReplacementTag(entity), count);
+                }
+            });
+            return removedEntries;
+        }
+    }
+
+    @Override
+    public void forEachDataTransforming(Consumer<EntityDataAccessor> consumer) {
+        this.removeDataIf(accessor -> {
+            consumer.accept(accessor);
+            return false;
+        });
+    }
+
+    @Override
+    public List<LivingEntity> removeDataIf(Function<EntityDataAccessor, Boolean> function) {
+        List<LivingEntity> removedEntries = new ArrayList<>();
+        LivingEntity thisEntity = this.entity.get();
+        if (thisEntity == null)
+            return removedEntries;
+
+        synchronized (this.data) {
+            Map<NBTTagCompound, Integer> data = new LinkedHashMap<>(this.data);
+            this.data.clear();
+            this.size = 0;
+
+            // Callers may act on each element, such as dropping wool for each sheared sheep, so the function is still run once per element.
+            // Accessors only read the shared entry though, and changed entries that end up identical are counted together again.
+            data.forEach((compoundTag, count) -> {
+                int unchanged = 0;
+                for (int i = 0; i < count; i++) {
+                    NBTEntityDataAccessor accessor = new NBTEntityDataAccessor(this.base, compoundTag);
+                    if (function.apply(accessor)) {
+                        removedEntries.add(new NBTEntityDataEntry(this.rebuild(accessor.getEntry())).createEntity(thisEntity.getLocation(), false, thisEntity.getType()));
+                    } else if (accessor.isModified()) {
+                        NBTTagCompound replacementTag = accessor.getEntry();
+                        this.removeDuplicates(replacementTag);
+                        this.addCount(replacementTag, 1);
+                    } else {
+                        unchanged++;
+                    }
+                }
+
+                if (unchanged > 0)
+                    this.addInternedCount(compoundTag, unchanged);
+            });
+        }
+
+        return removedEntries;
+    }
+
+    /**
+     * Adds to the count of an entry, the entry is interned first and must not be modified afterwards
+     *
+     * @param compoundTag The entry to add to the count of
+     * @param amount The amount to add
+     */
+    private void addCount(NBTTagCompound compoundTag, int amount) {
+        this.addInternedCount(NBTTagInterner.intern(compoundTag), amount);
+    }
+
+    private void addInternedCount(NBTTagCompound compoundTag, int amount) {
+        this.data.merge(compoundTag, amount, Integer::sum);
+        this.size += amount;
+    }
+
+    private void removeCount(NBTTagCompound compoundTag, int amount) {
+        Integer count = this.data.get(compoundTag);
+        if (count == null)
+            return;
+
+        if (count <= amount) {
+            this.data.remove(compoundTag);
+            this.size -= count;
+        } else {
+            this.data.put(compoundTag, count - amount);
+            this.size -= amount;
+        }
+    }
+
+    private NBTTagCompound createReplacementTag(LivingEntity entity) {
+        NBTTagCompound replacementTag = new NBTTagCompound();
+        ((NMSHandlerImpl) NMSAdapter.getHandler()).saveEntityToTag(entity, replacementTag);
+        this.stripUnneeded(replacementTag);
+        this.stripAttributeUuids(replacementTag);
+        this.removeDuplicates(replacementTag);
+        return replacementTag;
+    }
+
+    private void removeDuplicates(NBTTagCompound compoundTag) {
+        for (String key : new ArrayList<>(compoundTag.getKeys())) {
+            NBTBase baseValue = this.base.get(key);
+            NBTBase thisValue = compoundTag.get(key);
+            if (baseValue != null && baseValue.equals(thisValue))
+                compoundTag.remove(key);
+        }
+    }
+
+    private NBTTagCompound rebuild(NBTTagCompound compoundTag) {
+        NBTTagCompound merged = new NBTTagCompound();
+        merged.a(this.base);
+        merged.a(compoundTag);
+        this.fillAttributeUuids(merged);
+        return merged;
+    }
+
+    private void stripUnneeded(NBTTagCompound compoundTag) {
+        NMSHandler.REMOVABLE_NBT_KEYS.forEach(compoundTag::remove);
+        NBTTagCompound bukkitValues = compoundTag.getCompound("BukkitValues");
+        bukkitValues.remove("rosestacker:stacked_entity_data");
+        bukkitValues.remove("rosestacker:stacked_entity_size");
+    }
+
+    private void stripAttributeUuids(NBTTagCompound compoundTag) {
+        NBTTagList attributes = compoundTag.getList("Attributes", 10);
+        for (int i = 0; i < attributes.size(); i++) {
+            NBTTagCompound attribute = attributes.getCompound(i);
+            attribute.remove("UUID");
+            NBTTagList modifiers = attribute.getList("Modifiers", 10);
+            for (int j = 0; j < modifiers.size(); j++) {
+                NBTTagCompound modifier = modifiers.getCompound(j);
+                if (modifier.getString("Name").equals("Random spawn bonus")) {
+                    modifiers.remove(j);
+                    j--;
+                } else {
+                    modifier.remove("UUID");
+                }
+            }
+        }
+    }
+
+    private void fillAttributeUuids(NBTTagCompound compoundTag) {
+        NBTTagList attributes = compoundTag.getList("Attributes", 10);
+        for (int i = 0; i < attributes.size(); i++) {
+            NBTTagCompound attribute = attributes.getCompound(i);
+            attribute.a("UUID", UUID.randomUUID());
+            NBTTagList modifiers = attribute.getList("Modifiers", 10);
+            for (int j = 0; j < modifiers.size(); j++) {
+                NBTTagCompound modifier = modifiers.getCompound(j);
+                modifier.a("UUID", UUID.randomUUID());
+            }
+            if (modifiers.size() == 0)
+                attribute.remove("Modifiers");
+        }
+    }
+
+}
@@ -0,0 +1,347 @@
+package dev.rosewood.rosestacker.nms.v1_16_R3.storage;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import dev.rosewood.rosestacker.nms.NMSAdapter;
+import dev.rosewood.rosestacker.nms.NMSHandler;
+import dev.rosewood.rosestacker.nms.storage.EntityDataEntry;
+import dev.rosewood.rosestacker.nms.storage.LazyStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.storage.SerializedEntityData;
+import dev.rosewood.rosestacker.nms.storage.StackedEntityDataIOException;
+import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorageType;
+import dev.rosewood.rosestacker.nms.v1_16_R3.NMSHandlerImpl;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import net.minecraft.server.v1_16_R3.NBTBase;
+import net.minecraft.server.v1_16_R3.NBTCompressedStreamTools;
+import net.minecraft.server.v1_16_R3.NBTTagCompound;
+import net.minecraft.server.v1_16_R3.NBTTagList;
+import org.bukkit.entity.LivingEntity;
+
+/**
+ * Stores each internal entity as the list of top-level values that differ from the base tag.
+ * Equal values are interned and shared between every entry of every stack, so entries only hold references.
+ * Full tags are only rebuilt when an entry is read.
+ */
+public class DeltaStackedEntityDataStorage extends StackedEntityDataStorage {
+
+    private static final DeltaValue[] EMPTY_DELTA = new DeltaValue[0];
+    private static final Interner<DeltaValue> VALUE_INTERNER = Interners.newWeakInterner();
+
+    private final NBTTagCompound base;
+    private final Queue<DeltaValue[]> data;
+
+    public DeltaStackedEntityDataStorage(LivingEntity livingEntity) {
+        super(StackedEntityDataStorageType.DELTA, livingEntity);
+        NBTTagCompound base = new NBTTagCompound();
+
+        ((NMSHandlerImpl) NMSAdapter.getHandler()).saveEntityToTag(livingEntity, base);
+        this.stripUnneeded(base);
+        this.stripAttributeUuids(base);
+        this.base = NBTTagInterner.intern(base);
+
+        this.data = createBackingQueue();
+    }
+
+    public DeltaStackedEntityDataStorage(LivingEntity livingEntity, byte[] data) {
+        super(StackedEntityDataStorageType.DELTA, livingEntity);
+        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+             ObjectInputStream dataInput = new ObjectInputStream(inputStream)) {
+
+            this.base = NBTTagInterner.intern(NBTCompressedStreamTools.a((DataInput) dataInput));
+
+            // Each distinct value is only written once, entries are written as indexes into the value table
+            int valueCount = dataInput.readInt();
+            DeltaValue[] values = new DeltaValue[valueCount];
+            for (int i = 0; i < valueCount; i++) {
+                String key = dataInput.readUTF();
+                NBTTagCompound wrapper = NBTCompressedStreamTools.a((DataInput) dataInput);
+                values[i] = VALUE_INTERNER.intern(new DeltaValue(key, NBTTagInterner.intern(wrapper.get(key))));
+            }
+
+            int length = dataInput.readInt();
+            this.data = createBackingQueue();
+            for (int i = 0; i < length; i++) {
+                int deltaLength = dataInput.readInt();
+                DeltaValue[] delta = deltaLength == 0 ? EMPTY_DELTA : new DeltaValue[deltaLength];
+                for (int j = 0; j < deltaLength; j++)
+                    delta[j] = values[dataInput.readInt()];
+                this.data.add(delta);
+            }
+        } catch (Exception e) {
+            throw new StackedEntityDataIOException(e);
+        }
+    }
+
+    @Override
+    public void add(LivingEntity entity) {
+        NBTTagCompound compoundTag = new NBTTagCompound();
+        ((NMSHandlerImpl) NMSAdapter.getHandler()).saveEntityToTag(entity, compoundTag);
+        this.data.add(this.createDelta(compoundTag));
+    }
+
+    @Override
+    public void addAll(StackedEntityDataStorage stackedEntityDataStorage) {
+        if (stackedEntityDataStorage instanceof LazyStackedEntityDataStorage lazyStorage)
+            stackedEntityDataStorage = lazyStorage.decode();
+
+        // Entries can be moved over as they are if they were made against the same base
+        if (stackedEntityDataStorage instanceof DeltaStackedEntityDataStorage other && other.base.equals(this.base)) {
+            this.data.addAll(other.data);
+            return;
+        }
+
+        this.addEntries(stackedEntityDataStorage.getAll());
+    }
+
+    @Override
+    public void addEntries(List<EntityDataEntry> entries) {
+        // The entry may still be shared with the other storage, strip a copy of it instead
+        entries.forEach(entry -> this.data.add(this.createDelta(((NBTEntityDataEntry) entry).get().clone())));
+    }
+
+    @Override
+    public void addClones(int amount) {
+        for (int i = 0; i < amount; i++)
+            this.data.add(EMPTY_DELTA);
+    }
+
+    @Override
+    public NBTEntityDataEntry peek() {
+        return new NBTEntityDataEntry(this.rebuild(this.data.element()));
+    }
+
+    @Override
+    public NBTEntityDataEntry pop() {
+        return new NBTEntityDataEntry(this.rebuild(this.data.remove()));
+    }
+
+    @Override
+    public List<EntityDataEntry> pop(int amount) {
+        amount = Math.min(amount, this.data.size());
+
+        List<EntityDataEntry> popped = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++)
+            popped.add(new NBTEntityDataEntry(this.rebuild(this.data.remove())));
+        return popped;
+    }
+
+    @Override
+    public int size() {
+        return this.data.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.data.isEmpty();
+    }
+
+    @Override
+    public List<EntityDataEntry> getAll() {
+        List<EntityDataEntry> wrapped = new ArrayList<>(this.data.size());
+        for (DeltaValue[] delta : new ArrayList<>(this.data))
+            wrapped.add(new NBTEntityDataEntry(this.rebuild(delta)));
+        return wrapped;
+    }
+
+    @Override
+    public SerializedEntityData serializeSized(int maxAmount) {
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+             ObjectOutputStream dataOutput = new ObjectOutputStream(outputStream)) {
+
+            // Entries can be popped while the queue is iterated, so only what was captured is counted
+            List<DeltaValue[]> deltasToSave = new ArrayList<>(Math.min(maxAmount, this.data.size()));
+            Iterator<DeltaValue[]> iterator = this.data.iterator();
+            while (deltasToSave.size() < maxAmount && iterator.hasNext())
+                deltasToSave.add(iterator.next());
+
+            // Values are interned, so identity is enough to find the ones that are shared
+            Map<DeltaValue, Integer> valueIndexes = new IdentityHashMap<>();
+            List<DeltaValue> values = new ArrayList<>();
+            for (DeltaValue[] delta : deltasToSave)
+                for (DeltaValue value : delta)
+                    if (valueIndexes.putIfAbsent(value, values.size()) == null)
+                        values.add(value);
+
+            NBTCompressedStreamTools.a(this.base, (DataOutput) dataOutput);
+            dataOutput.writeInt(values.size());
+            for (DeltaValue value : values) {
+                NBTTagCompound wrapper = new NBTTagCompound();
+                wrapper.set(value.key(), value.value());
+                dataOutput.writeUTF(value.key());
+                NBTCompressedStreamTools.a(wrapper, (DataOutput) dataOutput);
+            }
+
+            dataOutput.writeInt(deltasToSave.size());
+            for (DeltaValue[] delta : deltasToSave) {
+                dataOutput.writeInt(delta.length);
+                for (DeltaValue value : delta)
+                    dataOutput.writeInt(valueIndexes.get(value));
+            }
+
+            dataOutput.close();
+            return new SerializedEntityData(outputStream.toByteArray(), deltasToSave.size());
+        } catch (Exception e) {
+            throw new StackedEntityDataIOException(e);
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<LivingEntity> consumer) {
+        this.forEachCapped(Integer.MAX_VALUE, consumer);
+    }
+
+    @Override
+    public void forEachCapped(int count, Consumer<LivingEntity> consumer) {
+        if (count > this.data.size())
+            count = this.data.size();
+
+        LivingEntity thisEntity = this.entity.get();
+        if (thisEntity == null)
+            return;
+
+        Iterator<DeltaValue[]> iterator = this.data.iterator();
+        for (int i = 0; i < count; i++) {
+            DeltaValue[] delta = iterator.next();
+            LivingEntity entity = new NBTEntityDataEntry(this.rebuild(delta)).createEntity(thisEntity.getLocation(), false, thisEntity.getType());
+            consumer.accept(entity);
+        }
+    }
+
+    @Override
+    public void forEachTransforming(Function<LivingEntity, Boolean> function) {
+        LivingEntity thisEntity = this.entity.get();
+        if (thisEntity == null)
+            return;
+
+        synchronized (this.data) {
+            List<DeltaValue[]> data = new ArrayList<>(this.data);
+            ListIterator<DeltaValue[]> dataIterator = data.listIterator();
+            while (dataIterator.hasNext()) {
+                DeltaValue[] delta = dataIterator.next();
+                LivingEntity entity = new NBTEntityDataEntry(this.rebuild(delta)).createEntity(thisEntity.getLocation(), false, thisEntity.getType());
+                if (function.apply(entity)) {
+                    NBTTagCompound replacementTag = new NBTTagCompound();
+                    ((NMSHandlerImpl) NMSAdapter.getHandler()).saveEntityToTag(entity, replacementTag);
+                    dataIterator.set(this.createDelta(replacementTag));
+                }
+            }
+
+            this.data.clear();
+            this.data.addAll(data);
+        }
+    }
+
+    @Override
+    public List<LivingEntity> removeIf(Function<LivingEntity, Boolean> function) {
+        List<LivingEntity> removedEntries = new ArrayList<>(this.data.size());
+        LivingEntity thisEntity = this.entity.get();
+        if (thisEntity == null)
+            return removedEntries;
+
+        synchronized (this.data) {
+            List<DeltaValue[]> data = new ArrayList<>(this.data);
+            ListIterator<DeltaValue[]> dataIterator = data.listIterator();
+            while (dataIterator.hasNext()) {
+                DeltaValue[] delta = dataIterator.next();
+                LivingEntity entity = new NBTEntityDataEntry(this.rebuild(delta)).createEntity(thisEntity.getLocation(), false, thisEntity.getType());
+                if (function.apply(entity)) {
+                    removedEntries.add(entity);
+                    dataIterator.remove();
+                } else {
+                    NBTTagCompound replacementTag = new NBTTagCompound();
+                    ((NMSHandlerImpl) NMSAdapter.getHandler()).saveEntityToTag(entity, replacementTag);
+                    dataIterator.set(this.createDelta(replacementTag));
+                }
+            }
+
+            this.data.clear();
+            this.data.addAll(data);
+            return removedEntries;
+        }
+    }
+
+    private DeltaValue[] createDelta(NBTTagCompound compoundTag) {
+        this.stripUnneeded(compoundTag);
+        this.stripAttributeUuids(compoundTag);
+
+        List<DeltaValue> delta = new ArrayList<>();
+        for (String key : compoundTag.getKeys()) {
+            NBTBase value = compoundTag.get(key);
+            if (value != null && !value.equals(this.base.get(key)))
+                delta.add(VALUE_INTERNER.intern(new DeltaValue(key, NBTTagInterner.intern(value))));
+        }
+
+        return delta.isEmpty() ? EMPTY_DELTA : delta.toArray(DeltaValue[]::new);
+    }
+
+    private NBTTagCompound rebuild(DeltaValue[] delta) {
+        NBTTagCompound merged = this.base.clone();
+        for (DeltaValue value : delta)
+            merged.set(value.key(), value.value().clone());
+        this.fillAttributeUuids(merged);
+        return merged;
+    }
+
+    private void stripUnneeded(NBTTagCompound compoundTag) {
+        NMSHandler.REMOVABLE_NBT_KEYS.forEach(compoundTag::remove);
+        NBTTagCompound bukkitValues = compoundTag.getCompound("BukkitValues");
+        bukkitValues.remove("rosestacker:stacked_entity_data");
+        bukkitValues.remove("rosestacker:stacked_entity_size");
+    }
+
+    private void stripAttributeUuids(NBTTagCompound compoundTag) {
+        NBTTagList attributes = compoundTag.getList("Attributes", 10);
+        for (int i = 0; i < attributes.size(); i++) {
+            NBTTagCompound attribute = attributes.getCompound(i);
+            attribute.remove("UUID");
+            NBTTagList modifiers = attribute.getList("Modifiers", 10);
+            for (int j = 0; j < modifiers.size(); j++) {
+                NBTTagCompound modifier = modifiers.getCompound(j);
+                if (modifier.getString("Name").equals("Random spawn bonus")) {
+                    modifiers.remove(j);
+                    j--;
+                } else {
+                    modifier.remove("UUID");
+                }
+            }
+        }
+    }
+
+    private void fillAttributeUuids(NBTTagCompound compoundTag) {
+        NBTTagList attributes = compoundTag.getList("Attributes", 10);
+        for (int i = 0; i < attributes.size(); i++) {
+            NBTTagCompound attribute = attributes.getCompound(i);
+            attribute.a("UUID", UUID.randomUUID());
+            NBTTagList modifiers = attribute.getList("Modifiers", 10);
+            for (int j = 0; j < modifiers.size(); j++) {
+                NBTTagCompound modifier = modifiers.getCompound(j);
+                modifier.a("UUID", UUID.randomUUID());
+            }
+            if (modifiers.size() == 0)
+                attribute.remove("Modifiers");
+        }
+    }
+
+    /**
+     * A top-level value of an entity tag that differs from the base tag.
+     * Instances are shared once interned and must not be modified.
+     */
+    private record DeltaValue(String key, NBTBase value) { }
+
+}
@@ -0,0 +1,93 @@
+package dev.rosewood.rosestacker.nms.v1_16_R3.storage;
+
+import dev.rosewood.rosestacker.nms.storage.EntityDataAccessor;
+import net.minecraft.server.v1_16_R3.NBTTagCompound;
+import org.bukkit.DyeColor;
+
+/**
+ * Accesses the values of a stored entry directly, falling back to the base tag for values the entry doesn't override.
+ * The stored entry may be pooled, so the first change is made to a copy of it that can then replace the stored entry.
+ */
+public class NBTEntityDataAccessor implements EntityDataAccessor {
+
+    private final NBTTagCompound base;
+    private NBTTagCompound entry;
+    private boolean modified;
+
+    public NBTEntityDataAccessor(NBTTagCompound base, NBTTagCompound entry) {
+        this.base = base;
+        this.entry = entry;
+    }
+
+    @Override
+    public boolean isSheared() {
+        return this.read("Sheared").getBoolean("Sheared");
+    }
+
+    @Override
+    public void setSheared(boolean sheared) {
+        if (this.isSheared() != sheared)
+            this.write().setBoolean("Sheared", sheared);
+    }
+
+    @Override
+    public DyeColor getColor() {
+        NBTTagCompound compoundTag = this.read("Color");
+        if (!compoundTag.hasKey("Color"))
+            return null;
+        return DyeColor.getByWoolData(compoundTag.getByte("Color"));
+    }
+
+    @Override
+    public void setColor(DyeColor color) {
+        if (this.getColor() != color)
+            this.write().setByte("Color", color.getWoolData());
+    }
+
+    @Override
+    public int getAge() {
+        return this.read("Age").getInt("Age");
+    }
+
+    @Override
+    public void setAge(int age) {
+        if (this.getAge() != age)
+            this.write().setInt("Age", age);
+    }
+
+    @Override
+    public double getHealth() {
+        return this.read("Health").getFloat("Health");
+    }
+
+    @Override
+    public void setHealth(double health) {
+        if (this.getHealth() != (float) health)
+            this.write().setFloat("Health", (float) health);
+    }
+
+    @Override
+    public boolean isModified() {
+        return this.modified;
+    }
+
+    /**
+     * @return the entry including any changes, a copy of the original entry if it was modified
+     */
+    public NBTTagCompound getEntry() {
+        return this.entry;
+    }
+
+    private NBTTagCompound read(String key) {
+        return this.entry.hasKey(key) ? this.entry : this.base;
+    }
+
+    private NBTTagCompound write() {
+        if (!this.modified) {
+            this.entry = this.entry.clone();
+            this.modified = true;
+        }
+        return this.entry;
+    }
+
+}
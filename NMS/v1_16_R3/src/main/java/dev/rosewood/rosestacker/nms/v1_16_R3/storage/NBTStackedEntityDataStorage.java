@@ -2,7 +2,9 @@ package dev.rosewood.rosestacker.nms.v1_16_R3.storage;
 
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.nms.NMSHandler;
+import dev.rosewood.rosestacker.nms.storage.EntityDataAccessor;
 import dev.rosewood.rosestacker.nms.storage.EntityDataEntry;
+import dev.rosewood.rosestacker.nms.storage.SerializedEntityData;
 import dev.rosewood.rosestacker.nms.storage.StackedEntityDataIOException;
 import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorage;
 import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorageType;
@@ -34,11 +36,12 @@ public class NBTStackedEntityDataStorage extends StackedEntityDataStorage {
 
     public NBTStackedEntityDataStorage(LivingEntity livingEntity) {
         super(StackedEntityDataStorageType.NBT, livingEntity);
-        this.base = new NBTTagCompound();
+        NBTTagCompound base = new NBTTagCompound();
 
-        ((NMSHandlerImpl) NMSAdapter.getHandler()).saveEntityToTag(livingEntity, this.base);
-        this.stripUnneeded(this.base);
-        this.stripAttributeUuids(this.base);
+        ((NMSHandlerImpl) NMSAdapter.getHandler()).saveEntityToTag(livingEntity, base);
+        this.stripUnneeded(base);
+        this.stripAttributeUuids(base);
+        this.base = NBTTagInterner.intern(base);
 
         this.data = createBackingQueue();
     }
@@ -48,11 +51,11 @@ public class NBTStackedEntityDataStorage extends StackedEntityDataStorage {
         try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
              ObjectInputStream dataInput = new ObjectInputStream(inputStream)) {
 
-            this.base = NBTCompressedStreamTools.a((DataInput) dataInput);
+            this.base = NBTTagInterner.intern(NBTCompressedStreamTools.a((DataInput) dataInput));
             int length = dataInput.readInt();
             this.data = createBackingQueue();
             for (int i = 0; i < length; i++)
-                this.data.add(NBTCompressedStreamTools.a((DataInput) dataInput));
+                this.data.add(NBTTagInterner.intern(NBTCompressedStreamTools.a((DataInput) dataInput)));
         } catch (Exception e) {
             throw new StackedEntityDataIOException(e);
         }
@@ -65,24 +68,30 @@ public class NBTStackedEntityDataStorage extends StackedEntityDataStorage {
         this.stripUnneeded(compoundTag);
         this.stripAttributeUuids(compoundTag);
         this.removeDuplicates(compoundTag);
-        this.data.add(compoundTag);
+        this.data.add(NBTTagInterner.intern(compoundTag));
     }
 
     @Override
     public void addAll(StackedEntityDataStorage stackedEntityDataStorage) {
-        stackedEntityDataStorage.getAll().forEach(entry -> {
-            NBTTagCompound compoundTag = ((NBTEntityDataEntry) entry).get();
+        this.addEntries(stackedEntityDataStorage.getAll());
+    }
+
+    @Override
+    public void addEntries(List<EntityDataEntry> entries) {
+        entries.forEach(entry -> {
+            // The entry may still be shared with the other storage, strip a copy of it instead
+            NBTTagCompound compoundTag = ((NBTEntityDataEntry) entry).get().clone();
             this.stripUnneeded(compoundTag);
             this.stripAttributeUuids(compoundTag);
             this.removeDuplicates(compoundTag);
-            this.data.add(compoundTag);
+            this.data.add(NBTTagInterner.intern(compoundTag));
         });
     }
 
     @Override
     public void addClones(int amount) {
         for (int i = 0; i < amount; i++)
-            this.data.add(this.base.clone());
+            this.data.add(this.base);
     }
 
     @Override
@@ -124,14 +133,14 @@ public class NBTStackedEntityDataStorage extends StackedEntityDataStorage {
     }
 
     @Override
-    public byte[] serialize(int maxAmount) {
+    public SerializedEntityData serializeSized(int maxAmount) {
         try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
              ObjectOutputStream dataOutput = new ObjectOutputStream(outputStream)) {
 
-            int targetAmount = Math.min(maxAmount, this.data.size());
-            List<NBTTagCompound> tagsToSave = new ArrayList<>(targetAmount);
+            // Entries can be popped while the queue is iterated, so only what was captured is counted
+            List<NBTTagCompound> tagsToSave = new ArrayList<>(Math.min(maxAmount, this.data.size()));
             Iterator<NBTTagCompound> iterator = this.data.iterator();
-            for (int i = 0; i < targetAmount; i++)
+            while (tagsToSave.size() < maxAmount && iterator.hasNext())
                 tagsToSave.add(iterator.next());
 
             NBTCompressedStreamTools.a(this.base, (DataOutput) dataOutput);
@@ -140,7 +149,7 @@ public class NBTStackedEntityDataStorage extends StackedEntityDataStorage {
                 NBTCompressedStreamTools.a(compoundTag, (DataOutput) dataOutput);
 
             dataOutput.close();
-            return outputStream.toByteArray();
+            return new SerializedEntityData(outputStream.toByteArray(), tagsToSave.size());
         } catch (Exception e) {
             throw new StackedEntityDataIOException(e);
         }
@@ -186,7 +195,7 @@ public class NBTStackedEntityDataStorage extends StackedEntityDataStorage {
                     this.stripUnneeded(replacementTag);
                     this.stripAttributeUuids(replacementTag);
                     this.removeDuplicates(replacementTag);
-                    dataIterator.set(replacementTag);
+                    dataIterator.set(NBTTagInterner.intern(replacementTag));
                 }
             }
 
@@ -217,7 +226,7 @@ public class NBTStackedEntityDataStorage extends StackedEntityDataStorage {
                     this.stripUnneeded(replacementTag);
                     this.stripAttributeUuids(replacementTag);
                     this.removeDuplicates(replacementTag);
-                    dataIterator.set(replacementTag);
+                    dataIterator.set(NBTTagInterner.intern(replacementTag));
                 }
             }
 
@@ -227,6 +236,44 @@ public class NBTStackedEntityDataStorage extends StackedEntityDataStorage {
         }
     }
 
+    @Override
+    public void forEachDataTransforming(Consumer<EntityDataAccessor> consumer) {
+        this.removeDataIf(accessor -> {
+            consumer.accept(accessor);
+            return false;
+        });
+    }
+
+    @Override
+    public List<LivingEntity> removeDataIf(Function<EntityDataAccessor, Boolean> function) {
+        List<LivingEntity> removedEntries = new ArrayList<>();
+        LivingEntity thisEntity = this.entity.get();
+        if (thisEntity == null)
+            return removedEntries;
+
+        synchronized (this.data) {
+            // Cycle each entry through the queue once, unchanged entries are put back as they are
+            for (int i = this.data.size(); i > 0; i--) {
+                NBTTagCompound compoundTag = this.data.poll();
+                if (compoundTag == null)
+                    break;
+
+                NBTEntityDataAccessor accessor = new NBTEntityDataAccessor(this.base, compoundTag);
+                if (function.apply(accessor)) {
+                    removedEntries.add(new NBTEntityDataEntry(this.rebuild(accessor.getEntry())).createEntity(thisEntity.getLocation(), false, thisEntity.getType()));
+                } else if (accessor.isModified()) {
+                    NBTTagCompound replacementTag = accessor.getEntry();
+                    this.removeDuplicates(replacementTag);
+                    this.data.add(NBTTagInterner.intern(replacementTag));
+                } else {
+                    this.data.add(compoundTag);
+                }
+            }
+        }
+
+        return removedEntries;
+    }
+
     private void removeDuplicates(NBTTagCompound compoundTag) {
         for (String key : new ArrayList<>(compoundTag.getKeys())) {
             NBTBase baseValue = this.base.get(key);
@@ -248,6 +295,7 @@ public class NBTStackedEntityDataStorage extends StackedEntityDataStorage {
         NMSHandler.REMOVABLE_NBT_KEYS.forEach(compoundTag::remove);
         NBTTagCompound bukkitValues = compoundTag.getCompound("BukkitValues");
         bukkitValues.remove("rosestacker:stacked_entity_data");
+        bukkitValues.remove("rosestacker:stacked_entity_size");
     }
 
     private void stripAttributeUuids(NBTTagCompound compoundTag) {
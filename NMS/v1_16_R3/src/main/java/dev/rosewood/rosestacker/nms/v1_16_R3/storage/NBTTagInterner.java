@@ -0,0 +1,52 @@
+package dev.rosewood.rosestacker.nms.v1_16_R3.storage;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.ArrayList;
+import net.minecraft.server.v1_16_R3.NBTBase;
+import net.minecraft.server.v1_16_R3.NBTTagCompound;
+import net.minecraft.server.v1_16_R3.NBTTagList;
+
+/**
+ * A weak pool of tags shared by the storages of every stack on the server.
+ * Internal entities of the same type carry many equal sub-tags such as attributes, drop chances and brain memories,
+ * pooling them means each distinct sub-tag is only held once no matter how many entries contain it.
+ * Pooled tags must never be modified. Storages replace entries instead of changing them and rebuild a copy before
+ * anything is read out, so changing an entry never reaches the other entries that share its tags.
+ * <p>
+ * This goes for every tag a storage holds, not only the ones that went through here: bases and entries are handed
+ * from one storage to another when stacks merge, so the same tag can be held by many stacks at once.
+ * Anything that strips or otherwise changes a tag it got from another storage has to work on a copy of it.
+ */
+public final class NBTTagInterner {
+
+    private static final Interner<NBTBase> INTERNER = Interners.newWeakInterner();
+
+    private NBTTagInterner() {
+
+    }
+
+    /**
+     * Pools a tag along with all of its sub-tags, the tag must not be modified or pooled again afterwards.
+     * The sub-tags of the given tag are replaced with their pooled versions in place, so only pass in tags that
+     * were just created and aren't held by anything else yet.
+     *
+     * @param tag The newly created tag to pool
+     * @param <T> The type of tag
+     * @return the pooled tag that is equal to the given tag
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends NBTBase> T intern(T tag) {
+        // Pool from the bottom up so equal sub-tags are shared even when their parents differ
+        if (tag instanceof NBTTagCompound compoundTag) {
+            for (String key : new ArrayList<>(compoundTag.getKeys()))
+                compoundTag.set(key, intern(compoundTag.get(key)));
+        } else if (tag instanceof NBTTagList listTag) {
+            for (int i = 0; i < listTag.size(); i++)
+                listTag.set(i, intern(listTag.get(i)));
+        }
+
+        return (T) INTERNER.intern(tag);
+    }
+
+}
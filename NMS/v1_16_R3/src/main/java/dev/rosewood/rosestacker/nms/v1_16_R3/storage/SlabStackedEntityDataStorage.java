@@ -0,0 +1,304 @@
+package dev.rosewood.rosestacker.nms.v1_16_R3.storage;
+
+import dev.rosewood.rosestacker.config.SettingKey;
+import dev.rosewood.rosestacker.nms.NMSAdapter;
+import dev.rosewood.rosestacker.nms.NMSHandler;
+import dev.rosewood.rosestacker.nms.storage.EntityDataEntry;
+import dev.rosewood.rosestacker.nms.storage.EntityDataSlab;
+import dev.rosewood.rosestacker.nms.storage.LazyStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.storage.SerializedEntityData;
+import dev.rosewood.rosestacker.nms.storage.StackedEntityDataIOException;
+import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorageType;
+import dev.rosewood.rosestacker.nms.v1_16_R3.NMSHandlerImpl;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import net.minecraft.server.v1_16_R3.NBTBase;
+import net.minecraft.server.v1_16_R3.NBTCompressedStreamTools;
+import net.minecraft.server.v1_16_R3.NBTTagCompound;
+import net.minecraft.server.v1_16_R3.NBTTagList;
+import org.bukkit.entity.LivingEntity;
+
+/**
+ * Stores each internal entity as a serialized tag in an {@link EntityDataSlab} instead of as a tree of tag objects.
+ * Entries are stored the same way as {@link NBTStackedEntityDataStorage} so this is exactly as accurate,
+ * but they are only decoded when they are read.
+ */
+public class SlabStackedEntityDataStorage extends StackedEntityDataStorage {
+
+    private final NBTTagCompound base;
+    private final EntityDataSlab data;
+
+    public SlabStackedEntityDataStorage(LivingEntity livingEntity) {
+        super(StackedEntityDataStorageType.SLAB, livingEntity);
+        NBTTagCompound base = new NBTTagCompound();
+
+        ((NMSHandlerImpl) NMSAdapter.getHandler()).saveEntityToTag(livingEntity, base);
+        this.stripUnneeded(base);
+        this.stripAttributeUuids(base);
+        this.base = NBTTagInterner.intern(base);
+
+        this.data = new EntityDataSlab(SettingKey.ENTITY_SLAB_DIRECT_BUFFERS.get());
+    }
+
+    public SlabStackedEntityDataStorage(LivingEntity livingEntity, byte[] data) {
+        super(StackedEntityDataStorageType.SLAB, livingEntity);
+        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+             ObjectInputStream dataInput = new ObjectInputStream(inputStream)) {
+
+            this.base = NBTTagInterner.intern(NBTCompressedStreamTools.a((DataInput) dataInput));
+            this.data = new EntityDataSlab(SettingKey.ENTITY_SLAB_DIRECT_BUFFERS.get());
+            this.data.read(dataInput);
+        } catch (Exception e) {
+            throw new StackedEntityDataIOException(e);
+        }
+    }
+
+    @Override
+    public void add(LivingEntity entity) {
+        this.data.add(this.encode(this.createReplacementTag(entity)));
+    }
+
+    @Override
+    public void addAll(StackedEntityDataStorage stackedEntityDataStorage) {
+        if (stackedEntityDataStorage instanceof LazyStackedEntityDataStorage lazyStorage)
+            stackedEntityDataStorage = lazyStorage.decode();
+
+        // Records can be copied over as they are if they were made against the same base
+        if (stackedEntityDataStorage instanceof SlabStackedEntityDataStorage other && other.base.equals(this.base)) {
+            this.data.addAll(other.data);
+            return;
+        }
+
+        this.addEntries(stackedEntityDataStorage.getAll());
+    }
+
+    @Override
+    public void addEntries(List<EntityDataEntry> entries) {
+        entries.forEach(entry -> {
+            // The entry may still be shared with the other storage, strip a copy of it instead
+            NBTTagCompound compoundTag = ((NBTEntityDataEntry) entry).get().clone();
+            this.stripUnneeded(compoundTag);
+            this.stripAttributeUuids(compoundTag);
+            this.removeDuplicates(compoundTag);
+            this.data.add(this.encode(compoundTag));
+        });
+    }
+
+    @Override
+    public void addClones(int amount) {
+        byte[] clone = this.encode(new NBTTagCompound());
+        for (int i = 0; i < amount; i++)
+            this.data.add(clone);
+    }
+
+    @Override
+    public NBTEntityDataEntry peek() {
+        return new NBTEntityDataEntry(this.rebuild(this.data.peek()));
+    }
+
+    @Override
+    public NBTEntityDataEntry pop() {
+        return new NBTEntityDataEntry(this.rebuild(this.data.poll()));
+    }
+
+    @Override
+    public List<EntityDataEntry> pop(int amount) {
+        List<byte[]> records = this.data.poll(amount);
+        List<EntityDataEntry> popped = new ArrayList<>(records.size());
+        for (byte[] record : records)
+            popped.add(new NBTEntityDataEntry(this.rebuild(record)));
+        return popped;
+    }
+
+    @Override
+    public int size() {
+        return this.data.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.data.size() == 0;
+    }
+
+    @Override
+    public List<EntityDataEntry> getAll() {
+        List<byte[]> records = this.data.peek(Integer.MAX_VALUE);
+        List<EntityDataEntry> wrapped = new ArrayList<>(records.size());
+        for (byte[] record : records)
+            wrapped.add(new NBTEntityDataEntry(this.rebuild(record)));
+        return wrapped;
+    }
+
+    @Override
+    public SerializedEntityData serializeSized(int maxAmount) {
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+             ObjectOutputStream dataOutput = new ObjectOutputStream(outputStream)) {
+
+            NBTCompressedStreamTools.a(this.base, (DataOutput) dataOutput);
+            int size = this.data.write(dataOutput, maxAmount);
+
+            dataOutput.close();
+            return new SerializedEntityData(outputStream.toByteArray(), size);
+        } catch (Exception e) {
+            throw new StackedEntityDataIOException(e);
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<LivingEntity> consumer) {
+        this.forEachCapped(Integer.MAX_VALUE, consumer);
+    }
+
+    @Override
+    public void forEachCapped(int count, Consumer<LivingEntity> consumer) {
+        LivingEntity thisEntity = this.entity.get();
+        if (thisEntity == null)
+            return;
+
+        for (byte[] record : this.data.peek(count)) {
+            LivingEntity entity = new NBTEntityDataEntry(this.rebuild(record)).createEntity(thisEntity.getLocation(), false, thisEntity.getType());
+            consumer.accept(entity);
+        }
+    }
+
+    @Override
+    public void forEachTransforming(Function<LivingEntity, Boolean> function) {
+        LivingEntity thisEntity = this.entity.get();
+        if (thisEntity == null)
+            return;
+
+        synchronized (this.data) {
+            List<byte[]> records = this.data.peek(Integer.MAX_VALUE);
+            this.data.clear();
+            for (byte[] record : records) {
+                LivingEntity entity = new NBTEntityDataEntry(this.rebuild(record)).createEntity(thisEntity.getLocation(), false, thisEntity.getType());
+                if (function.apply(entity)) {
+                    this.data.add(this.encode(this.createReplacementTag(entity)));
+                } else {
+                    this.data.add(record);
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<LivingEntity> removeIf(Function<LivingEntity, Boolean> function) {
+        List<LivingEntity> removedEntries = new ArrayList<>();
+        LivingEntity thisEntity = this.entity.get();
+        if (thisEntity == null)
+            return removedEntries;
+
+        synchronized (this.data) {
+            List<byte[]> records = this.data.peek(Integer.MAX_VALUE);
+            this.data.clear();
+            for (byte[] record : records) {
+                LivingEntity entity = new NBTEntityDataEntry(this.rebuild(record)).createEntity(thisEntity.getLocation(), false, thisEntity.getType());
+                if (function.apply(entity)) {
+                    removedEntries.add(entity);
+                } else {
+                    this.data.add(this.encode(this.createReplacementTag(entity)));
+                }
+            }
+            return removedEntries;
+        }
+    }
+
+    private NBTTagCompound createReplacementTag(LivingEntity entity) {
+        NBTTagCompound compoundTag = new NBTTagCompound();
+        ((NMSHandlerImpl) NMSAdapter.getHandler()).saveEntityToTag(entity, compoundTag);
+        this.stripUnneeded(compoundTag);
+        this.stripAttributeUuids(compoundTag);
+        this.removeDuplicates(compoundTag);
+        return compoundTag;
+    }
+
+    private byte[] encode(NBTTagCompound compoundTag) {
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+             DataOutputStream dataOutput = new DataOutputStream(outputStream)) {
+            NBTCompressedStreamTools.a(compoundTag, (DataOutput) dataOutput);
+            dataOutput.flush();
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            throw new StackedEntityDataIOException(e);
+        }
+    }
+
+    private NBTTagCompound decode(byte[] record) {
+        try (DataInputStream dataInput = new DataInputStream(new ByteArrayInputStream(record))) {
+            return NBTCompressedStreamTools.a((DataInput) dataInput);
+        } catch (IOException e) {
+            throw new StackedEntityDataIOException(e);
+        }
+    }
+
+    private void removeDuplicates(NBTTagCompound compoundTag) {
+        for (String key : new ArrayList<>(compoundTag.getKeys())) {
+            NBTBase baseValue = this.base.get(key);
+            NBTBase thisValue = compoundTag.get(key);
+            if (baseValue != null && baseValue.equals(thisValue))
+                compoundTag.remove(key);
+        }
+    }
+
+    private NBTTagCompound rebuild(byte[] record) {
+        NBTTagCompound merged = new NBTTagCompound();
+        merged.a(this.base);
+        merged.a(this.decode(record));
+        this.fillAttributeUuids(merged);
+        return merged;
+    }
+
+    private void stripUnneeded(NBTTagCompound compoundTag) {
+        NMSHandler.REMOVABLE_NBT_KEYS.forEach(compoundTag::remove);
+        NBTTagCompound bukkitValues = compoundTag.getCompound("BukkitValues");
+        bukkitValues.remove("rosestacker:stacked_entity_data");
+        bukkitValues.remove("rosestacker:stacked_entity_size");
+    }
+
+    private void stripAttributeUuids(NBTTagCompound compoundTag) {
+        NBTTagList attributes = compoundTag.getList("Attributes", 10);
+        for (int i = 0; i < attributes.size(); i++) {
+            NBTTagCompound attribute = attributes.getCompound(i);
+            attribute.remove("UUID");
+            NBTTagList modifiers = attribute.getList("Modifiers", 10);
+            for (int j = 0; j < modifiers.size(); j++) {
+                NBTTagCompound modifier = modifiers.getCompound(j);
+                if (modifier.getString("Name").equals("Random spawn bonus")) {
+                    modifiers.remove(j);
+                    j--;
+                } else {
+                    modifier.remove("UUID");
+                }
+            }
+        }
+    }
+
+    private void fillAttributeUuids(NBTTagCompound compoundTag) {
+        NBTTagList attributes = compoundTag.getList("Attributes", 10);
+        for (int i = 0; i < attributes.size(); i++) {
+            NBTTagCompound attribute = attributes.getCompound(i);
+            attribute.a("UUID", UUID.randomUUID());
+            NBTTagList modifiers = attribute.getList("Modifiers", 10);
+            for (int j = 0; j < modifiers.size(); j++) {
+                NBTTagCompound modifier = modifiers.getCompound(j);
+                modifier.a("UUID", UUID.randomUUID());
+            }
+            if (modifiers.size() == 0)
+                attribute.remove("Modifiers");
+        }
+    }
+
+}
@@ -16,9 +16,12 @@ import dev.rosewood.rosestacker.nms.v1_17_R1.entity.SynchedEntityDataWrapper;
 import dev.rosewood.rosestacker.nms.v1_17_R1.event.AsyncEntityDeathEventImpl;
 import dev.rosewood.rosestacker.nms.v1_17_R1.hologram.HologramImpl;
 import dev.rosewood.rosestacker.nms.v1_17_R1.spawner.StackedSpawnerTileImpl;
+import dev.rosewood.rosestacker.nms.v1_17_R1.storage.CountedStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.v1_17_R1.storage.DeltaStackedEntityDataStorage;
 import dev.rosewood.rosestacker.nms.v1_17_R1.storage.NBTEntityDataEntry;
 import dev.rosewood.rosestacker.nms.v1_17_R1.storage.NBTStackedEntityDataStorage;
 import dev.rosewood.rosestacker.nms.v1_17_R1.storage.SimpleStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.v1_17_R1.storage.SlabStackedEntityDataStorage;
 import dev.rosewood.rosestacker.stack.StackedSpawner;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
@@ -373,6 +376,9 @@ public class NMSHandlerImpl implements NMSHandler {
         return switch (storageType) {
             case NBT -> new NBTStackedEntityDataStorage(livingEntity);
             case SIMPLE -> new SimpleStackedEntityDataStorage(livingEntity);
+            case DELTA -> new DeltaStackedEntityDataStorage(livingEntity);
+            case COUNTED -> new CountedStackedEntityDataStorage(livingEntity);
+            case SLAB -> new SlabStackedEntityDataStorage(livingEntity);
         };
     }
 
@@ -380,6 +386,9 @@ public class NMSHandlerImpl implements NMSHandler {
         return switch (storageType) {
             case NBT -> new NBTStackedEntityDataStorage(livingEntity, data);
             case SIMPLE -> new SimpleStackedEntityDataStorage(livingEntity, data);
+            case DELTA -> new DeltaStackedEntityDataStorage(livingEntity, data);
+            case COUNTED -> new CountedStackedEntityDataStorage(livingEntity, data);
+            case SLAB -> new SlabStackedEntityDataStorage(livingEntity, data);
         };
     }
 
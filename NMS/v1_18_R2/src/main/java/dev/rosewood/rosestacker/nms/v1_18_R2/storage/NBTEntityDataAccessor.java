@@ -0,0 +1,93 @@
+package dev.rosewood.rosestacker.nms.v1_18_R2.storage;
+
+import dev.rosewood.rosestacker.nms.storage.EntityDataAccessor;
+import net.minecraft.nbt.CompoundTag;
+import org.bukkit.DyeColor;
+
+/**
+ * Accesses the values of a stored entry directly, falling back to the base tag for values the entry doesn't override.
+ * The stored entry may be pooled, so the first change is made to a copy of it that can then replace the stored entry.
+ */
+public class NBTEntityDataAccessor implements EntityDataAccessor {
+
+    private final CompoundTag base;
+    private CompoundTag entry;
+    private boolean modified;
+
+    public NBTEntityDataAccessor(CompoundTag base, CompoundTag entry) {
+        this.base = base;
+        this.entry = entry;
+    }
+
+    @Override
+    public boolean isSheared() {
+        return this.read("Sheared").getBoolean("Sheared");
+    }
+
+    @Override
+    public void setSheared(boolean sheared) {
+        if (this.isSheared() != sheared)
+            this.write().putBoolean("Sheared", sheared);
+    }
+
+    @Override
+    public DyeColor getColor() {
+        CompoundTag compoundTag = this.read("Color");
+        if (!compoundTag.contains("Color"))
+            return null;
+        return DyeColor.getByWoolData(compoundTag.getByte("Color"));
+    }
+
+    @Override
+    public void setColor(DyeColor color) {
+        if (this.getColor() != color)
+            this.write().putByte("Color", color.getWoolData());
+    }
+
+    @Override
+    public int getAge() {
+        return this.read("Age").getInt("Age");
+    }
+
+    @Override
+    public void setAge(int age) {
+        if (this.getAge() != age)
+            this.write().putInt("Age", age);
+    }
+
+    @Override
+    public double getHealth() {
+        return this.read("Health").getFloat("Health");
+    }
+
+    @Override
+    public void setHealth(double health) {
+        if (this.getHealth() != (float) health)
+            this.write().putFloat("Health", (float) health);
+    }
+
+    @Override
+    public boolean isModified() {
+        return this.modified;
+    }
+
+    /**
+     * @return the entry including any changes, a copy of the original entry if it was modified
+     */
+    public CompoundTag getEntry() {
+        return this.entry;
+    }
+
+    private CompoundTag read(String key) {
+        return this.entry.contains(key) ? this.entry : this.base;
+    }
+
+    private CompoundTag write() {
+        if (!this.modified) {
+            this.entry = this.entry.copy();
+            this.modified = true;
+        }
+        return this.entry;
+    }
+
+}
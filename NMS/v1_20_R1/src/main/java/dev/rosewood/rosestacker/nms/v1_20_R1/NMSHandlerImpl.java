@@ -15,9 +15,12 @@ import dev.rosewood.rosestacker.nms.v1_20_R1.entity.SoloEntityStrider;
 import dev.rosewood.rosestacker.nms.v1_20_R1.event.AsyncEntityDeathEventImpl;
 import dev.rosewood.rosestacker.nms.v1_20_R1.hologram.HologramImpl;
 import dev.rosewood.rosestacker.nms.v1_20_R1.spawner.StackedSpawnerTileImpl;
+import dev.rosewood.rosestacker.nms.v1_20_R1.storage.CountedStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.v1_20_R1.storage.DeltaStackedEntityDataStorage;
 import dev.rosewood.rosestacker.nms.v1_20_R1.storage.NBTEntityDataEntry;
 import dev.rosewood.rosestacker.nms.v1_20_R1.storage.NBTStackedEntityDataStorage;
 import dev.rosewood.rosestacker.nms.v1_20_R1.storage.SimpleStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.v1_20_R1.storage.SlabStackedEntityDataStorage;
 import dev.rosewood.rosestacker.stack.StackedSpawner;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -407,6 +410,9 @@ public class NMSHandlerImpl implements NMSHandler {
         return switch (storageType) {
             case NBT -> new NBTStackedEntityDataStorage(livingEntity);
             case SIMPLE -> new SimpleStackedEntityDataStorage(livingEntity);
+            case DELTA -> new DeltaStackedEntityDataStorage(livingEntity);
+            case COUNTED -> new CountedStackedEntityDataStorage(livingEntity);
+            case SLAB -> new SlabStackedEntityDataStorage(livingEntity);
         };
     }
 
@@ -414,6 +420,9 @@ public class NMSHandlerImpl implements NMSHandler {
         return switch (storageType) {
             case NBT -> new NBTStackedEntityDataStorage(livingEntity, data);
             case SIMPLE -> new SimpleStackedEntityDataStorage(livingEntity, data);
+            case DELTA -> new DeltaStackedEntityDataStorage(livingEntity, data);
+            case COUNTED -> new CountedStackedEntityDataStorage(livingEntity, data);
+            case SLAB -> new SlabStackedEntityDataStorage(livingEntity, data);
         };
     }
 
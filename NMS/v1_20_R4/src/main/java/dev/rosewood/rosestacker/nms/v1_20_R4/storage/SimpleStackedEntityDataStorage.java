@@ -34,6 +34,7 @@ public class SimpleStackedEntityDataStorage extends AbstractSimpleStackedEntityD
         NMSHandler.REMOVABLE_NBT_KEYS.forEach(compoundTag::remove);
         CompoundTag bukkitValues = compoundTag.getCompound("BukkitValues");
         bukkitValues.remove("rosestacker:stacked_entity_data");
+        bukkitValues.remove("rosestacker:stacked_entity_size");
         NMSHandler.UNSAFE_NBT_KEYS.forEach(compoundTag::remove);
     }
 
@@ -19,12 +19,14 @@ import dev.rosewood.rosestacker.listener.ItemListener;
 import dev.rosewood.rosestacker.listener.StackToolListener;
 import dev.rosewood.rosestacker.listener.WorldListener;
 import dev.rosewood.rosestacker.listener.paper.PaperPreCreatureSpawnListener;
+import dev.rosewood.rosestacker.listener.paper.PaperServerResourcesReloadedListener;
 import dev.rosewood.rosestacker.manager.CommandManager;
 import dev.rosewood.rosestacker.manager.EntityCacheManager;
 import dev.rosewood.rosestacker.manager.HologramManager;
 import dev.rosewood.rosestacker.manager.LocaleManager;
 import dev.rosewood.rosestacker.manager.StackManager;
 import dev.rosewood.rosestacker.manager.StackSettingManager;
+import dev.rosewood.rosestacker.manager.WorkerPoolManager;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.utils.StackerUtils;
 import dev.rosewood.rosestacker.utils.ThreadUtils;
@@ -89,6 +91,13 @@ public class RoseStacker extends RosePlugin {
         if (NMSUtil.isPaper() && NMSUtil.getVersionNumber() >= 18)
             pluginManager.registerEvents(new PaperPreCreatureSpawnListener(this), this);
 
+        if (NMSUtil.isPaper()) {
+            try {
+                Class.forName("io.papermc.paper.event.server.ServerResourcesReloadedEvent");
+                pluginManager.registerEvents(new PaperServerResourcesReloadedListener(this), this);
+            } catch (ClassNotFoundException ignored) { }
+        }
+
         // Try to hook with PlaceholderAPI
         if (Bukkit.getPluginManager().isPluginEnabled("PlaceholderAPI"))
             new RoseStackerPlaceholderExpansion(this).register();
@@ -118,6 +127,7 @@ public class RoseStacker extends RosePlugin {
     @Override
     protected List<Class<? extends Manager>> getManagerLoadPriority() {
         return List.of(
+                WorkerPoolManager.class,
                 HologramManager.class,
                 StackSettingManager.class,
                 CommandManager.class,
@@ -46,6 +46,7 @@ public class StatsCommand extends BaseRoseCommand {
         localeManager.sendSimpleCommandMessage(context.getSender(), "command-stats-stacked-blocks", StringPlaceholders.of("stackAmount", StackerUtils.formatNumber(blockStackAmount), "total", StackerUtils.formatNumber(blockAmount)));
         localeManager.sendSimpleCommandMessage(context.getSender(), "command-stats-stacked-spawners", StringPlaceholders.of("stackAmount", StackerUtils.formatNumber(spawnerStackAmount), "total", StackerUtils.formatNumber(spawnerAmount)));
         localeManager.sendSimpleCommandMessage(context.getSender(), "command-stats-active-tasks", StringPlaceholders.of("amount", StackerUtils.formatNumber(ThreadUtils.getActiveThreads())));
+        localeManager.sendSimpleCommandMessage(context.getSender(), "command-stats-queued-changes", StringPlaceholders.of("amount", StackerUtils.formatNumber(stackManager.getSyncMutationQueue().getQueueDepth())));
     }
 
     @Override
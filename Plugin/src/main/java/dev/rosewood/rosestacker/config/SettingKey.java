@@ -20,12 +20,18 @@ public final class SettingKey {
 
     public static final RoseSetting<List<String>> DISABLED_WORLDS = create("disabled-worlds", STRING_LIST, List.of("disabled_world_name"), "A list of worlds that the plugin is disabled in");
     public static final RoseSetting<Long> STACK_FREQUENCY = create("stack-frequency", LONG, 100L, "How often should we try to stack nearby entities?", "Higher values mean longer times between checks, but also less lag", "Values are in ticks, do not set lower than 1");
+    public static final RoseSetting<Long> ENTITY_FULL_STACK_FREQUENCY = create("full-stack-frequency", LONG, -1L, "How often should we try to stack every entity, including ones that haven't changed?", "Between these, only entities that have spawned, moved, been damaged, or been interacted with are checked", "Entities that haven't changed will still stack with any that have, this only catches what the checks miss", "Values are in ticks, -1 checks every entity each time", "Try 1200 on busy servers, stacks the checks miss, such as ones changed by other plugins, may then take up to that long to stack");
     public static final RoseSetting<Long> UNSTACK_FREQUENCY = create("unstack-frequency", LONG, 50L, "How often should we try to unstack entities that are no longer compatible with their stack?", "Values are in ticks, set to -1 to disable");
     public static final RoseSetting<Long> ITEM_STACK_FREQUENCY = create("item-stack-frequency", LONG, 20L, "How often should we try to stack nearby items?", "Values are in ticks, do not set lower than 1");
     public static final RoseSetting<Long> NAMETAG_UPDATE_FREQUENCY = create("nametag-update-frequency", LONG, 30L, "How often should we update stacked entity nametags?", "Values are in ticks, do not set lower than 1");
     public static final RoseSetting<Long> HOLOGRAM_UPDATE_FREQUENCY = create("hologram-update-frequency", LONG, 20L, "How often should we update stacked block/spawner holograms?");
+    public static final RoseSetting<Long> STACKING_TICK_BUDGET = create("stacking-tick-budget", LONG, 20L, "How many milliseconds per tick can be spent processing stacks in each world?", "This covers the stacking, unstacking, nametag, and hologram tasks above, which run off the main thread", "Worlds are processed at the same time on the stacking threads set in worker-settings", "Work that doesn't fit in a tick is continued on the next one instead of piling up");
+    public static final RoseSetting<Integer> SYNC_MUTATIONS_PER_TICK = create("sync-mutations-per-tick", INTEGER, 1000, "How many entity changes from stacking can be applied on the main thread per tick?", "This includes removing merged entities, updating nametags, and disabling AI", "Changes that don't fit in a tick are applied on the next one, do not set lower than 1");
     public static final RoseSetting<Long> AUTOSAVE_FREQUENCY = create("autosave-frequency", LONG, 15L, "How often should we autosave all loaded stack data?", "Value is measured in minutes, set to -1 to disable");
     public static final RoseSetting<Long> ENTITY_RESCAN_FREQUENCY = create("entity-rescan-frequency", LONG, 1000L, "How often should we scan the world for missed entities?", "Sometimes entities can spawn and be missed by the plugin for unknown reasons, this fixes that", "Values are in ticks, set to -1 to disable");
+    public static final RoseSetting<Long> ENTITY_CACHE_UPDATE_FREQUENCY = create("entity-cache-update-frequency", LONG, 20L, "How often should we update the positions of entities in the nearby entity cache?", "Entities are added and removed from the cache as they spawn, load and unload, this only tracks movement", "Values are in ticks, do not set lower than 1");
+    public static final RoseSetting<Long> ENTITY_CACHE_RESCAN_FREQUENCY = create("entity-cache-rescan-frequency", LONG, 1200L, "How often should we fully rebuild the nearby entity cache from the world?", "This is only a consistency check to pick up entities the cache may have missed", "Values are in ticks, set to -1 to disable");
+    public static final RoseSetting<Integer> ENTITY_CACHE_CELL_SIZE = create("entity-cache-cell-size", INTEGER, 8, "The size in blocks of the cubic cells used to look up nearby entities, the Y axis is included", "Smaller values check fewer entities in tall farms, larger values check fewer cells for large merge radiuses", "Values like 4 or 8 work best, do not set lower than 1");
 
     public static final RoseSetting<CommentedConfigurationSection> GLOBAL_ENTITY_SETTINGS = create("global-entity-settings", "Global entity settings", "Changed values in entity_settings.yml will override these values");
     public static final RoseSetting<Boolean> ENTITY_STACKING_ENABLED = create("global-entity-settings.stacking-enabled", BOOLEAN, true, "Should entity stacking be enabled at all?");
@@ -34,7 +40,11 @@ public final class SettingKey {
     public static final RoseSetting<Integer> ENTITY_MIN_STACK_SIZE = create("global-entity-settings.min-stack-size", INTEGER, 2, "The minimum number of nearby entities required to form a stack", "Do not set this lower than 2");
     public static final RoseSetting<Integer> ENTITY_MAX_STACK_SIZE = create("global-entity-settings.max-stack-size", INTEGER, 128, "The maximum number of entities that can be in a single stack");
     public static final RoseSetting<Integer> ENTITY_MERGE_RADIUS = create("global-entity-settings.merge-radius", INTEGER, 5, "How close do entities need to be to merge with each other?");
+    public static final RoseSetting<Double> ENTITY_RESTACK_MOVE_DISTANCE = create("global-entity-settings.restack-move-distance", DOUBLE, 1.0, "How far does an entity need to move before we check if it can stack again?", "See full-stack-frequency for the other things that cause an entity to be checked");
     public static final RoseSetting<Boolean> ENTITY_MERGE_ENTIRE_CHUNK = create("global-entity-settings.merge-entire-chunk", BOOLEAN, false, "Should we merge all similar entities into a single stack per chunk?", "This setting overrides the above");
+    public static final RoseSetting<Long> ENTITY_FINGERPRINT_CACHE_DURATION = create("global-entity-settings.fingerprint-cache-duration", LONG, 100L, "How long should we remember the stacking-relevant state of an entity for?", "Entities with a different type, color, profession, etc. are skipped without running every stack condition", "Changes made by players are picked up right away, this only affects changes made by the server or other plugins", "Values are in ticks, set to 0 to recalculate it every time");
+    public static final RoseSetting<Boolean> ENTITY_BATCH_STACKING = create("global-entity-settings.batch-stacking", BOOLEAN, false, "Should entity stacking find all groups of stackable entities in a world at once and merge each group together?", "This compares each pair of nearby entities only once per stack pass and calls one stack event per group, which is much faster in dense areas", "Entities in a group must still be within the merge radius of, and able to stack with, the largest stack in the group");
+    public static final RoseSetting<Integer> ENTITY_BATCH_STACKING_REGION_SIZE = create("global-entity-settings.batch-stacking-region-size", INTEGER, 8, "How many chunks wide should each region be when batch stacking a busy world?", "Regions are searched for stackable entities at the same time on the region threads set in worker-settings", "Groups that cross a region border are still merged, the result is the same as searching the whole world at once");
     public static final RoseSetting<Boolean> ENTITY_MIN_STACK_COUNT_ONLY_INDIVIDUALS = create("global-entity-settings.min-stack-count-only-individuals", BOOLEAN, false, "Should only individual entities be counted for the min-stack-size requirement?", "When false, an existing stack larger than min-stack-size can have other mobs stack into it");
     public static final RoseSetting<Boolean> ENTITY_MIN_SPLIT_IF_LOWER = create("global-entity-settings.min-split-if-lower", BOOLEAN, false, "Should entity stacks split into individual mobs if the stack size goes below the min-stack-size setting?");
     public static final RoseSetting<Boolean> ENTITY_DISPLAY_TAGS = create("global-entity-settings.display-tags", BOOLEAN, true, "Should tags be displayed above stacks to show their amount and type?");
@@ -58,10 +68,16 @@ public final class SettingKey {
     public static final RoseSetting<List<String>> ENTITY_SHARE_DAMAGE_CONDITIONS = create("global-entity-settings.share-damage-conditions", STRING_LIST, List.of(), "Under what conditions will the damage be propagated through the whole stack?", "Valid conditions can be found here:", "https://hub.spigotmc.org/javadocs/spigot/org/bukkit/event/entity/EntityDamageEvent.DamageCause.html", "Note: This setting is not recommended as it can be intensive for larger stack sizes", "      This setting will not work if using data-storage-type: SIMPLE");
     public static final RoseSetting<Boolean> ENTITY_DROP_ACCURATE_ITEMS = create("global-entity-settings.drop-accurate-items", BOOLEAN, true, "Should items be dropped for all entities when an entire stack is killed at once?");
     public static final RoseSetting<Boolean> ENTITY_DROP_ACCURATE_EXP = create("global-entity-settings.drop-accurate-exp", BOOLEAN, true, "Should exp be dropped for all entities when an entire stack is killed at once?");
+    public static final RoseSetting<Integer> ENTITY_DROP_COALESCE_TICKS = create("global-entity-settings.drop-coalesce-ticks", INTEGER, 0, "How many ticks should the loot of stack deaths in the same chunk be gathered for before it is all dropped at once?", "Each distinct item is then dropped as a single stacked item, which helps grinders that kill many stacks in the same area every tick", "Set to 0 to drop loot right away");
     public static final RoseSetting<CommentedConfigurationSection> ENTITY_LOOT_APPROXIMATION_OPTIONS = create("global-entity-settings.loot-approximation-options", "Allows approximating loot for killing an entire stack of entities at once", "Can greatly reduce lag and improve performance at the cost of some loot accuracy");
     public static final RoseSetting<Boolean> ENTITY_LOOT_APPROXIMATION_ENABLED = create("global-entity-settings.loot-approximation-options.approximation-enabled", BOOLEAN, true, "Should loot be approximated to reduce lag for killing large stack sizes at once?");
     public static final RoseSetting<Integer> ENTITY_LOOT_APPROXIMATION_THRESHOLD = create("global-entity-settings.loot-approximation-options.approximation-threshold", INTEGER, 2048, "The threshold at which loot drops will be approximated");
     public static final RoseSetting<Integer> ENTITY_LOOT_APPROXIMATION_AMOUNT = create("global-entity-settings.loot-approximation-options.approximation-amount", INTEGER, 256, "The number of times the entity loot tables will be run");
+    public static final RoseSetting<Boolean> ENTITY_LOOT_APPROXIMATION_DISTRIBUTION = create("global-entity-settings.loot-approximation-options.approximation-distribution", BOOLEAN, false, "Should the rest of the loot be drawn from the drop rates seen so far instead of multiplying the loot from the runs above?", "Drop rates are learned separately for each entity type, looting level and variant, and keep the natural variance in drop amounts", "The drop rates are only learned from the runs above, so they start out rough and get more accurate over time");
+    public static final RoseSetting<Integer> ENTITY_LOOT_POOL_SIZE = create("global-entity-settings.loot-pool-size", INTEGER, 0, "How many loot table results should be kept for each kind of entity to draw from?", "Entities of the same type, variant and looting level share a pool that is slowly rolled again over time", "Saves running the loot tables on servers that kill a lot of entities, but makes the loot less random:", "Rare drops either show up in many kills in a row or not at all until the pool is rolled again", "Set to 0 to run the loot table for every entity");
+    public static final RoseSetting<CommentedConfigurationSection> ENTITY_SPILL_OPTIONS = create("global-entity-settings.spill-options", "Allows moving the data of very large entity stacks out of memory and into a file", "Only the entities at each end of a stack are kept in memory, none of the entity data is lost", "Not used by the SIMPLE data storage type");
+    public static final RoseSetting<Boolean> ENTITY_SPILL_ENABLED = create("global-entity-settings.spill-options.spill-enabled", BOOLEAN, false, "Should the data of large entity stacks be moved to a file?", "The file is kept in the plugin folder while the server is running and deleted on shutdown");
+    public static final RoseSetting<Integer> ENTITY_SPILL_WINDOW_SIZE = create("global-entity-settings.spill-options.window-size", INTEGER, 1024, "How many entities should be kept in memory at each end of a stack?", "Entities are moved to and from the file this many at a time");
     public static final RoseSetting<Boolean> ENTITY_REQUIRE_LINE_OF_SIGHT = create("global-entity-settings.require-line-of-sight", BOOLEAN, true, "Do entities need to be able to see each other to be able to stack?", "Setting this to true will prevent entities from stacking through walls");
     public static final RoseSetting<Boolean> ENTITY_TRANSFORM_ENTIRE_STACK = create("global-entity-settings.transform-entire-stack", BOOLEAN, true, "Should the entire stack of entities be transformed when the main entity is transformed?", "This applies to pigs getting struck by lightning, zombies drowning, etc");
     public static final RoseSetting<Boolean> ENTITY_ONLY_STACK_ON_GROUND = create("global-entity-settings.only-stack-on-ground", BOOLEAN, false, "Do entities have to be on the ground in order to stack?", "This does not apply if the mobs can fly or live in the water");
@@ -77,6 +93,8 @@ public final class SettingKey {
     public static final RoseSetting<Boolean> ENTITY_DEATH_EVENT_RUN_ASYNC = create("global-entity-settings.death-event-trigger-async", BOOLEAN, true, "Should the entity loot be calculated asynchronously?", "If you try enabling this and you get errors that say something like '<SomeEvent> may only be triggered synchronously'", "and has RoseStacker in the stacktrace, you should keep this as false.", "Set this as true for optimal performance if you are not having issues.");
     public static final RoseSetting<Boolean> ENTITY_INSTANT_KILL_DISABLED_AI = create("global-entity-settings.instant-kill-disabled-ai", BOOLEAN, false, "Should entities with disabled AI be killed instantly when receiving damage from a player?");
     public static final RoseSetting<Boolean> ENTITY_DISABLE_ALL_MOB_AI = create("global-entity-settings.disable-all-mob-ai", BOOLEAN, false, "Should the AI of ALL MOBS on the server be disabled?", "The parts of the AI that are disabled can be further customized in the global-spawner-settings section");
+    public static final RoseSetting<Boolean> ENTITY_LAZY_LOAD_DATA = create("global-entity-settings.lazy-load-data", BOOLEAN, true, "Should stacked entity data only be decoded once it is needed instead of when the entity loads?", "Most stacks are never killed or split while their chunk is loaded, so this saves a lot of work on chunk loads", "Stacks that haven't changed are saved again without being decoded at all");
+    public static final RoseSetting<Boolean> ENTITY_SLAB_DIRECT_BUFFERS = create("global-entity-settings.slab-direct-buffers", BOOLEAN, false, "Should the SLAB data storage type keep its buffers outside of the Java heap?", "This lowers heap usage and garbage collection work for very large stacks, but the memory is not limited by -Xmx", "Only used if the data-storage-type is set to SLAB");
     public static final RoseSetting<Integer> ENTITY_SAVE_MAX_STACK_SIZE = create("global-entity-settings.save-max-stack-size", INTEGER, -1, "The maximum amount of entities that will be stored when entities are saved to chunk data", "Useful for when you have a very high max stack size, set to -1 to disable");
     public static final RoseSetting<Boolean> ENTITY_OBEY_MOB_CAPS = create("global-entity-settings.obey-mob-caps", BOOLEAN, false, "Should entities attempting to spawn check for nearby stacks in an attempt to better obey mob caps?", "Note: This will only work on 1.18.2+ Paper servers and may be performance intensive");
 
@@ -217,6 +235,15 @@ public final class SettingKey {
             "&7- &cRed &emeans the mob can not stack."
     ), "The lore to display on the stacking tool");
 
+    public static final RoseSetting<CommentedConfigurationSection> WORKER_SETTINGS = create("worker-settings", "Settings for the threads used to do work off the main thread", "Each type of work has its own threads and queue so one can't hold up the others");
+    public static final RoseSetting<Integer> WORKER_STACKING_THREADS = create("worker-settings.stacking-threads", INTEGER, 2, "How many threads should be used for stacking, the nearby entity cache, and holograms?", "Each world is stacked on one thread at a time, so more threads let more worlds be stacked at once");
+    public static final RoseSetting<Integer> WORKER_SPAWNING_THREADS = create("worker-settings.spawning-threads", INTEGER, 2, "How many threads should be used for calculating spawner spawns?");
+    public static final RoseSetting<Integer> WORKER_LOOT_THREADS = create("worker-settings.loot-threads", INTEGER, 2, "How many threads should be used for calculating stacked entity loot?");
+    public static final RoseSetting<Integer> WORKER_SAVING_THREADS = create("worker-settings.saving-threads", INTEGER, 1, "How many threads should be used for encoding stack data during autosaves?", "Stack data is still written on the main thread once it has been encoded");
+    public static final RoseSetting<Integer> WORKER_REGION_THREADS = create("worker-settings.region-threads", INTEGER, 0, "How many threads should be used to search regions of a busy world for stackable entities?", "Only used when global-entity-settings.batch-stacking is enabled", "Also used to run the loot tables of large stacks that are killed at once", "Set to 0 to use one less than the number of available processors");
+    public static final RoseSetting<Integer> WORKER_QUEUE_SIZE = create("worker-settings.queue-size", INTEGER, 10000, "How many tasks can wait for each type of thread?", "When full, stacking and spawning work is dropped and retried later, loot and saving work is done right away instead");
+    public static final RoseSetting<Boolean> WORKER_USE_VIRTUAL_THREADS = create("worker-settings.use-virtual-threads", BOOLEAN, false, "Should virtual threads be used instead of regular threads?", "This requires Java 21 or newer, the thread counts above still limit how much work runs at once");
+
     public static final RoseSetting<CommentedConfigurationSection> MISC_SETTINGS = create("misc-settings", "Miscellaneous other settings for the plugin");
     public static final RoseSetting<Boolean> MISC_WORLDGUARD_REGION = create("misc-settings.worldguard-region", BOOLEAN, false, "Should a custom WorldGuard region named 'rosestacker' be registered and used to test entity stacking?", "Entity stacking within regions will only work if the result is ALLOW", "This setting will only be updated after a restart");
     public static final RoseSetting<Boolean> MISC_COREPROTECT_LOGGING = create("misc-settings.coreprotect-logging-enabled", BOOLEAN, true, "If CoreProtect is installed, should we log stacked block/spawner break/placing?");
@@ -98,6 +98,9 @@ public class EntityListener implements Listener {
         if (stackManager.isWorldDisabled(entity.getWorld()))
             return;
 
+        // Cache even while stacking is temporarily disabled, loot and new stacks still need to be found nearby
+        this.rosePlugin.getManager(EntityCacheManager.class).preCacheEntity(entity);
+
         if (!stackManager.isItemStackingEnabled() || stackManager.isEntityStackingTemporarilyDisabled())
             return;
 
@@ -106,7 +109,6 @@ public class EntityListener implements Listener {
             if (itemStackSettings != null && !itemStackSettings.isStackingEnabled())
                 return;
 
-            this.rosePlugin.getManager(EntityCacheManager.class).preCacheEntity(entity);
             stackManager.createItemStack(item, true);
         }
     }
@@ -118,12 +120,13 @@ public class EntityListener implements Listener {
         if (stackManager.isWorldDisabled(entity.getWorld()))
             return;
 
+        // Cache even while stacking is temporarily disabled, new stacks still need to be found nearby
+        this.rosePlugin.getManager(EntityCacheManager.class).preCacheEntity(entity);
+
         if (!stackManager.isEntityStackingEnabled() || stackManager.isEntityStackingTemporarilyDisabled())
             return;
 
         Runnable task = () -> {
-            this.rosePlugin.getManager(EntityCacheManager.class).preCacheEntity(entity);
-
             // Try to immediately stack everything except bees from hives and built entities due to them duplicating
             stackManager.createEntityStack(entity, !DELAYED_SPAWN_REASONS.contains(event.getSpawnReason()));
 
@@ -254,7 +257,12 @@ public class EntityListener implements Listener {
             return;
 
         StackedEntity stackedEntity = stackManager.getStackedEntity(entity);
-        if (stackedEntity == null || stackedEntity.getStackSize() == 1)
+        if (stackedEntity == null)
+            return;
+
+        // Taking damage can change things like anger and targets that affect if this entity can stack
+        stackedEntity.markDirty();
+        if (stackedEntity.getStackSize() == 1)
             return;
 
         if (!SettingKey.ENTITY_SHARE_DAMAGE_CONDITIONS.get().contains(event.getCause().name()))
@@ -262,7 +270,7 @@ public class EntityListener implements Listener {
 
         double damage = event.getFinalDamage();
 
-        List<LivingEntity> killedEntities = stackedEntity.getDataStorage().removeIf(internal -> {
+        List<LivingEntity> killedEntities = stackedEntity.getDataStorage().removeDataIf(internal -> {
             if (internal.getHealth() - damage <= 0) {
                 return true; // Don't set the health below 0, as that will trigger the death event which we want to avoid
             } else {
@@ -270,6 +278,7 @@ public class EntityListener implements Listener {
                 return false;
             }
         });
+        stackedEntity.markModified();
 
         // Only try dropping loot if something actually died
         if (!killedEntities.isEmpty()) {
@@ -531,6 +540,7 @@ public class EntityListener implements Listener {
         if (stackedEntity == null)
             return;
 
+        stackedEntity.invalidateCompatibilityFingerprint();
         if (!stackedEntity.getStackSettings().getSettingValue(EntityStackSettings.SHEEP_SHEAR_ALL_SHEEP_IN_STACK).getBoolean()) {
             ThreadUtils.runSync(() -> {
                 if (!stackedEntity.shouldStayStacked() && stackedEntity.getStackSize() > 1)
@@ -539,20 +549,18 @@ public class EntityListener implements Listener {
             return;
         }
 
-        ShearedHandler shearedHandler = CompatibilityAdapter.getShearedHandler();
         List<ItemStack> drops = new ArrayList<>();
         stackManager.setEntityUnstackingTemporarilyDisabled(true);
         ThreadUtils.runAsync(() -> {
             try {
-                stackedEntity.getDataStorage().forEachTransforming(internal -> {
-                    Sheep sheep = (Sheep) internal;
-                    if (!shearedHandler.isSheared(sheep) || stackManager.getEntityDataStorageType(sheep.getType()) == StackedEntityDataStorageType.SIMPLE) {
-                        shearedHandler.setSheared(sheep, true);
-                        drops.add(new ItemStack(ItemUtils.getWoolMaterial(sheep.getColor()), getWoolDropAmount()));
-                        return true;
+                boolean simple = stackManager.getEntityDataStorageType(sheepEntity.getType()) == StackedEntityDataStorageType.SIMPLE;
+                stackedEntity.getDataStorage().forEachDataTransforming(internal -> {
+                    if (!internal.isSheared() || simple) {
+                        internal.setSheared(true);
+                        drops.add(new ItemStack(ItemUtils.getWoolMaterial(internal.getColor()), getWoolDropAmount()));
                     }
-                    return false;
                 });
+                stackedEntity.markModified();
 
                 Location location = sheepEntity.getLocation();
                 location.add(0, sheepEntity.getEyeHeight(), 0);
@@ -581,7 +589,11 @@ public class EntityListener implements Listener {
 
         Sheep sheepEntity = event.getEntity();
         StackedEntity stackedEntity = stackManager.getStackedEntity(sheepEntity);
-        if (stackedEntity == null || stackedEntity.getStackSize() == 1)
+        if (stackedEntity == null)
+            return;
+
+        stackedEntity.invalidateCompatibilityFingerprint();
+        if (stackedEntity.getStackSize() == 1)
             return;
 
         double regrowPercentage = stackedEntity.getStackSettings().getSettingValue(EntityStackSettings.SHEEP_PERCENTAGE_OF_WOOL_TO_REGROW_PER_GRASS_EATEN).getDouble() / 100D;
@@ -597,14 +609,13 @@ public class EntityListener implements Listener {
             return;
 
         AtomicInteger regrowRemaining = new AtomicInteger(regrowAmount);
-        ThreadUtils.runAsync(() -> stackedEntity.getDataStorage().forEachTransforming(internal -> {
-            Sheep sheep = (Sheep) internal;
-            if (shearedHandler.isSheared(sheep) && regrowRemaining.getAndDecrement() > 0) {
-                shearedHandler.setSheared(sheepEntity, false);
-                return true;
-            }
-            return false;
-        }));
+        ThreadUtils.runAsync(() -> {
+            stackedEntity.getDataStorage().forEachDataTransforming(internal -> {
+                if (internal.isSheared() && regrowRemaining.getAndDecrement() > 0)
+                    internal.setSheared(false);
+            });
+            stackedEntity.markModified();
+        });
     }
 
 }
@@ -135,6 +135,9 @@ public class InteractListener implements Listener {
         if (stackedEntity == null)
             return;
 
+        // Dyes, saddles, chests, and name tags can all change if this entity can stack
+        stackedEntity.invalidateCompatibilityFingerprint();
+
         Player player = event.getPlayer();
         ItemStack itemStack = event.getHand() == EquipmentSlot.HAND ? player.getInventory().getItemInMainHand() : player.getInventory().getItemInOffHand();
         if (itemStack.getType() == Material.NAME_TAG) {
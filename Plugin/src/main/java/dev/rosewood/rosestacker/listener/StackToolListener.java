@@ -80,6 +80,7 @@ public class StackToolListener implements Listener {
             return;
         }
 
+        stackedEntity.invalidateCompatibilityFingerprint();
         if (!player.isSneaking()) {
             boolean stackable = !PersistentDataUtils.isUnstackable(entity);
             PersistentDataUtils.setUnstackable(entity, stackable);
@@ -87,10 +88,13 @@ public class StackToolListener implements Listener {
             localeManager.sendCommandMessage(player, "command-stacktool-marked-" + stackableStr, StringPlaceholders.of("type", stackedEntity.getStackSettings().getDisplayName()));
         } else {
             PersistentDataUtils.setUnstackable(entity, true);
-            ThreadUtils.runAsync(() -> stackedEntity.getDataStorage().forEachTransforming(x -> {
-                PersistentDataUtils.setUnstackable(x, true);
-                return true;
-            }));
+            ThreadUtils.runAsync(() -> {
+                stackedEntity.getDataStorage().forEachTransforming(x -> {
+                    PersistentDataUtils.setUnstackable(x, true);
+                    return true;
+                });
+                stackedEntity.markModified();
+            });
             localeManager.sendCommandMessage(player, "command-stacktool-marked-all-unstackable", StringPlaceholders.of("type", stackedEntity.getStackSettings().getDisplayName()));
         }
     }
@@ -69,7 +69,9 @@ public class WorldListener implements Listener {
 
     @EventHandler
     public void onChunkUnload(ChunkUnloadEvent event) {
+        // Held loot is dropped before the chunk's entities unload, items spawned while they are being saved would be lost
         StackManager stackManager = this.rosePlugin.getManager(StackManager.class);
+        stackManager.getDropCoalescer().flush(event.getChunk());
         stackManager.saveChunkBlocks(event.getChunk(), true);
 
         if (NMSUtil.getVersionNumber() < 17)
@@ -7,8 +7,9 @@ import dev.rosewood.rosestacker.manager.EntityCacheManager;
 import dev.rosewood.rosestacker.manager.StackManager;
 import dev.rosewood.rosestacker.manager.StackSettingManager;
 import dev.rosewood.rosestacker.stack.StackedEntity;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -25,9 +26,11 @@ public class PaperPreCreatureSpawnListener implements Listener {
     private static final Map<String, SpawnCategory> SPAWN_CATEGORY_LOOKUP = Arrays.stream(SpawnCategory.values()).collect(Collectors.toMap(SpawnCategory::name, Function.identity()));
 
     private final RosePlugin rosePlugin;
+    private final List<Entity> nearbyEntities;
 
     public PaperPreCreatureSpawnListener(RosePlugin rosePlugin) {
         this.rosePlugin = rosePlugin;
+        this.nearbyEntities = new ArrayList<>();
     }
 
     @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
@@ -40,20 +43,24 @@ public class PaperPreCreatureSpawnListener implements Listener {
         int limit = event.getSpawnLocation().getWorld().getSpawnLimit(spawnCategory);
 
         int total = 0;
-        Collection<Entity> entities = this.rosePlugin.getManager(EntityCacheManager.class).getNearbyEntities(event.getSpawnLocation(), 16, x -> x.getSpawnCategory() == spawnCategory);
-        for (Entity entity : entities) {
-            LivingEntity livingEntity = (LivingEntity) entity;
-            StackedEntity stackedEntity = this.rosePlugin.getManager(StackManager.class).getStackedEntity(livingEntity);
-            if (stackedEntity == null) {
-                total++;
-            } else {
-                total += stackedEntity.getStackSize();
-            }
+        this.rosePlugin.getManager(EntityCacheManager.class).getNearbyEntities(event.getSpawnLocation(), 16, x -> x.getSpawnCategory() == spawnCategory, this.nearbyEntities);
+        try {
+            for (Entity entity : this.nearbyEntities) {
+                LivingEntity livingEntity = (LivingEntity) entity;
+                StackedEntity stackedEntity = this.rosePlugin.getManager(StackManager.class).getStackedEntity(livingEntity);
+                if (stackedEntity == null) {
+                    total++;
+                } else {
+                    total += stackedEntity.getStackSize();
+                }
 
-            if (total >= limit) {
-                event.setCancelled(true);
-                return;
+                if (total >= limit) {
+                    event.setCancelled(true);
+                    return;
+                }
             }
+        } finally {
+            this.nearbyEntities.clear();
         }
     }
 
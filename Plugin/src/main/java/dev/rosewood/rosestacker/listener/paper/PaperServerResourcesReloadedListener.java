@@ -0,0 +1,29 @@
+package dev.rosewood.rosestacker.listener.paper;
+
+import dev.rosewood.rosegarden.RosePlugin;
+import dev.rosewood.rosestacker.manager.StackSettingManager;
+import dev.rosewood.rosestacker.utils.EntityUtils;
+import io.papermc.paper.event.server.ServerResourcesReloadedEvent;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+
+public class PaperServerResourcesReloadedListener implements Listener {
+
+    private final RosePlugin rosePlugin;
+
+    public PaperServerResourcesReloadedListener(RosePlugin rosePlugin) {
+        this.rosePlugin = rosePlugin;
+    }
+
+    /**
+     * Loot tables are replaced when data packs are reloaded, so any pooled loot and learned drop rates may be out of date
+     *
+     * @param event The ServerResourcesReloadedEvent
+     */
+    @EventHandler
+    public void onServerResourcesReloaded(ServerResourcesReloadedEvent event) {
+        EntityUtils.clearLootPools();
+        this.rosePlugin.getManager(StackSettingManager.class).clearLootDistributions();
+    }
+
+}
@@ -2,17 +2,20 @@ package dev.rosewood.rosestacker.manager;
 
 import dev.rosewood.rosegarden.RosePlugin;
 import dev.rosewood.rosegarden.manager.Manager;
+import dev.rosewood.rosestacker.config.SettingKey;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.nms.NMSHandler;
 import dev.rosewood.rosestacker.stack.StackingThread;
+import dev.rosewood.rosestacker.utils.ThreadUtils;
 import dev.rosewood.rosestacker.utils.VersionUtils;
+import dev.rosewood.rosestacker.utils.WorkerPool;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.function.Predicate;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -20,30 +23,51 @@ import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.scheduler.BukkitTask;
-import org.bukkit.util.BoundingBox;
 
+/**
+ * Keeps a spatial index of all stackable entities per world.
+ * The index is updated incrementally when entities spawn, load, unload, move or are removed,
+ * the full world scan is only run occasionally as a consistency check.
+ */
 public class EntityCacheManager extends Manager {
 
-    private final Map<ChunkLocation, Collection<Entity>> entityCache;
-    private BukkitTask refreshTask;
+    private static final double CHUNK_EPSILON = 1.0E-7;
+    private static final ThreadLocal<Location> LOCATION_BUFFER = ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
+
+    private final Map<UUID, WorldEntityCache> worldCaches;
+    private BukkitTask updateTask, rescanTask;
+    private int cellSize;
 
     public EntityCacheManager(RosePlugin rosePlugin) {
         super(rosePlugin);
-        this.entityCache = new ConcurrentHashMap<>();
+        this.worldCaches = new ConcurrentHashMap<>();
     }
 
     @Override
     public void reload() {
-        this.refreshTask = Bukkit.getScheduler().runTaskTimer(this.rosePlugin, this::refresh, 5L, 60L);
+        this.cellSize = Math.max(SettingKey.ENTITY_CACHE_CELL_SIZE.get(), 1);
+
+        long updateFrequency = Math.max(SettingKey.ENTITY_CACHE_UPDATE_FREQUENCY.get(), 1L);
+        this.updateTask = ThreadUtils.runAsyncTimer(WorkerPool.STACKING, this::update, updateFrequency, updateFrequency);
+
+        // Entities are added as chunks load, the full rescan only picks up anything that was missed
+        long rescanFrequency = SettingKey.ENTITY_CACHE_RESCAN_FREQUENCY.get();
+        if (rescanFrequency > 0)
+            this.rescanTask = Bukkit.getScheduler().runTaskTimer(this.rosePlugin, this::rescan, rescanFrequency, rescanFrequency);
     }
 
     @Override
     public void disable() {
-        this.entityCache.clear();
+        this.worldCaches.clear();
+
+        if (this.updateTask != null) {
+            this.updateTask.cancel();
+            this.updateTask = null;
+        }
 
-        if (this.refreshTask != null) {
-            this.refreshTask.cancel();
-            this.refreshTask = null;
+        if (this.rescanTask != null) {
+            this.rescanTask.cancel();
+            this.rescanTask = null;
         }
     }
 
@@ -53,44 +77,46 @@ public class EntityCacheManager extends Manager {
      * @param center The center of the area to check
      * @param radius The radius to check around
      * @param predicate Conditions to be met
-     * @return A Set of nearby entities
+     * @return A Collection of nearby entities
      */
     public Collection<Entity> getNearbyEntities(Location center, double radius, Predicate<Entity> predicate) {
-        Set<Entity> nearbyEntities = new HashSet<>();
+        List<Entity> nearbyEntities = new ArrayList<>();
+        this.getNearbyEntities(center, radius, predicate, nearbyEntities);
+        return nearbyEntities;
+    }
+
+    /**
+     * Gets nearby entities from cache and adds them to the given buffer.
+     * Only the cells that overlap the search area are checked.
+     * The buffer is not cleared before adding the entities.
+     *
+     * @param center The center of the area to check
+     * @param radius The radius to check around
+     * @param predicate Conditions to be met
+     * @param buffer The Collection to add nearby entities to
+     */
+    public void getNearbyEntities(Location center, double radius, Predicate<Entity> predicate, Collection<Entity> buffer) {
         World world = center.getWorld();
         if (world == null)
-            return nearbyEntities;
-
-        BoundingBox boundingBox = new BoundingBox(
-                center.getX() - radius,
-                center.getY() - radius,
-                center.getZ() - radius,
-                center.getX() + radius,
-                center.getY() + radius,
-                center.getZ() + radius
-        );
+            return;
 
-        int minX = (int) boundingBox.getMinX() >> 4;
-        int maxX = (int) boundingBox.getMaxX() >> 4;
-        int minZ = (int) boundingBox.getMinZ() >> 4;
-        int maxZ = (int) boundingBox.getMaxZ() >> 4;
+        WorldEntityCache worldCache = this.worldCaches.get(world.getUID());
+        if (worldCache == null)
+            return;
 
-        for (int x = minX; x <= maxX; x++) {
-            for (int z = minZ; z <= maxZ; z++) {
-                Collection<Entity> entities = this.entityCache.get(new ChunkLocation(world.getName(), x, z));
-                if (entities == null)
-                    continue;
+        double minX = center.getX() - radius;
+        double minY = center.getY() - radius;
+        double minZ = center.getZ() - radius;
+        double maxX = center.getX() + radius;
+        double maxY = center.getY() + radius;
+        double maxZ = center.getZ() + radius;
 
-                for (Entity entity : entities) {
-                    if (boundingBox.contains(entity.getLocation().toVector())
-                            && predicate.test(entity)
-                            && entity.isValid())
-                        nearbyEntities.add(entity);
-                }
-            }
-        }
-
-        return nearbyEntities;
+        worldCache.collect(
+                worldCache.toCell(minX), worldCache.toCell(minY), worldCache.toCell(minZ),
+                worldCache.toCell(maxX), worldCache.toCell(maxY), worldCache.toCell(maxZ),
+                minX, minY, minZ, maxX, maxY, maxZ,
+                predicate, buffer
+        );
     }
 
     /**
@@ -98,23 +124,45 @@ public class EntityCacheManager extends Manager {
      *
      * @param location The Location of the Chunk
      * @param predicate Conditions to be met
-     * @return A Set of entities in the chunk
+     * @return A Collection of entities in the chunk
      */
     public Collection<Entity> getEntitiesInChunk(Location location, Predicate<Entity> predicate) {
+        List<Entity> entities = new ArrayList<>();
+        this.getEntitiesInChunk(location, predicate, entities);
+        return entities;
+    }
+
+    /**
+     * Gets entities in the Chunk of a Location and adds them to the given buffer.
+     * The buffer is not cleared before adding the entities.
+     *
+     * @param location The Location of the Chunk
+     * @param predicate Conditions to be met
+     * @param buffer The Collection to add entities in the chunk to
+     */
+    public void getEntitiesInChunk(Location location, Predicate<Entity> predicate, Collection<Entity> buffer) {
         World world = location.getWorld();
         if (world == null)
-            return new ArrayList<>();
+            return;
 
-        Collection<Entity> entities = this.entityCache.get(new ChunkLocation(world.getName(), location.getBlockX() >> 4, location.getBlockZ() >> 4));
-        if (entities == null)
-            return new ArrayList<>();
+        WorldEntityCache worldCache = this.worldCaches.get(world.getUID());
+        if (worldCache == null)
+            return;
 
-        Set<Entity> nearbyEntities = new HashSet<>();
-        for (Entity entity : entities)
-            if (predicate.test(entity) && entity.isValid())
-                nearbyEntities.add(entity);
+        double minX = (location.getBlockX() >> 4) << 4;
+        double minZ = (location.getBlockZ() >> 4) << 4;
+        double maxX = minX + 16;
+        double maxZ = minZ + 16;
+        double minY = world.getMinHeight();
+        double maxY = world.getMaxHeight();
 
-        return nearbyEntities;
+        // The upper bounds are exclusive for chunks, don't touch the cells of the next chunk over
+        worldCache.collect(
+                worldCache.toCell(minX), worldCache.toCell(minY), worldCache.toCell(minZ),
+                worldCache.toCell(maxX - 1), worldCache.toCell(maxY), worldCache.toCell(maxZ - 1),
+                minX, minY, minZ, maxX - CHUNK_EPSILON, maxY, maxZ - CHUNK_EPSILON,
+                predicate, buffer
+        );
     }
 
     /**
@@ -123,39 +171,264 @@ public class EntityCacheManager extends Manager {
      * @param entity The entity to cache
      */
     public void preCacheEntity(Entity entity) {
+        if (!isCacheable(entity))
+            return;
+
         Location location = entity.getLocation();
-        ChunkLocation chunkLocation = new ChunkLocation(entity.getWorld().getName(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
-        Collection<Entity> entities = this.entityCache.get(chunkLocation);
-        if (entities == null) {
-            entities = new LinkedBlockingDeque<>();
-            this.entityCache.put(chunkLocation, entities);
-        }
-        entities.add(entity);
-    }
-
-    private void refresh() {
-        synchronized (this.entityCache) {
-            this.entityCache.clear();
-            NMSHandler nmsHandler = NMSAdapter.getHandler();
-            for (StackingThread stackingThread : this.rosePlugin.getManager(StackManager.class).getStackingThreads().values()) {
-                World world = stackingThread.getTargetWorld();
-                for (Entity entity : nmsHandler.getEntities(world)) {
-                    EntityType type = entity.getType();
-                    if (type != VersionUtils.ITEM && (!type.isAlive() || type == EntityType.PLAYER || type == EntityType.ARMOR_STAND))
-                        continue;
-
-                    ChunkLocation chunkLocation = new ChunkLocation(world.getName(), entity.getLocation().getBlockX() >> 4, entity.getLocation().getBlockZ() >> 4);
-                    Collection<Entity> entities = this.entityCache.get(chunkLocation);
-                    if (entities == null) {
-                        entities = new LinkedBlockingDeque<>();
-                        this.entityCache.put(chunkLocation, entities);
-                    }
-                    entities.add(entity);
+        World world = location.getWorld();
+        if (world != null)
+            this.worldCaches.computeIfAbsent(world.getUID(), x -> new WorldEntityCache(this.cellSize)).put(entity, location);
+    }
+
+    /**
+     * Adds entities into the cache, used for entities that were loaded with a chunk
+     *
+     * @param entities The entities to cache
+     */
+    public void cacheEntities(Collection<Entity> entities) {
+        for (Entity entity : entities)
+            this.preCacheEntity(entity);
+    }
+
+    /**
+     * Removes an entity from the cache, used for entities that were removed or unloaded
+     *
+     * @param entity The entity to remove from the cache
+     */
+    public void uncacheEntity(Entity entity) {
+        if (entity == null)
+            return;
+
+        for (WorldEntityCache worldCache : this.worldCaches.values())
+            if (worldCache.remove(entity.getUniqueId()))
+                return;
+    }
+
+    /**
+     * Removes entities from the cache, used for entities that were unloaded with a chunk
+     *
+     * @param entities The entities to remove from the cache
+     */
+    public void uncacheEntities(Collection<Entity> entities) {
+        for (Entity entity : entities)
+            this.uncacheEntity(entity);
+    }
+
+    /**
+     * Clears all cached entities for a World
+     *
+     * @param world The World to clear
+     */
+    public void unloadWorld(World world) {
+        this.worldCaches.remove(world.getUID());
+    }
+
+    /**
+     * Moves entities that have changed cells and drops entities that are no longer valid
+     */
+    private void update() {
+        for (Map.Entry<UUID, WorldEntityCache> entry : this.worldCaches.entrySet()) {
+            WorldEntityCache worldCache = entry.getValue();
+            Location location = new Location(null, 0, 0, 0);
+            for (CachedEntity cachedEntity : worldCache.getEntries()) {
+                Entity entity = cachedEntity.entity;
+                if (!entity.isValid()) {
+                    worldCache.remove(entity.getUniqueId());
+                    continue;
                 }
+
+                entity.getLocation(location);
+                World world = location.getWorld();
+                if (world == null)
+                    continue;
+
+                if (!world.getUID().equals(entry.getKey())) {
+                    // Entity changed worlds, move it over to the other index
+                    worldCache.remove(entity.getUniqueId());
+                    this.worldCaches.computeIfAbsent(world.getUID(), x -> new WorldEntityCache(this.cellSize)).put(entity, location);
+                    continue;
+                }
+
+                worldCache.move(cachedEntity, worldCache.getCellKey(location));
             }
         }
     }
 
-    private record ChunkLocation(String world, int x, int z) { }
+    /**
+     * Scans all entities in each world to pick up any entities that were missed by the incremental updates
+     */
+    private void rescan() {
+        NMSHandler nmsHandler = NMSAdapter.getHandler();
+        Location location = new Location(null, 0, 0, 0);
+        for (StackingThread stackingThread : this.rosePlugin.getManager(StackManager.class).getStackingThreads().values()) {
+            World world = stackingThread.getTargetWorld();
+            WorldEntityCache worldCache = this.worldCaches.computeIfAbsent(world.getUID(), x -> new WorldEntityCache(this.cellSize));
+            long generation = worldCache.nextGeneration();
+            for (Entity entity : nmsHandler.getEntities(world)) {
+                if (!isCacheable(entity))
+                    continue;
+
+                entity.getLocation(location);
+                worldCache.put(entity, location).generation = generation;
+            }
+
+            worldCache.removeOlderThan(generation);
+        }
+    }
+
+    private static boolean isCacheable(Entity entity) {
+        EntityType type = entity.getType();
+        return type == VersionUtils.ITEM || (type.isAlive() && type != EntityType.PLAYER && type != EntityType.ARMOR_STAND);
+    }
+
+    private static final class CachedEntity {
+
+        private final Entity entity;
+        private volatile long cellKey;
+        private volatile long generation;
+
+        private CachedEntity(Entity entity, long cellKey, long generation) {
+            this.entity = entity;
+            this.cellKey = cellKey;
+            this.generation = generation;
+        }
+
+    }
+
+    /**
+     * The cached entities of a single World, bucketed into cubic cells by packed cell keys.
+     * Cell changes are synchronized so an entity is never left in more than one cell.
+     */
+    private static final class WorldEntityCache {
+
+        private final int cellSize;
+        private final Map<Long, Set<Entity>> cells;
+        private final Map<UUID, CachedEntity> entries;
+        private volatile long generation;
+
+        private WorldEntityCache(int cellSize) {
+            this.cellSize = cellSize;
+            this.cells = new ConcurrentHashMap<>();
+            this.entries = new ConcurrentHashMap<>();
+        }
+
+        private void collect(int minCellX, int minCellY, int minCellZ, int maxCellX, int maxCellY, int maxCellZ,
+                             double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+                             Predicate<Entity> predicate, Collection<Entity> buffer) {
+            Location location = LOCATION_BUFFER.get();
+            for (int x = minCellX; x <= maxCellX; x++) {
+                for (int z = minCellZ; z <= maxCellZ; z++) {
+                    for (int y = minCellY; y <= maxCellY; y++) {
+                        Set<Entity> entities = this.cells.get(getCellKey(x, y, z));
+                        if (entities == null)
+                            continue;
+
+                        for (Entity entity : entities) {
+                            if (!predicate.test(entity))
+                                continue;
+
+                            entity.getLocation(location);
+                            double entityX = location.getX();
+                            double entityY = location.getY();
+                            double entityZ = location.getZ();
+                            if (entityX >= minX && entityX <= maxX
+                                    && entityY >= minY && entityY <= maxY
+                                    && entityZ >= minZ && entityZ <= maxZ
+                                    && entity.isValid())
+                                buffer.add(entity);
+                        }
+                    }
+                }
+            }
+        }
+
+        private int toCell(double coordinate) {
+            return Math.floorDiv((int) Math.floor(coordinate), this.cellSize);
+        }
+
+        private long getCellKey(Location location) {
+            return getCellKey(this.toCell(location.getX()), this.toCell(location.getY()), this.toCell(location.getZ()));
+        }
+
+        /**
+         * Packs cell coordinates into a long, laid out the same way as block positions
+         */
+        private static long getCellKey(int x, int y, int z) {
+            return ((x & 0x3FFFFFFL) << 38) | ((z & 0x3FFFFFFL) << 12) | (y & 0xFFFL);
+        }
+
+        private Collection<CachedEntity> getEntries() {
+            return this.entries.values();
+        }
+
+        private synchronized CachedEntity put(Entity entity, Location location) {
+            long cellKey = this.getCellKey(location);
+            CachedEntity existing = this.entries.get(entity.getUniqueId());
+            if (existing != null) {
+                if (existing.entity == entity) {
+                    this.move(existing, cellKey);
+                    return existing;
+                }
+
+                // The entity instance has been replaced, drop the old one
+                this.remove(entity.getUniqueId());
+            }
+
+            CachedEntity cachedEntity = new CachedEntity(entity, cellKey, this.generation);
+            this.entries.put(entity.getUniqueId(), cachedEntity);
+            this.addToCell(cellKey, entity);
+            return cachedEntity;
+        }
+
+        private synchronized void move(CachedEntity cachedEntity, long cellKey) {
+            long previousKey = cachedEntity.cellKey;
+            if (previousKey == cellKey)
+                return;
+
+            // The entry may have been removed or replaced since it was read, don't put it back into a cell
+            if (this.entries.get(cachedEntity.entity.getUniqueId()) != cachedEntity)
+                return;
+
+            cachedEntity.cellKey = cellKey;
+            this.addToCell(cellKey, cachedEntity.entity);
+            this.removeFromCell(previousKey, cachedEntity.entity);
+        }
+
+        private synchronized boolean remove(UUID uuid) {
+            CachedEntity cachedEntity = this.entries.remove(uuid);
+            if (cachedEntity == null)
+                return false;
+
+            this.removeFromCell(cachedEntity.cellKey, cachedEntity.entity);
+            return true;
+        }
+
+        private long nextGeneration() {
+            return ++this.generation;
+        }
+
+        private synchronized void removeOlderThan(long generation) {
+            for (CachedEntity cachedEntity : this.entries.values())
+                if (cachedEntity.generation < generation)
+                    this.remove(cachedEntity.entity.getUniqueId());
+        }
+
+        private void addToCell(long cellKey, Entity entity) {
+            this.cells.compute(cellKey, (key, entities) -> {
+                if (entities == null)
+                    entities = ConcurrentHashMap.newKeySet();
+                entities.add(entity);
+                return entities;
+            });
+        }
+
+        private void removeFromCell(long cellKey, Entity entity) {
+            this.cells.computeIfPresent(cellKey, (key, entities) -> {
+                entities.remove(entity);
+                return entities.isEmpty() ? null : entities;
+            });
+        }
+
+    }
 
 }
@@ -3,18 +3,30 @@ package dev.rosewood.rosestacker.manager;
 import dev.rosewood.rosegarden.RosePlugin;
 import dev.rosewood.rosegarden.manager.Manager;
 import dev.rosewood.rosestacker.config.SettingKey;
+import dev.rosewood.rosestacker.nms.NMSAdapter;
+import dev.rosewood.rosestacker.nms.NMSHandler;
 import dev.rosewood.rosestacker.nms.spawner.SpawnerType;
+import dev.rosewood.rosestacker.nms.storage.SpillFile;
+import dev.rosewood.rosestacker.nms.storage.SpillingStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorage;
 import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorageType;
+import dev.rosewood.rosestacker.stack.DropCoalescer;
 import dev.rosewood.rosestacker.stack.StackedBlock;
 import dev.rosewood.rosestacker.stack.StackedEntity;
 import dev.rosewood.rosestacker.stack.StackedItem;
 import dev.rosewood.rosestacker.stack.StackedSpawner;
 import dev.rosewood.rosestacker.stack.StackingLogic;
+import dev.rosewood.rosestacker.stack.StackingScheduler;
 import dev.rosewood.rosestacker.stack.StackingThread;
+import dev.rosewood.rosestacker.stack.SyncMutationQueue;
 import dev.rosewood.rosestacker.stack.settings.BlockStackSettings;
 import dev.rosewood.rosestacker.stack.settings.EntityStackSettings;
 import dev.rosewood.rosestacker.stack.settings.SpawnerStackSettings;
 import dev.rosewood.rosestacker.utils.DataUtils;
+import dev.rosewood.rosestacker.utils.ItemAggregator;
+import dev.rosewood.rosestacker.utils.WorkerPool;
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -42,7 +54,11 @@ import org.jetbrains.annotations.NotNull;
 public class StackManager extends Manager implements StackingLogic {
 
     private final Map<UUID, StackingThread> stackingThreads;
+    private final Map<UUID, SpillFile> spillFiles;
+    private final DropCoalescer dropCoalescer;
 
+    private StackingScheduler stackingScheduler;
+    private SyncMutationQueue syncMutationQueue;
     private BukkitTask autosaveTask;
 
     private boolean isEntityStackingTemporarilyDisabled;
@@ -54,6 +70,8 @@ public class StackManager extends Manager implements StackingLogic {
         super(rosePlugin);
 
         this.stackingThreads = new ConcurrentHashMap<>();
+        this.spillFiles = new ConcurrentHashMap<>();
+        this.dropCoalescer = new DropCoalescer(rosePlugin, this);
 
         this.isEntityStackingTemporarilyDisabled = false;
     }
@@ -61,10 +79,14 @@ public class StackManager extends Manager implements StackingLogic {
     @Override
     public void reload() {
         this.entityDataStorageType = StackedEntityDataStorageType.fromName(SettingKey.ENTITY_DATA_STORAGE_TYPE.get());
+        this.syncMutationQueue = new SyncMutationQueue(this.rosePlugin);
 
         // Load a new StackingThread per world
         Bukkit.getWorlds().forEach(this::loadWorld);
 
+        // Start processing the StackingThreads
+        this.stackingScheduler = new StackingScheduler(this.rosePlugin, this);
+
         // Kick off autosave task if enabled
         long autosaveFrequency = SettingKey.AUTOSAVE_FREQUENCY.get();
         if (autosaveFrequency > 0) {
@@ -75,17 +97,36 @@ public class StackManager extends Manager implements StackingLogic {
 
     @Override
     public void disable() {
+        if (this.stackingScheduler != null) {
+            this.stackingScheduler.close();
+            this.stackingScheduler = null;
+        }
+
+        // Let jobs and saves that are already running finish so they don't queue changes after the queue is closed
+        this.rosePlugin.getManager(WorkerPoolManager.class).awaitIdle(WorkerPool.STACKING, WorkerPool.SAVING);
+
+        // Apply any changes the StackingThreads left behind before saving, anything queued later is applied directly
+        if (this.syncMutationQueue != null)
+            this.syncMutationQueue.close();
+
         if (this.autosaveTask != null) {
             this.autosaveTask.cancel();
             this.autosaveTask = null;
         }
 
+        // Drop any loot that is still being gathered while the worlds are loaded
+        this.dropCoalescer.flushAll();
+
         // Save anything that's loaded
         this.saveAllData(true);
 
         // Close and clear StackingThreads
         this.stackingThreads.values().forEach(StackingThread::close);
         this.stackingThreads.clear();
+
+        // Everything has been saved to the entities, so the spilled data is no longer needed
+        this.spillFiles.values().forEach(SpillFile::close);
+        this.spillFiles.clear();
     }
 
     @Override
@@ -326,6 +367,19 @@ public class StackManager extends Manager implements StackingLogic {
         stackingThread.preStackItems(items, location, dropNaturally);
     }
 
+    @Override
+    public void preStackItems(ItemAggregator items, Location location, boolean dropNaturally) {
+        World world = location.getWorld();
+        if (world == null)
+            return;
+
+        StackingThread stackingThread = this.getStackingThread(world);
+        if (stackingThread == null)
+            return;
+
+        stackingThread.preStackItems(items, location, dropNaturally);
+    }
+
     @Override
     public StackedItem dropItemStack(ItemStack itemStack, int amount, Location location, boolean dropNaturally) {
         World world = location.getWorld();
@@ -406,6 +460,13 @@ public class StackManager extends Manager implements StackingLogic {
         return this.stackingThreads.get(world.getUID());
     }
 
+    /**
+     * @return the queue used to apply changes to stacked entities on the main thread, once disabled it applies them directly
+     */
+    public SyncMutationQueue getSyncMutationQueue() {
+        return this.syncMutationQueue;
+    }
+
     /**
      * @return a Map of key -> World UUID, value -> StackingThread of all StackingThreads
      */
@@ -414,6 +475,13 @@ public class StackManager extends Manager implements StackingLogic {
         return this.stackingThreads;
     }
 
+    /**
+     * @return the DropCoalescer that gathers the loot of stacked entity deaths before it is dropped
+     */
+    public DropCoalescer getDropCoalescer() {
+        return this.dropCoalescer;
+    }
+
     /**
      * Creates a StackingThread for the given World
      *
@@ -423,6 +491,16 @@ public class StackManager extends Manager implements StackingLogic {
         if (this.isWorldDisabled(world) || this.stackingThreads.containsKey(world.getUID()))
             return;
 
+        // Stacks are loaded when the StackingThread is created, so the spill file has to exist first
+        if (SettingKey.ENTITY_SPILL_ENABLED.get()) {
+            File file = new File(this.rosePlugin.getDataFolder(), "spill" + File.separator + world.getUID() + ".dat");
+            try {
+                this.spillFiles.put(world.getUID(), new SpillFile(file.toPath(), this.rosePlugin.getLogger()));
+            } catch (IOException e) {
+                this.rosePlugin.getLogger().warning("Failed to create the spill file for world " + world.getName() + ", large stacks will be kept in memory: " + e.getMessage());
+            }
+        }
+
         this.stackingThreads.put(world.getUID(), new StackingThread(this.rosePlugin, this, world));
     }
 
@@ -432,12 +510,21 @@ public class StackManager extends Manager implements StackingLogic {
      * @param world to remove the StackingThread of
      */
     public void unloadWorld(World world) {
+        // Drop any loot that is still being gathered while the world can still be saved
+        this.dropCoalescer.flush(world);
+
         UUID worldUUID = world.getUID();
         StackingThread stackingThread = this.stackingThreads.get(worldUUID);
         if (stackingThread != null) {
             stackingThread.close();
             this.stackingThreads.remove(worldUUID);
         }
+
+        SpillFile spillFile = this.spillFiles.remove(worldUUID);
+        if (spillFile != null)
+            spillFile.close();
+
+        this.rosePlugin.getManager(EntityCacheManager.class).unloadWorld(world);
     }
 
     /**
@@ -493,9 +580,32 @@ public class StackManager extends Manager implements StackingLogic {
             return;
 
         DataUtils.writeStackedEntity(stackedEntity);
+        this.transferEntityDataStorage(stackedEntity, to);
         fromThread.transferExistingEntityStack(entityUUID, stackedEntity, toThread);
     }
 
+    /**
+     * Moves the spilled entries of a stack over to the spill file of the world it has moved to.
+     * The spill file of the world it came from is closed when that world unloads, so the entries can't be left in it.
+     *
+     * @param stackedEntity The stacked entity that changed worlds
+     * @param to The world the stacked entity moved to
+     */
+    private void transferEntityDataStorage(StackedEntity stackedEntity, World to) {
+        if (!(stackedEntity.getDataStorage() instanceof SpillingStackedEntityDataStorage spillingStorage))
+            return;
+
+        SpillFile spillFile = this.spillFiles.get(to.getUID());
+        if (spillingStorage.getSpillFile() == spillFile)
+            return;
+
+        if (spillFile != null) {
+            stackedEntity.setDataStorage(spillingStorage.transferTo(spillFile));
+        } else {
+            stackedEntity.setDataStorage(spillingStorage.unspill());
+        }
+    }
+
     public void changeStackingThread(UUID entityUUID, StackedItem stackedItem, World from, World to) {
         StackingThread fromThread = this.getStackingThread(from);
         StackingThread toThread = this.getStackingThread(to);
@@ -546,6 +656,35 @@ public class StackManager extends Manager implements StackingLogic {
         return this.isEntityUnstackingTemporarilyDisabled;
     }
 
+    /**
+     * Creates an empty data storage for an entity using the storage type for its entity type
+     *
+     * @param entity The entity to create the data storage for
+     * @return the new data storage
+     */
+    public StackedEntityDataStorage createEntityDataStorage(LivingEntity entity) {
+        return this.wrapEntityDataStorage(entity, NMSAdapter.getHandler().createEntityDataStorage(entity, this.getEntityDataStorageType(entity.getType())));
+    }
+
+    /**
+     * Wraps a data storage so it spills to disk once it gets large, if enabled for the entity's world
+     *
+     * @param entity The entity the data storage is for
+     * @param storage The data storage to wrap
+     * @return the wrapped data storage, or the same data storage if spilling isn't used
+     */
+    public StackedEntityDataStorage wrapEntityDataStorage(LivingEntity entity, StackedEntityDataStorage storage) {
+        StackedEntityDataStorageType type = storage.getType();
+        SpillFile spillFile = this.spillFiles.get(entity.getWorld().getUID());
+        if (spillFile == null || type == StackedEntityDataStorageType.SIMPLE || storage instanceof SpillingStackedEntityDataStorage)
+            return storage;
+
+        NMSHandler nmsHandler = NMSAdapter.getHandler();
+        return new SpillingStackedEntityDataStorage(storage, spillFile, SettingKey.ENTITY_SPILL_WINDOW_SIZE.get(),
+                x -> nmsHandler.createEntityDataStorage(x, type),
+                (x, y) -> nmsHandler.deserializeEntityDataStorage(x, y, type));
+    }
+
     /**
      * @return the current entity data storage type for newly created entity stacks
      */
@@ -279,6 +279,13 @@ public class StackSettingManager extends Manager {
         return this.getEntityStackSettings(entity.getType());
     }
 
+    /**
+     * Forgets the drop rates learned for every entity type, needs to be called whenever loot tables may have changed
+     */
+    public void clearLootDistributions() {
+        this.entitySettings.values().forEach(EntityStackSettings::clearLootDistributions);
+    }
+
     /**
      * Gets the EntityStackSettings for a spawn egg material
      *
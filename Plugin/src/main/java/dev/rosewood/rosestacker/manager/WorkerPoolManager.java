@@ -0,0 +1,269 @@
+package dev.rosewood.rosestacker.manager;
+
+import dev.rosewood.rosegarden.RosePlugin;
+import dev.rosewood.rosegarden.manager.Manager;
+import dev.rosewood.rosestacker.config.SettingKey;
+import dev.rosewood.rosestacker.utils.WorkerPool;
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Manages the bounded worker thread pools used for async work instead of the shared Bukkit async scheduler
+ */
+public class WorkerPoolManager extends Manager {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final Map<WorkerPool, PoolExecutor> executors;
+    private ForkJoinPool regionPool;
+
+    public WorkerPoolManager(RosePlugin rosePlugin) {
+        super(rosePlugin);
+
+        this.executors = new EnumMap<>(WorkerPool.class);
+    }
+
+    @Override
+    public void reload() {
+        int queueSize = Math.max(SettingKey.WORKER_QUEUE_SIZE.get(), 1);
+        boolean virtualThreads = SettingKey.WORKER_USE_VIRTUAL_THREADS.get();
+        if (virtualThreads && !this.supportsVirtualThreads()) {
+            this.rosePlugin.getLogger().warning("Virtual threads are enabled in the config but are not supported by this Java version, using platform threads instead.");
+            virtualThreads = false;
+        }
+
+        for (WorkerPool pool : WorkerPool.values())
+            this.executors.put(pool, new PoolExecutor(pool, queueSize, this.createThreadFactory(pool, virtualThreads)));
+
+        // Region work splits itself into subtasks and waits on them, which is what a ForkJoinPool is built for
+        int regionThreads = SettingKey.WORKER_REGION_THREADS.get();
+        if (regionThreads <= 0)
+            regionThreads = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+
+        AtomicInteger threadCount = new AtomicInteger(1);
+        this.regionPool = new ForkJoinPool(regionThreads, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("RoseStacker-Region-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    @Override
+    public void disable() {
+        // Let anything already queued finish, the plugin is still enabled at this point so results can be applied
+        for (PoolExecutor executor : this.executors.values())
+            executor.shutdown();
+
+        // This runs on the main thread, so all pools share one deadline instead of each getting their own
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT_SECONDS);
+        for (PoolExecutor executor : this.executors.values()) {
+            try {
+                if (!executor.awaitTermination(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                    this.rosePlugin.getLogger().warning("Timed out waiting for " + executor.getQueue().size() + " queued " + executor.pool.getName().toLowerCase() + " tasks to finish, they have been cancelled.");
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        this.executors.clear();
+
+        if (this.regionPool != null) {
+            this.regionPool.shutdownNow();
+            this.regionPool = null;
+        }
+    }
+
+    /**
+     * Waits for the work that is queued or running on worker pools to finish, the pools keep accepting new work.
+     * All pools share one deadline, pools that haven't finished by then are left running.
+     *
+     * @param pools The pools to wait for
+     * @return true if all the pools finished their work, false if the deadline was reached first
+     */
+    public boolean awaitIdle(WorkerPool... pools) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT_SECONDS);
+        for (WorkerPool pool : pools) {
+            PoolExecutor executor = this.executors.get(pool);
+            if (executor == null)
+                continue;
+
+            while (executor.getActiveCount() > 0 || !executor.getQueue().isEmpty()) {
+                if (System.nanoTime() >= deadline) {
+                    this.rosePlugin.getLogger().warning("Timed out waiting for " + pool.getName().toLowerCase() + " tasks to finish.");
+                    return false;
+                }
+
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Submits work to run on a worker pool
+     *
+     * @param pool The pool to run the work on
+     * @param runnable The work to run
+     */
+    public void submit(WorkerPool pool, Runnable runnable) {
+        this.submit(pool, null, runnable);
+    }
+
+    /**
+     * Submits work to run on a worker pool.
+     * If work with the same key is already waiting in the queue, this work is considered redundant and is dropped.
+     *
+     * @param pool The pool to run the work on
+     * @param key The key to merge redundant work with, or null to never merge
+     * @param runnable The work to run
+     */
+    public void submit(WorkerPool pool, Object key, Runnable runnable) {
+        PoolExecutor executor = this.executors.get(pool);
+        if (executor == null || executor.isShutdown()) {
+            // Outside the lifetime of the pools, run on the Bukkit scheduler like before
+            Bukkit.getScheduler().runTaskAsynchronously(this.rosePlugin, runnable);
+            return;
+        }
+
+        executor.submit(key, runnable);
+    }
+
+    /**
+     * Starts a repeating task on the main thread that submits work to a worker pool each time it runs.
+     * A run is skipped if the previous one is still waiting in the queue, so a slow pool can't pile up runs.
+     *
+     * @param pool The pool to run the work on
+     * @param runnable The work to run
+     * @param delay The delay in ticks before the first run
+     * @param period The period in ticks between runs
+     * @return the task that submits the work
+     */
+    public BukkitTask submitTimer(WorkerPool pool, Runnable runnable, long delay, long period) {
+        Object key = new Object();
+        return Bukkit.getScheduler().runTaskTimer(this.rosePlugin, () -> this.submit(pool, key, runnable), delay, period);
+    }
+
+    /**
+     * Gets the pool used to split up work over regions of a world.
+     * Unlike the other pools this has no queue limit, the caller is expected to wait for the work it submits.
+     *
+     * @return the region pool
+     */
+    public ForkJoinPool getRegionPool() {
+        ForkJoinPool regionPool = this.regionPool;
+        if (regionPool == null || regionPool.isShutdown())
+            return ForkJoinPool.commonPool();
+        return regionPool;
+    }
+
+    /**
+     * @param pool The pool to get the queue size of
+     * @return the number of tasks waiting to run on the pool
+     */
+    public int getQueuedTasks(WorkerPool pool) {
+        PoolExecutor executor = this.executors.get(pool);
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * @param pool The pool to get the dropped task count of
+     * @return the number of tasks that have been dropped or merged since the pool was created
+     */
+    public long getDroppedTasks(WorkerPool pool) {
+        PoolExecutor executor = this.executors.get(pool);
+        return executor == null ? 0 : executor.droppedTasks.get();
+    }
+
+    private boolean supportsVirtualThreads() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    private ThreadFactory createThreadFactory(WorkerPool pool, boolean virtualThreads) {
+        String prefix = "RoseStacker-" + pool.getName() + "-";
+        if (virtualThreads) {
+            // Compiled against Java 17, so the virtual thread builder has to be accessed reflectively
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Method nameMethod = builderClass.getMethod("name", String.class, long.class);
+                builder = nameMethod.invoke(builder, prefix, 1L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                this.rosePlugin.getLogger().warning("Failed to create virtual threads, using platform threads instead.");
+            }
+        }
+
+        AtomicInteger threadCount = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static class PoolExecutor extends ThreadPoolExecutor {
+
+        private final WorkerPool pool;
+        private final Set<Object> queuedKeys;
+        private final AtomicLong droppedTasks;
+
+        public PoolExecutor(WorkerPool pool, int queueSize, ThreadFactory threadFactory) {
+            super(pool.getThreadCount(), pool.getThreadCount(), 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueSize), threadFactory);
+            this.pool = pool;
+            this.queuedKeys = ConcurrentHashMap.newKeySet();
+            this.droppedTasks = new AtomicLong();
+            this.allowCoreThreadTimeOut(true);
+        }
+
+        public void submit(Object key, Runnable runnable) {
+            if (key != null && !this.queuedKeys.add(key)) {
+                this.droppedTasks.incrementAndGet();
+                return;
+            }
+
+            Runnable task = key == null ? runnable : () -> {
+                this.queuedKeys.remove(key);
+                runnable.run();
+            };
+
+            try {
+                this.execute(task);
+            } catch (RejectedExecutionException e) {
+                if (key != null)
+                    this.queuedKeys.remove(key);
+
+                if (this.pool.shouldDropWhenSaturated()) {
+                    this.droppedTasks.incrementAndGet();
+                } else {
+                    runnable.run();
+                }
+            }
+        }
+
+    }
+
+}
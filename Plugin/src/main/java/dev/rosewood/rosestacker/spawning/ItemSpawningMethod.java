@@ -12,6 +12,7 @@ import dev.rosewood.rosestacker.utils.PersistentDataUtils;
 import dev.rosewood.rosestacker.utils.StackerUtils;
 import dev.rosewood.rosestacker.utils.ThreadUtils;
 import dev.rosewood.rosestacker.utils.VersionUtils;
+import dev.rosewood.rosestacker.utils.WorkerPool;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -67,7 +68,7 @@ public class ItemSpawningMethod implements SpawningMethod {
             spawnAmount = spawnerTile.getSpawnCount();
         }
 
-        ThreadUtils.runAsync(() -> {
+        ThreadUtils.runAsync(WorkerPool.SPAWNING, () -> {
             Set<Location> spawnLocations = new HashSet<>();
             int spawnRange = spawnerTile.getSpawnRange();
             for (int i = 0; i < spawnAmount; i++) {
@@ -22,8 +22,8 @@ import dev.rosewood.rosestacker.utils.PersistentDataUtils;
 import dev.rosewood.rosestacker.utils.StackerUtils;
 import dev.rosewood.rosestacker.utils.ThreadUtils;
 import dev.rosewood.rosestacker.utils.VersionUtils;
+import dev.rosewood.rosestacker.utils.WorkerPool;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -91,7 +91,7 @@ public class MobSpawningMethod implements SpawningMethod {
         EntityCacheManager entityCacheManager = RoseStacker.getInstance().getManager(EntityCacheManager.class);
         StackManager stackManager = RoseStacker.getInstance().getManager(StackManager.class);
 
-        ThreadUtils.runAsync(() -> {
+        ThreadUtils.runAsync(WorkerPool.SPAWNING, () -> {
             // Make sure the chunk is still loaded
             if (!stackedSpawner.getWorld().isChunkLoaded(stackedSpawner.getLocation().getBlockX() >> 4, stackedSpawner.getLocation().getBlockZ() >> 4))
                 return;
@@ -145,8 +145,9 @@ public class MobSpawningMethod implements SpawningMethod {
 
             EntityType entityType = stackedSpawner.getSpawnerTile().getSpawnerType().getOrThrow();
             Predicate<Entity> predicate = entity -> entity.getType() == entityType;
-            Collection<Entity> nearbyEntities = entityCacheManager.getNearbyEntities(stackedSpawner.getLocation(), stackSettings.getSpawnRange(), predicate);
-            List<StackedEntity> nearbyStackedEntities = new ArrayList<>();
+            List<Entity> nearbyEntities = new ArrayList<>();
+            entityCacheManager.getNearbyEntities(stackedSpawner.getLocation(), stackSettings.getSpawnRange(), predicate, nearbyEntities);
+            List<StackedEntity> nearbyStackedEntities = new ArrayList<>(nearbyEntities.size());
             for (Entity entity : nearbyEntities) {
                 StackedEntity stackedEntity = stackManager.getStackedEntity((LivingEntity) entity);
                 if (stackedEntity != null)
@@ -255,7 +256,7 @@ public class MobSpawningMethod implements SpawningMethod {
                 break;
 
             switch (stackManager.getEntityDataStorageType(this.entityType)) {
-                case NBT -> {
+                case NBT, DELTA, COUNTED, SLAB -> {
                     StackedEntity newStack = this.createNewEntity(nmsHandler, location, stackedSpawner, entityStackSettings);
                     Optional<StackedEntity> matchingEntity = stackedEntities.stream().filter(x ->
                             WorldGuardHook.testLocation(x.getLocation()) && entityStackSettings.testCanStackWith(x, newStack, false, true)).findAny();
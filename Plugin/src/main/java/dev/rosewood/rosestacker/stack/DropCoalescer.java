@@ -0,0 +1,149 @@
+package dev.rosewood.rosestacker.stack;
+
+import dev.rosewood.rosegarden.RosePlugin;
+import dev.rosewood.rosestacker.config.SettingKey;
+import dev.rosewood.rosestacker.manager.StackManager;
+import dev.rosewood.rosestacker.utils.ItemAggregator;
+import dev.rosewood.rosestacker.utils.StackerUtils;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Gathers the loot of stacked entity deaths in the same chunk for a few ticks and drops it all at once.
+ * Grinders that kill many stacks in the same area every tick then drop each distinct item once instead of once per death,
+ * which saves spawning item entities that would only have to be stacked together again afterwards.
+ * Only used from the main thread.
+ */
+public class DropCoalescer {
+
+    private final RosePlugin rosePlugin;
+    private final StackManager stackManager;
+    private final Map<ChunkKey, PendingDrops> pendingDrops;
+
+    public DropCoalescer(RosePlugin rosePlugin, StackManager stackManager) {
+        this.rosePlugin = rosePlugin;
+        this.stackManager = stackManager;
+        this.pendingDrops = new HashMap<>();
+    }
+
+    /**
+     * Drops the loot of a stacked entity death, or holds onto it to drop together with other deaths in the same chunk
+     *
+     * @param items The items to drop
+     * @param experience The experience to drop
+     * @param location The location the entity died at
+     */
+    public void drop(Collection<ItemStack> items, int experience, Location location) {
+        World world = location.getWorld();
+        int ticks = SettingKey.ENTITY_DROP_COALESCE_TICKS.get();
+        if (ticks <= 0 || world == null) {
+            this.stackManager.preStackItems(items, location, false);
+            this.dropExperience(experience, location);
+            return;
+        }
+
+        ChunkKey key = new ChunkKey(world.getUID(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        PendingDrops pending = this.pendingDrops.get(key);
+        if (pending == null) {
+            // Everything is dropped at the first death so the loot doesn't end up somewhere no entity died
+            pending = new PendingDrops(location.clone());
+            this.pendingDrops.put(key, pending);
+            Bukkit.getScheduler().runTaskLater(this.rosePlugin, () -> this.flush(key), ticks);
+        }
+
+        pending.items.addAll(items);
+        pending.experience = (int) Math.min((long) pending.experience + experience, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Drops all loot that is being held for a chunk right away, needs to be called before the chunk unloads
+     *
+     * @param chunk The chunk to drop the loot of
+     */
+    public void flush(Chunk chunk) {
+        this.flush(new ChunkKey(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ()));
+    }
+
+    /**
+     * Drops all loot that is still being held for a world, needs to be called before the world unloads.
+     * Loot is flushed as its chunk unloads, so this only drops anything left in chunks that are still loaded,
+     * loot held for chunks that already unloaded can't be dropped anymore and is logged instead.
+     *
+     * @param world The world to drop the loot of
+     */
+    public void flush(World world) {
+        List<PendingDrops> flushed = new ArrayList<>();
+        int lost = 0;
+        Iterator<Map.Entry<ChunkKey, PendingDrops>> iterator = this.pendingDrops.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ChunkKey, PendingDrops> entry = iterator.next();
+            ChunkKey key = entry.getKey();
+            if (!key.world().equals(world.getUID()))
+                continue;
+
+            iterator.remove();
+            if (world.isChunkLoaded(key.x(), key.z())) {
+                flushed.add(entry.getValue());
+            } else {
+                lost++;
+            }
+        }
+
+        flushed.forEach(this::drop);
+        if (lost > 0)
+            this.rosePlugin.getLogger().warning("Discarded the held loot of " + lost + " chunks in world " + world.getName() + " because they unloaded before it could be dropped.");
+    }
+
+    /**
+     * Drops all loot that is being held right away
+     */
+    public void flushAll() {
+        List<PendingDrops> flushed = new ArrayList<>(this.pendingDrops.values());
+        this.pendingDrops.clear();
+        flushed.forEach(this::drop);
+    }
+
+    private void flush(ChunkKey key) {
+        PendingDrops pending = this.pendingDrops.remove(key);
+        if (pending != null)
+            this.drop(pending);
+    }
+
+    private void drop(PendingDrops pending) {
+        // The items have already been added up, so each distinct item drops as a single stacked item
+        if (!pending.items.isEmpty())
+            this.stackManager.preStackItems(pending.items, pending.location, false);
+        this.dropExperience(pending.experience, pending.location);
+    }
+
+    private void dropExperience(int experience, Location location) {
+        if (SettingKey.ENTITY_DROP_ACCURATE_EXP.get() && experience > 0)
+            StackerUtils.dropExperience(location, experience, experience, experience / 2);
+    }
+
+    private record ChunkKey(UUID world, int x, int z) { }
+
+    private static class PendingDrops {
+
+        private final Location location;
+        private final ItemAggregator items;
+        private int experience;
+
+        public PendingDrops(Location location) {
+            this.location = location;
+            this.items = new ItemAggregator();
+        }
+
+    }
+
+}
@@ -0,0 +1,112 @@
+package dev.rosewood.rosestacker.stack;
+
+import dev.rosewood.rosestacker.event.EntityStackMultipleDeathEvent.EntityDrops;
+import dev.rosewood.rosestacker.utils.StackerUtils;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Learns how much of each item is dropped per kill by one kind of entity, and draws the total drops of any number of kills from it.
+ * Each amount of an item seen in a single kill is one outcome of a multinomial distribution over the kills, which is drawn
+ * with a binomial draw per outcome. This keeps the natural variance of the drops while only taking time based on the
+ * number of distinct items and amounts, no matter how many kills are drawn.
+ * Items are learned by material only. Items with meta, such as randomly enchanted or damaged gear, are different on almost
+ * every kill, so they are left out and only dropped by the kills whose loot tables were actually run.
+ */
+public class LootDistribution {
+
+    private final Map<Material, Map<Integer, Long>> itemOutcomes;
+    private final Map<Integer, Long> experienceOutcomes;
+    private long kills;
+
+    public LootDistribution() {
+        this.itemOutcomes = new EnumMap<>(Material.class);
+        this.experienceOutcomes = new HashMap<>();
+    }
+
+    /**
+     * Records the drops of a single kill
+     *
+     * @param drops The drops of the kill, may be split over multiple entries such as for slimes, items with meta are skipped
+     */
+    public synchronized void record(Collection<EntityDrops> drops) {
+        Map<Material, Integer> amounts = new EnumMap<>(Material.class);
+        int experience = 0;
+        for (EntityDrops entityDrops : drops) {
+            for (ItemStack itemStack : entityDrops.getDrops()) {
+                if (itemStack == null || itemStack.getType().isAir() || itemStack.getAmount() <= 0 || itemStack.hasItemMeta())
+                    continue;
+
+                amounts.merge(itemStack.getType(), itemStack.getAmount(), Integer::sum);
+            }
+            experience += entityDrops.getExperience();
+        }
+
+        amounts.forEach((material, amount) -> this.itemOutcomes.computeIfAbsent(material, x -> new HashMap<>()).merge(amount, 1L, Long::sum));
+        if (experience > 0)
+            this.experienceOutcomes.merge(experience, 1L, Long::sum);
+        this.kills++;
+    }
+
+    /**
+     * @return the number of kills that have been recorded
+     */
+    public synchronized long getKills() {
+        return this.kills;
+    }
+
+    /**
+     * Draws the total drops of a number of kills from the recorded kills
+     *
+     * @param kills The number of kills to draw the drops of
+     * @param random The random to draw the drops with
+     * @return the drawn drops, with one item stack per distinct item that may be above the max stack size
+     */
+    public synchronized EntityDrops draw(int kills, Random random) {
+        List<ItemStack> items = new ArrayList<>();
+        if (kills <= 0 || this.kills == 0)
+            return new EntityDrops(items, 0);
+
+        this.itemOutcomes.forEach((material, outcomes) -> {
+            long amount = this.drawTotal(outcomes, kills, random);
+            if (amount > 0)
+                items.add(new ItemStack(material, (int) Math.min(amount, Integer.MAX_VALUE)));
+        });
+
+        int experience = (int) Math.min(this.drawTotal(this.experienceOutcomes, kills, random), Integer.MAX_VALUE);
+        return new EntityDrops(items, experience);
+    }
+
+    /**
+     * Draws how many of the kills land on each outcome, one outcome at a time out of the kills that are left.
+     * Kills that didn't drop anything are the remaining outcome, they are never drawn since they don't add to the total.
+     *
+     * @param outcomes The number of recorded kills for each amount
+     * @param kills The number of kills to draw
+     * @param random The random to draw with
+     * @return the total amount dropped by the kills
+     */
+    private long drawTotal(Map<Integer, Long> outcomes, int kills, Random random) {
+        long total = 0;
+        int remainingKills = kills;
+        long remainingWeight = this.kills;
+        for (Map.Entry<Integer, Long> outcome : outcomes.entrySet()) {
+            if (remainingKills <= 0)
+                break;
+
+            int drawn = StackerUtils.countPassedChances(outcome.getValue() / (double) remainingWeight, remainingKills, random);
+            total += (long) outcome.getKey() * drawn;
+            remainingKills -= drawn;
+            remainingWeight -= outcome.getValue();
+        }
+        return total;
+    }
+
+}
@@ -4,12 +4,16 @@ import dev.rosewood.rosestacker.stack.settings.StackSettings;
 import dev.rosewood.rosestacker.utils.StackerUtils;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 
 public abstract class Stack<T extends StackSettings> {
 
+    private final AtomicInteger modificationCount = new AtomicInteger();
+    private volatile int savedModificationCount = -1;
+
     public abstract int getStackSize();
 
     public abstract Location getLocation();
@@ -30,6 +34,36 @@ public abstract class Stack<T extends StackSettings> {
         return world;
     }
 
+    /**
+     * Marks this Stack as changed so its data will be written on the next save
+     */
+    public void markModified() {
+        this.modificationCount.incrementAndGet();
+    }
+
+    /**
+     * @return a counter that goes up every time this Stack is changed
+     */
+    public int getModificationCount() {
+        return this.modificationCount.get();
+    }
+
+    /**
+     * Records that the data of this Stack has been saved
+     *
+     * @param modificationCount The modification count this Stack had when its data was captured for saving
+     */
+    public void markSaved(int modificationCount) {
+        this.savedModificationCount = modificationCount;
+    }
+
+    /**
+     * @return true if this Stack has been changed since its data was last saved, false otherwise
+     */
+    public boolean isModifiedSinceSave() {
+        return this.modificationCount.get() != this.savedModificationCount;
+    }
+
     protected Set<Player> getPlayersInVisibleRange() {
         Set<Player> players = new HashSet<>();
 
@@ -2,6 +2,7 @@ package dev.rosewood.rosestacker.stack;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.bukkit.block.Block;
 
 /**
@@ -11,31 +12,75 @@ public class StackChunkData {
 
     private final Map<Block, StackedSpawner> stackedSpawners;
     private final Map<Block, StackedBlock> stackedBlocks;
+    private final AtomicInteger modificationCount;
+    private volatile int savedModificationCount;
 
     public StackChunkData() {
         this.stackedSpawners = new ConcurrentHashMap<>();
         this.stackedBlocks = new ConcurrentHashMap<>();
+        this.modificationCount = new AtomicInteger();
+        this.savedModificationCount = -1;
     }
 
     public StackChunkData(Map<Block, StackedSpawner> stackedSpawners, Map<Block, StackedBlock> stackedBlocks) {
         this.stackedSpawners = stackedSpawners;
         this.stackedBlocks = stackedBlocks;
+        this.modificationCount = new AtomicInteger();
+        this.savedModificationCount = -1;
     }
 
     public void addSpawner(StackedSpawner stackedSpawner) {
         this.stackedSpawners.put(stackedSpawner.getBlock(), stackedSpawner);
+        this.modificationCount.incrementAndGet();
     }
 
     public void addBlock(StackedBlock stackedBlock) {
         this.stackedBlocks.put(stackedBlock.getBlock(), stackedBlock);
+        this.modificationCount.incrementAndGet();
     }
 
     public void removeSpawner(StackedSpawner stackedSpawner) {
         this.stackedSpawners.remove(stackedSpawner.getBlock());
+        this.modificationCount.incrementAndGet();
     }
 
     public void removeBlock(StackedBlock stackedBlock) {
         this.stackedBlocks.remove(stackedBlock.getBlock());
+        this.modificationCount.incrementAndGet();
+    }
+
+    /**
+     * @return a counter that goes up every time a StackedSpawner or StackedBlock is added or removed
+     */
+    public int getModificationCount() {
+        return this.modificationCount.get();
+    }
+
+    /**
+     * Records that the data of this chunk has been saved
+     *
+     * @param modificationCount The modification count this chunk had when its data was captured for saving
+     */
+    public void markSaved(int modificationCount) {
+        this.savedModificationCount = modificationCount;
+    }
+
+    /**
+     * @return true if this chunk or any of its stacks have changed since the chunk was last saved, false otherwise
+     */
+    public boolean isModifiedSinceSave() {
+        if (this.modificationCount.get() != this.savedModificationCount)
+            return true;
+
+        for (StackedSpawner stackedSpawner : this.stackedSpawners.values())
+            if (stackedSpawner.isModifiedSinceSave())
+                return true;
+
+        for (StackedBlock stackedBlock : this.stackedBlocks.values())
+            if (stackedBlock.isModifiedSinceSave())
+                return true;
+
+        return false;
     }
 
     public StackedSpawner getSpawner(Block block) {
@@ -54,12 +54,14 @@ public class StackedBlock extends Stack<BlockStackSettings> {
 
     public void increaseStackSize(int amount) {
         this.size += amount;
+        this.markModified();
 
         this.updateDisplay();
     }
 
     public void setStackSize(int size) {
         this.size = size;
+        this.markModified();
 
         this.updateDisplay();
     }
@@ -14,6 +14,7 @@ import dev.rosewood.rosestacker.manager.EntityCacheManager;
 import dev.rosewood.rosestacker.manager.LocaleManager;
 import dev.rosewood.rosestacker.manager.StackManager;
 import dev.rosewood.rosestacker.manager.StackSettingManager;
+import dev.rosewood.rosestacker.manager.WorkerPoolManager;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.nms.NMSHandler;
 import dev.rosewood.rosestacker.nms.storage.EntityDataEntry;
@@ -21,14 +22,22 @@ import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorage;
 import dev.rosewood.rosestacker.stack.settings.EntityStackSettings;
 import dev.rosewood.rosestacker.utils.DataUtils;
 import dev.rosewood.rosestacker.utils.EntityUtils;
-import dev.rosewood.rosestacker.utils.ItemUtils;
+import dev.rosewood.rosestacker.utils.ItemAggregator;
 import dev.rosewood.rosestacker.utils.PersistentDataUtils;
 import dev.rosewood.rosestacker.utils.StackerUtils;
 import dev.rosewood.rosestacker.utils.ThreadUtils;
+import dev.rosewood.rosestacker.utils.WorkerPool;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
+import java.util.logging.Level;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -49,6 +58,7 @@ import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.entity.EntityDeathEvent;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.material.Colorable;
 import org.bukkit.util.Vector;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
@@ -57,6 +67,8 @@ import org.jetbrains.annotations.Nullable;
 
 public class StackedEntity extends Stack<EntityStackSettings> implements Comparable<StackedEntity> {
 
+    private static final int PARALLEL_LOOT_CHUNK_SIZE = 64;
+
     private LivingEntity entity;
     private StackedEntityDataStorage stackedEntityDataStorage;
     private int npcCheckCounter;
@@ -66,6 +78,12 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
 
     private EntityStackSettings stackSettings;
 
+    private volatile int compatibilityFingerprint;
+    private volatile long compatibilityFingerprintExpiry;
+
+    private volatile boolean dirty;
+    private double lastCheckedX, lastCheckedY, lastCheckedZ;
+
     public StackedEntity(LivingEntity entity, StackedEntityDataStorage stackedEntityDataStorage) {
         this.entity = entity;
         this.stackedEntityDataStorage = stackedEntityDataStorage;
@@ -74,6 +92,9 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         this.displayName = null;
         this.displayNameVisible = false;
 
+        // New stacks need to be checked for stacking at least once
+        this.dirty = true;
+
         if (this.entity != null) {
             this.stackSettings = RoseStacker.getInstance().getManager(StackSettingManager.class).getEntityStackSettings(this.entity);
             this.updateDisplay();
@@ -81,7 +102,7 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
     }
 
     public StackedEntity(LivingEntity entity) {
-        this(entity, NMSAdapter.getHandler().createEntityDataStorage(entity, RoseStacker.getInstance().getManager(StackManager.class).getEntityDataStorageType(entity.getType())));
+        this(entity, RoseStacker.getInstance().getManager(StackManager.class).createEntityDataStorage(entity));
     }
 
     // We are going to check if this entity is an NPC multiple times, since MythicMobs annoyingly doesn't
@@ -107,9 +128,70 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
 
         this.entity = entity;
         this.stackedEntityDataStorage.updateEntity(entity);
+        this.invalidateCompatibilityFingerprint();
         this.updateDisplay();
     }
 
+    /**
+     * Gets a fingerprint of the state of the main entity that is relevant for stacking.
+     * Two stacks with different fingerprints can never stack together, stacks with the same fingerprint still need to be
+     * checked with {@link EntityStackSettings#canStackWith}.
+     *
+     * @return the compatibility fingerprint of this stack
+     */
+    public int getCompatibilityFingerprint() {
+        long time = System.currentTimeMillis();
+        if (time >= this.compatibilityFingerprintExpiry) {
+            this.compatibilityFingerprint = this.stackSettings.calculateCompatibilityFingerprint(this.entity);
+            this.compatibilityFingerprintExpiry = time + SettingKey.ENTITY_FINGERPRINT_CACHE_DURATION.get() * 50;
+        }
+        return this.compatibilityFingerprint;
+    }
+
+    /**
+     * Forces the compatibility fingerprint to be recalculated the next time it is needed, should be called when the
+     * main entity has been modified
+     */
+    public void invalidateCompatibilityFingerprint() {
+        this.compatibilityFingerprintExpiry = 0;
+        this.markDirty();
+    }
+
+    /**
+     * Marks this stack as changed so it will be checked for stacking on the next entity stack pass
+     */
+    public void markDirty() {
+        this.dirty = true;
+    }
+
+    /**
+     * Checks if this stack has been marked as changed or has moved since it was last checked for stacking
+     *
+     * @param moveDistanceSqrd the squared distance the entity must have moved to be considered changed
+     * @return true if this stack should be checked for stacking, false otherwise
+     */
+    public boolean isDirty(double moveDistanceSqrd) {
+        if (this.dirty)
+            return true;
+
+        Location location = this.entity.getLocation();
+        double dx = location.getX() - this.lastCheckedX;
+        double dy = location.getY() - this.lastCheckedY;
+        double dz = location.getZ() - this.lastCheckedZ;
+        return dx * dx + dy * dy + dz * dz >= moveDistanceSqrd;
+    }
+
+    /**
+     * Marks this stack as unchanged at its current location, should be called when it is checked for stacking
+     */
+    public void clearDirty() {
+        Location location = this.entity.getLocation();
+        this.lastCheckedX = location.getX();
+        this.lastCheckedY = location.getY();
+        this.lastCheckedZ = location.getZ();
+        this.dirty = false;
+    }
+
     public void increaseStackSize(LivingEntity entity) {
         this.increaseStackSize(entity, true);
     }
@@ -117,6 +199,7 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
     public void increaseStackSize(LivingEntity entity, boolean updateDisplay) {
         Runnable task = () -> {
             this.stackedEntityDataStorage.add(entity);
+            this.markModified();
             if (updateDisplay)
                 this.updateDisplay();
         };
@@ -125,7 +208,7 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         // Since we usually do this async and the event isn't allowed to be async, Spigot throws a fit.
         // We switch over to a non-async thread specifically for ender dragons because of this.
         if (!Bukkit.isPrimaryThread() && entity instanceof EnderDragon) {
-            ThreadUtils.runSync(task);
+            RoseStacker.getInstance().getManager(StackManager.class).getSyncMutationQueue().runSync(task);
         } else {
             task.run();
         }
@@ -138,14 +221,21 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
      */
     public void increaseStackSize(int amount, boolean updateDisplay) {
         this.stackedEntityDataStorage.addClones(amount);
+        this.markModified();
 
         if (updateDisplay)
             this.updateDisplay();
     }
 
     public void increaseStackSize(StackedEntityDataStorage serializedStackedEntities) {
+        this.increaseStackSize(serializedStackedEntities, true);
+    }
+
+    public void increaseStackSize(StackedEntityDataStorage serializedStackedEntities, boolean updateDisplay) {
         this.stackedEntityDataStorage.addAll(serializedStackedEntities);
-        this.updateDisplay();
+        this.markModified();
+        if (updateDisplay)
+            this.updateDisplay();
     }
 
     /**
@@ -178,11 +268,12 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         }
 
         this.stackedEntityDataStorage.updateEntity(this.entity);
+        this.markModified();
         this.updateDisplay();
         PersistentDataUtils.applyDisabledAi(this.entity);
 
         DataUtils.clearStackedEntityData(oldEntity);
-        return new StackedEntity(oldEntity, NMSAdapter.getHandler().createEntityDataStorage(oldEntity, RoseStacker.getInstance().getManager(StackManager.class).getEntityDataStorageType(oldEntity.getType())));
+        return new StackedEntity(oldEntity, RoseStacker.getInstance().getManager(StackManager.class).createEntityDataStorage(oldEntity));
     }
 
     /**
@@ -220,6 +311,7 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
     public void setDataStorage(StackedEntityDataStorage stackedEntityDataStorage) {
         stackedEntityDataStorage.updateEntity(this.entity);
         this.stackedEntityDataStorage = stackedEntityDataStorage;
+        this.markModified();
         this.updateDisplay();
     }
 
@@ -279,12 +371,7 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         Runnable mainTask = () -> {
             EntityDrops drops = calculator.get();
 
-            Runnable finishTask = () -> {
-                RoseStacker.getInstance().getManager(StackManager.class).preStackItems(drops.getDrops(), this.entity.getLocation(), false);
-                int finalDroppedExp = drops.getExperience();
-                if (SettingKey.ENTITY_DROP_ACCURATE_EXP.get() && finalDroppedExp > 0)
-                    StackerUtils.dropExperience(this.entity.getLocation(), finalDroppedExp, finalDroppedExp, finalDroppedExp / 2);
-            };
+            Runnable finishTask = () -> RoseStacker.getInstance().getManager(StackManager.class).getDropCoalescer().drop(drops.getDrops(), drops.getExperience(), this.entity.getLocation());
 
             if (!Bukkit.isPrimaryThread()) {
                 ThreadUtils.runSync(finishTask);
@@ -294,7 +381,7 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         };
 
         if (async && Bukkit.isPrimaryThread()) {
-            ThreadUtils.runAsync(mainTask);
+            ThreadUtils.runAsync(WorkerPool.LOOT, mainTask);
         } else if (!async && !Bukkit.isPrimaryThread()) {
             ThreadUtils.runSync(mainTask);
         } else {
@@ -347,6 +434,29 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
     public EntityDrops calculateEntityDrops(Collection<LivingEntity> internalEntities, int count, boolean includeMainEntity,
                                             int entityExpValue, Integer lootingModifier, LivingEntity mainEntity, EntityDrops mainEntityDrops,
                                             Integer originalStackSize, Integer entityKillCount) {
+        return this.calculateEntityDrops(internalEntities, count, includeMainEntity, entityExpValue, lootingModifier, mainEntity, mainEntityDrops, originalStackSize, entityKillCount, null);
+    }
+
+    /**
+     * Calculates the entity drops. May be called async or sync.
+     *
+     * @param internalEntities The entities to calculate drops for
+     * @param count The number of entities to drop items for
+     * @param includeMainEntity Whether to include the main entity in the calculation
+     * @param entityExpValue The exp value of the entity
+     * @param lootingModifier The looting modifier, nullable, defaults to the killer's looting value
+     * @param mainEntity The main entity to use for loot calculations, primarily used to copy entity properties such as the killer, nullable, defaults to the stack entity
+     * @param mainEntityDrops The main entity drops to include in the loot calculations, nullable
+     * @param originalStackSize The stack size before the entities were killed, passed on to the {@link EntityStackMultipleDeathEvent}
+     * @param entityKillCount The number of entities being killed, passed on to the {@link EntityStackMultipleDeathEvent}
+     * @param seed The seed to roll the loot with, nullable for a random seed. The same seed rolls the same loot for the same entities,
+     *             as long as the loot distribution of the entity hasn't learned anything new in between
+     * @return The calculated entity drops
+     */
+    @ApiStatus.Internal
+    public EntityDrops calculateEntityDrops(Collection<LivingEntity> internalEntities, int count, boolean includeMainEntity,
+                                            int entityExpValue, Integer lootingModifier, LivingEntity mainEntity, EntityDrops mainEntityDrops,
+                                            Integer originalStackSize, Integer entityKillCount, Long seed) {
         // Cache the current entity just in case it somehow changes while we are processing the loot
         if (mainEntity == null)
             mainEntity = this.entity;
@@ -362,13 +472,18 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
             internalEntities.add(mainEntity);
 
         double multiplier = 1;
+        boolean useDistribution = false;
         if (useCount) {
             int threshold = SettingKey.ENTITY_LOOT_APPROXIMATION_THRESHOLD.get();
             int approximationAmount = SettingKey.ENTITY_LOOT_APPROXIMATION_AMOUNT.get();
             if (SettingKey.ENTITY_LOOT_APPROXIMATION_ENABLED.get() && count > threshold) {
                 int offset = internalEntities.size() + (mainEntityDrops != null ? 1 : 0);
                 this.stackedEntityDataStorage.forEachCapped(approximationAmount - offset, internalEntities::add);
-                multiplier = count / (double) approximationAmount;
+                if (SettingKey.ENTITY_LOOT_APPROXIMATION_DISTRIBUTION.get()) {
+                    useDistribution = true;
+                } else {
+                    multiplier = count / (double) approximationAmount;
+                }
             } else {
                 this.stackedEntityDataStorage.forEachCapped(count, internalEntities::add);
             }
@@ -392,14 +507,29 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         if (mainEntityDrops != null)
             entityDrops.put(mainEntity, mainEntityDrops);
 
+        // The drops of each kill, kept separately since the same entity can be run more than once for some storage types
+        List<List<EntityDrops>> killDrops = new ArrayList<>(useDistribution ? internalEntities.size() : 0);
+
+        // Prepare the entities for their loot tables, done first since the same entity can be in the list more than once
         NMSHandler nmsHandler = NMSAdapter.getHandler();
-        for (LivingEntity entity : internalEntities) {
+        Player killer = mainEntity.getKiller();
+        Location lootedLocation = mainEntity.getLocation();
+        boolean seeded = seed != null;
+        if (!seeded)
+            seed = ThreadLocalRandom.current().nextLong();
+        Random random = new Random(seed);
+        List<LivingEntity> entities = new ArrayList<>(internalEntities);
+        int[] iterations = new int[entities.size()];
+        boolean[] babies = new boolean[entities.size()];
+        for (int i = 0; i < entities.size(); i++) {
+            LivingEntity entity = entities.get(i);
+
             // Propagate fire ticks and last damage cause
             entity.setFireTicks(mainEntity.getFireTicks());
             entity.setLastDamageCause(mainEntity.getLastDamageCause());
-            nmsHandler.setLastHurtBy(entity, mainEntity.getKiller());
+            nmsHandler.setLastHurtBy(entity, killer);
 
-            int iterations = 1;
+            iterations[i] = 1;
             if (isSlime) {
                 Slime slime = (Slime) entity;
                 if (isAccurateSlime) {
@@ -408,27 +538,29 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
                     while (size > 1) {
                         size /= 2;
                         int currentSlimes = totalSlimes;
-                        totalSlimes = StackerUtils.randomInRange(currentSlimes * 2, currentSlimes * 4);
+                        totalSlimes = StackerUtils.randomInRange(random, currentSlimes * 2, currentSlimes * 4);
                     }
-                    iterations = totalSlimes;
+                    iterations[i] = totalSlimes;
                 }
                 slime.setSize(slime.getType() == EntityType.SLIME ? 1 : 2); // Slimes require size 1 to drop items, magma cubes require > size 1
             }
 
-            boolean isBaby = isAnimal && !((Animals) entity).isAdult();
-            int desiredExp = isBaby ? 0 : entityExpValue;
-            for (int i = 0; i < iterations; i++) {
-                List<ItemStack> entityItems;
-                if (isBaby) {
-                    entityItems = new ArrayList<>();
-                } else {
-                    if (lootingModifier != null) {
-                        entityItems = new ArrayList<>(EntityUtils.getEntityLoot(entity, mainEntity.getKiller(), mainEntity.getLocation(), lootingModifier));
-                    } else {
-                        entityItems = new ArrayList<>(EntityUtils.getEntityLoot(entity, mainEntity.getKiller(), mainEntity.getLocation()));
-                    }
-                }
+            babies[i] = isAnimal && !((Animals) entity).isAdult();
+        }
+
+        // Read here since the loot is rolled on other threads, which must not touch the killer's inventory
+        int lootingLevel = lootingModifier != null ? lootingModifier : EntityUtils.getLootingLevel(killer);
 
+        // Loot learned by the distribution has to come straight from the loot tables, pooled loot would skew the drop rates.
+        // Pooled loot also depends on earlier kills, so it can't be used when the loot has to follow the seed
+        List<List<List<ItemStack>>> rolledLoot = this.rollEntityLoot(entities, iterations, babies, killer, lootedLocation, lootingLevel, seed, !useDistribution && !seeded);
+
+        // Events are called one entity at a time in the original order, the same as if the loot had been rolled here
+        for (int i = 0; i < entities.size(); i++) {
+            LivingEntity entity = entities.get(i);
+            int desiredExp = babies[i] ? 0 : entityExpValue;
+            List<EntityDrops> iterationDrops = new ArrayList<>(iterations[i]);
+            for (List<ItemStack> entityItems : rolledLoot.get(i)) {
                 if (isWither)
                     entityItems.add(new ItemStack(Material.NETHER_STAR));
                 if (killedByWither)
@@ -443,9 +575,14 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
                     entityExperience = desiredExp;
                 }
 
-                entityDrops.put(entity, new EntityDrops(entityItems, entityExperience));
+                EntityDrops drops = new EntityDrops(entityItems, entityExperience);
+                entityDrops.put(entity, drops);
+                iterationDrops.add(drops);
             }
 
+            if (useDistribution)
+                killDrops.add(iterationDrops);
+
             // Prevent magma cubes from splitting
             if (isSlime && entity.getType() == EntityType.MAGMA_CUBE)
                 ((MagmaCube) entity).setSize(1);
@@ -457,22 +594,129 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
             Bukkit.getPluginManager().callEvent(event);
         }
 
+        // Loot that will be multiplied is added up as it is collected instead of being listed first
+        ItemAggregator multipliedItems = multiplier > 1 ? new ItemAggregator() : null;
         List<ItemStack> finalItems = new ArrayList<>();
         int finalExp = 0;
         for (EntityDrops drops : entityDrops.values()) {
-            finalItems.addAll(drops.getDrops());
+            if (multipliedItems != null) {
+                multipliedItems.addAll(drops.getDrops());
+            } else {
+                finalItems.addAll(drops.getDrops());
+            }
             finalExp += drops.getExperience();
         }
 
+        // Learn from the entities that were just run, then draw the rest of the kills from everything learned so far
+        if (useDistribution) {
+            String variant = this.getLootVariant(mainEntity, killedByWither);
+            LootDistribution lootDistribution = this.stackSettings.getLootDistribution(lootingLevel, variant);
+            killDrops.forEach(lootDistribution::record);
+
+            int sampledKills = internalEntities.size() + (mainEntityDrops != null ? 1 : 0);
+            EntityDrops drawnDrops = lootDistribution.draw(count - sampledKills, random);
+            finalItems.addAll(drawnDrops.getDrops());
+            finalExp = (int) Math.min((long) finalExp + drawnDrops.getExperience(), Integer.MAX_VALUE);
+        }
+
         // Multiply loot
-        if (multiplier > 1) {
-            finalItems = ItemUtils.getMultipliedItemStacks(finalItems, multiplier, true);
+        if (multipliedItems != null) {
+            finalItems = multipliedItems.toItemStacks(multiplier, true);
             finalExp = (int) Math.min(Math.round(finalExp * multiplier), Integer.MAX_VALUE);
         }
 
         return new EntityDrops(finalItems, finalExp);
     }
 
+    /**
+     * Runs the loot tables of the entities.
+     * Large lists are split into chunks that are rolled on the region pool, each chunk with its own random seeded from the given seed.
+     * Chunks never draw from the shared loot pools, whose contents depend on every other kill, so the loot of a large list
+     * only depends on the seed and not on how many threads there are or which ones rolled it.
+     *
+     * @param entities The entities to run the loot tables of
+     * @param iterations The number of times to run the loot table of each entity
+     * @param babies Which of the entities are babies and drop nothing
+     * @param killer The player who killed the entities, nullable
+     * @param lootedLocation The location the entities are being looted at
+     * @param lootingLevel The looting level to roll the loot with
+     * @param seed The seed to roll the loot with
+     * @param pooled true to allow drawing the loot from the loot pools if the list isn't split into chunks, false to always run the loot tables
+     * @return the loot of each iteration of each entity, in the same order as the entities
+     */
+    private List<List<List<ItemStack>>> rollEntityLoot(List<LivingEntity> entities, int[] iterations, boolean[] babies, Player killer,
+                                                       Location lootedLocation, int lootingLevel, long seed, boolean pooled) {
+        int chunks = (entities.size() + PARALLEL_LOOT_CHUNK_SIZE - 1) / PARALLEL_LOOT_CHUNK_SIZE;
+        boolean usePools = pooled && chunks == 1;
+        List<Callable<List<List<List<ItemStack>>>>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int from = i * PARALLEL_LOOT_CHUNK_SIZE;
+            int to = Math.min(from + PARALLEL_LOOT_CHUNK_SIZE, entities.size());
+            long chunkSeed = seed + (i + 1) * 0x9E3779B97F4A7C15L;
+            tasks.add(() -> {
+                // Created when the chunk is rolled so rolling it again after a failure gives the same loot
+                Random random = new Random(chunkSeed);
+                List<List<List<ItemStack>>> chunkLoot = new ArrayList<>(to - from);
+                for (int j = from; j < to; j++) {
+                    List<List<ItemStack>> entityLoot = new ArrayList<>(iterations[j]);
+                    for (int k = 0; k < iterations[j]; k++) {
+                        if (babies[j]) {
+                            entityLoot.add(new ArrayList<>());
+                        } else if (usePools) {
+                            entityLoot.add(new ArrayList<>(EntityUtils.getEntityLoot(entities.get(j), killer, lootedLocation, lootingLevel, random)));
+                        } else {
+                            entityLoot.add(new ArrayList<>(EntityUtils.rollEntityLoot(entities.get(j), killer, lootedLocation, lootingLevel, random)));
+                        }
+                    }
+                    chunkLoot.add(entityLoot);
+                }
+                return chunkLoot;
+            });
+        }
+
+        List<List<List<ItemStack>>> loot = new ArrayList<>(entities.size());
+        if (chunks > 1) {
+            try {
+                for (Future<List<List<List<ItemStack>>>> future : RoseStacker.getInstance().getManager(WorkerPoolManager.class).getRegionPool().invokeAll(tasks))
+                    loot.addAll(future.get());
+                return loot;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | RejectedExecutionException e) {
+                RoseStacker.getInstance().getLogger().log(Level.WARNING, "Failed to roll stack loot in parallel, rolling it on the current thread instead", e);
+            }
+
+            // Loot can't be lost, roll it on this thread instead
+            loot.clear();
+        }
+
+        try {
+            for (Callable<List<List<List<ItemStack>>>> task : tasks)
+                loot.addAll(task.call());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return loot;
+    }
+
+    /**
+     * Gets the variant of the loot for an entity, made up of everything that changes the loot of the whole stack at once
+     *
+     * @param mainEntity The entity the loot is being calculated for
+     * @param killedByWither true if the entity was killed by a wither
+     * @return the variant
+     */
+    private String getLootVariant(LivingEntity mainEntity, boolean killedByWither) {
+        StringBuilder variant = new StringBuilder(mainEntity.getKiller() != null ? "player" : "other");
+        if (mainEntity.getFireTicks() > 0)
+            variant.append(":fire");
+        if (killedByWither)
+            variant.append(":wither");
+        if (mainEntity instanceof Colorable colorable && colorable.getColor() != null)
+            variant.append(':').append(colorable.getColor().name());
+        return variant.toString();
+    }
+
     /**
      * @return true if this entity should stay stacked, otherwise false
      */
@@ -665,6 +909,7 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         }
 
         List<EntityDataEntry> killedEntities = this.stackedEntityDataStorage.pop(amount - 1);
+        this.markModified();
         int experience = event != null ? event.getDroppedExp() : EntityUtils.getApproximateExperience(this.entity);
         if (SettingKey.ENTITY_DROP_ACCURATE_ITEMS.get()) {
             if (event == null) {
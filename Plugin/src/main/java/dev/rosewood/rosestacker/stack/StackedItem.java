@@ -8,6 +8,7 @@ import dev.rosewood.rosestacker.manager.LocaleManager;
 import dev.rosewood.rosestacker.manager.StackSettingManager;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.stack.settings.ItemStackSettings;
+import dev.rosewood.rosestacker.utils.ItemUtils;
 import dev.rosewood.rosestacker.utils.StackerUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -25,6 +26,8 @@ public class StackedItem extends Stack<ItemStackSettings> implements Comparable<
 
     private ItemStackSettings stackSettings;
 
+    private volatile SimilarityKey similarityKey;
+
     public StackedItem(int size, Item item) {
         this.size = size;
         this.item = item;
@@ -47,17 +50,44 @@ public class StackedItem extends Stack<ItemStackSettings> implements Comparable<
             return;
 
         this.item = item;
+        this.invalidateSimilarityKey();
         this.updateDisplay();
     }
 
+    /**
+     * Gets a hash of the material and meta of this stack's item, ignoring the amount, see {@link ItemUtils#getSimilarityHash(ItemStack)}.
+     * The hash is cached and recalculated if the item has been replaced with one of a different type or meta presence.
+     *
+     * @return the similarity key of this stack's item
+     */
+    public int getSimilarityKey() {
+        ItemStack itemStack = this.item.getItemStack();
+        SimilarityKey similarityKey = this.similarityKey;
+        if (similarityKey == null || similarityKey.type() != itemStack.getType() || similarityKey.hasItemMeta() != itemStack.hasItemMeta()) {
+            similarityKey = new SimilarityKey(itemStack.getType(), itemStack.hasItemMeta(), ItemUtils.getSimilarityHash(itemStack));
+            this.similarityKey = similarityKey;
+        }
+        return similarityKey.hash();
+    }
+
+    /**
+     * Forces the similarity key to be recalculated the next time it is needed, should be called when the meta of the
+     * item has been modified
+     */
+    public void invalidateSimilarityKey() {
+        this.similarityKey = null;
+    }
+
     public void increaseStackSize(int amount, boolean updateDisplay) {
         this.size += amount;
+        this.markModified();
         if (updateDisplay)
             this.updateDisplay();
     }
 
     public void setStackSize(int size) {
         this.size = size;
+        this.markModified();
         this.updateDisplay();
     }
 
@@ -161,4 +191,6 @@ public class StackedItem extends Stack<ItemStackSettings> implements Comparable<
         return this.getStackSize() > stack2.getStackSize() ? 1 : -1;
     }
 
+    private record SimilarityKey(Material type, boolean hasItemMeta, int hash) { }
+
 }
@@ -101,12 +101,14 @@ public class StackedSpawner extends Stack<SpawnerStackSettings> {
 
     public void increaseStackSize(int amount) {
         this.size += amount;
+        this.markModified();
         this.updateSpawnerProperties(false);
         this.updateDisplay();
     }
 
     public void setStackSize(int size) {
         this.size = size;
+        this.markModified();
         this.updateSpawnerProperties(false);
         this.updateDisplay();
     }
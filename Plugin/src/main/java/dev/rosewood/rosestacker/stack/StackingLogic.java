@@ -1,6 +1,7 @@
 package dev.rosewood.rosestacker.stack;
 
 import dev.rosewood.rosestacker.manager.StackManager;
+import dev.rosewood.rosestacker.utils.ItemAggregator;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -277,6 +278,15 @@ public interface StackingLogic {
      */
     void preStackItems(Collection<ItemStack> items, Location location, boolean dropNaturally);
 
+    /**
+     * Spawns StackedItems at the given location for items that have already been added up
+     *
+     * @param items the added up items to spawn
+     * @param location the location to spawn at
+     * @param dropNaturally true to drop naturally, false otherwise
+     */
+    void preStackItems(ItemAggregator items, Location location, boolean dropNaturally);
+
     /**
      * Drops a StackedItem at the given Location with a specified ItemStack and amount
      *
@@ -320,7 +330,8 @@ public interface StackingLogic {
     void saveChunkEntities(List<Entity> entities, boolean clearStored);
 
     /**
-     * Saves all stack data in loaded chunks
+     * Saves all stack data in loaded chunks.
+     * If the data is not being cleared, it is only captured right away and is encoded and written in the background.
      *
      * @param clearStored If the data should be cleared from cache
      */
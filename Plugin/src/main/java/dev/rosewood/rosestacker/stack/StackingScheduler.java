@@ -0,0 +1,45 @@
+package dev.rosewood.rosestacker.stack;
+
+import dev.rosewood.rosegarden.RosePlugin;
+import dev.rosewood.rosestacker.config.SettingKey;
+import dev.rosewood.rosestacker.manager.StackManager;
+import dev.rosewood.rosestacker.utils.ThreadUtils;
+import dev.rosewood.rosestacker.utils.WorkerPool;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Runs the recurring work of every {@link StackingThread} on the stacking worker pool.
+ * Each world is submitted separately so worlds are processed in parallel, and work within a world is processed
+ * in slices limited by a time budget per tick, any work left over is resumed on the next tick.
+ */
+public class StackingScheduler implements AutoCloseable {
+
+    private final StackManager stackManager;
+    private final BukkitTask task;
+    private final long budgetNanos;
+
+    private long currentTick;
+
+    public StackingScheduler(RosePlugin rosePlugin, StackManager stackManager) {
+        this.stackManager = stackManager;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(SettingKey.STACKING_TICK_BUDGET.get(), 1));
+        this.task = Bukkit.getScheduler().runTaskTimer(rosePlugin, this::tick, 1L, 1L);
+    }
+
+    private void tick() {
+        long currentTick = ++this.currentTick;
+
+        // The world is used as the key so a world that is still waiting for a thread isn't queued twice,
+        // a world that is still running from a previous tick skips the new run itself
+        for (StackingThread stackingThread : this.stackManager.getStackingThreads().values())
+            ThreadUtils.runAsync(WorkerPool.STACKING, stackingThread, () -> stackingThread.runJobs(currentTick, System.nanoTime() + this.budgetNanos));
+    }
+
+    @Override
+    public void close() {
+        this.task.cancel();
+    }
+
+}
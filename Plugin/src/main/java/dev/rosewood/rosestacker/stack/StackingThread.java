@@ -2,6 +2,9 @@ package dev.rosewood.rosestacker.stack;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.primitives.ImmutableLongArray;
 import dev.rosewood.rosegarden.RosePlugin;
 import dev.rosewood.rosegarden.compatibility.CompatibilityAdapter;
 import dev.rosewood.rosestacker.config.SettingKey;
@@ -17,6 +20,7 @@ import dev.rosewood.rosestacker.manager.EntityCacheManager;
 import dev.rosewood.rosestacker.manager.HologramManager;
 import dev.rosewood.rosestacker.manager.StackManager;
 import dev.rosewood.rosestacker.manager.StackSettingManager;
+import dev.rosewood.rosestacker.manager.WorkerPoolManager;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.nms.NMSHandler;
 import dev.rosewood.rosestacker.nms.storage.EntityDataEntry;
@@ -25,27 +29,44 @@ import dev.rosewood.rosestacker.stack.settings.EntityStackSettings;
 import dev.rosewood.rosestacker.stack.settings.ItemStackSettings;
 import dev.rosewood.rosestacker.utils.DataUtils;
 import dev.rosewood.rosestacker.utils.EntityUtils;
+import dev.rosewood.rosestacker.utils.ItemAggregator;
 import dev.rosewood.rosestacker.utils.ItemUtils;
 import dev.rosewood.rosestacker.utils.PersistentDataUtils;
 import dev.rosewood.rosestacker.utils.StackerUtils;
 import dev.rosewood.rosestacker.utils.ThreadUtils;
 import dev.rosewood.rosestacker.utils.VersionUtils;
+import dev.rosewood.rosestacker.utils.WorkerPool;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
@@ -70,21 +91,41 @@ public class StackingThread implements StackingLogic, AutoCloseable {
 
     private final static String NEW_METADATA = "RS_new";
 
+    private final static long JOB_START_DELAY = 5L;
+
+    // Below this many candidates splitting a batch stacking pass over regions costs more than it saves
+    private final static int PARALLEL_BATCH_MIN_CANDIDATES = 512;
+
+    // Autosaves encode this many stacks per task, and write them back in a single main thread task
+    private final static int SAVE_BATCH_SIZE = 256;
+
     private final static Cache<UUID, Boolean> REMOVED_ENTITIES = CacheBuilder.newBuilder().expireAfterWrite(5, TimeUnit.SECONDS).build();
 
+    // Reused between nearby entity lookups, stacking can happen on multiple threads so each thread gets its own
+    private final static ThreadLocal<List<Entity>> NEARBY_ENTITIES_BUFFER = ThreadLocal.withInitial(ArrayList::new);
+
     private final RosePlugin rosePlugin;
     private final StackManager stackManager;
     private final EntityCacheManager entityCacheManager;
     private final HologramManager hologramManager;
     private final World targetWorld;
 
-    private final BukkitTask entityStackTask, itemStackTask, nametagTask, hologramTask;
-    private BukkitTask entityUnstackTask, entityCleanupTask;
+    private final List<StackingJob<?>> jobs;
+    private final AtomicBoolean runningJobs;
+    private BukkitTask entityCleanupTask;
+    private int jobRotation;
+    private volatile boolean closed;
+    private boolean updateItemNametags, minSplitIfLower;
+    private long currentTick;
+    private long lastFullEntityStackPass = -1;
 
     private final Map<UUID, StackedEntity> stackedEntities;
     private final Map<UUID, StackedItem> stackedItems;
     private final Map<Chunk, StackChunkData> stackChunkData;
 
+    // The autosave that last captured each entity or chunk, results are dropped if a newer save has happened since
+    private final Map<Object, Object> pendingSaves;
+
     private final boolean dynamicEntityTags, dynamicItemTags;
     private final double entityDynamicViewRangeSqrd, itemDynamicViewRangeSqrd;
     private final boolean entityDynamicWallDetection, itemDynamicWallDetection;
@@ -96,14 +137,17 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         this.hologramManager = this.rosePlugin.getManager(HologramManager.class);
         this.targetWorld = targetWorld;
 
-        this.entityStackTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.rosePlugin, this::stackEntities, 5L, SettingKey.STACK_FREQUENCY.get());
-        this.itemStackTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.rosePlugin, this::stackItems, 5L, SettingKey.ITEM_STACK_FREQUENCY.get());
-        this.nametagTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.rosePlugin, this::processNametags, 5L, SettingKey.NAMETAG_UPDATE_FREQUENCY.get());
-        this.hologramTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.rosePlugin, this::updateHolograms, 5L, SettingKey.HOLOGRAM_UPDATE_FREQUENCY.get());
+        // These are run in time-budgeted slices by the StackingScheduler
+        this.jobs = new ArrayList<>();
+        this.runningJobs = new AtomicBoolean();
+        this.jobs.add(new StackingJob<>(SettingKey.STACK_FREQUENCY.get(), this::startEntityStackPass, Runnable::run));
+        this.jobs.add(new StackingJob<>(SettingKey.ITEM_STACK_FREQUENCY.get(), this::startItemStackPass, this::processItemStack));
+        this.jobs.add(new StackingJob<>(SettingKey.NAMETAG_UPDATE_FREQUENCY.get(), this::startNametagPass, Runnable::run));
+        this.jobs.add(new StackingJob<>(SettingKey.HOLOGRAM_UPDATE_FREQUENCY.get(), this::startHologramPass, StackedSpawner::updateDisplay));
 
         long unstackFrequency = SettingKey.UNSTACK_FREQUENCY.get();
         if (unstackFrequency > 0)
-            this.entityUnstackTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.rosePlugin, this::unstackEntities, 5L, unstackFrequency);
+            this.jobs.add(new StackingJob<>(unstackFrequency, this::startEntityUnstackPass, this::processEntityUnstack));
 
         long cleanupFrequency = SettingKey.ENTITY_RESCAN_FREQUENCY.get();
         if (cleanupFrequency > 0)
@@ -112,6 +156,7 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         this.stackedEntities = new ConcurrentHashMap<>();
         this.stackedItems = new ConcurrentHashMap<>();
         this.stackChunkData = new ConcurrentHashMap<>();
+        this.pendingSaves = new ConcurrentHashMap<>();
 
         this.dynamicEntityTags = SettingKey.ENTITY_DISPLAY_TAGS.get() && SettingKey.ENTITY_DYNAMIC_TAG_VIEW_RANGE_ENABLED.get();
         this.dynamicItemTags = SettingKey.ITEM_DISPLAY_TAGS.get() && SettingKey.ITEM_DYNAMIC_TAG_VIEW_RANGE_ENABLED.get();
@@ -137,45 +182,374 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         this.targetWorld.getLivingEntities().forEach(PersistentDataUtils::applyDisabledAi);
     }
 
-    private void stackEntities() {
+    /**
+     * Runs any jobs that are due for this world until they finish or the deadline is reached.
+     * Unfinished passes are resumed from where they left off the next time this is called.
+     * Does nothing if the jobs are already running on another thread.
+     *
+     * @param currentTick the tick number of the StackingScheduler
+     * @param deadline the {@link System#nanoTime()} to stop processing at
+     */
+    void runJobs(long currentTick, long deadline) {
+        if (this.closed || !this.runningJobs.compareAndSet(false, true))
+            return;
+
+        try {
+            this.currentTick = currentTick;
+
+            // Rotate which job goes first so a long pass can't starve the others
+            int size = this.jobs.size();
+            int start = Math.floorMod(this.jobRotation++, size);
+            for (int i = 0; i < size; i++) {
+                if (this.closed || System.nanoTime() >= deadline)
+                    return;
+
+                this.jobs.get((start + i) % size).run(currentTick, deadline);
+            }
+        } finally {
+            this.runningJobs.set(false);
+        }
+    }
+
+    private Iterator<Runnable> startEntityStackPass() {
         boolean entityStackingEnabled = this.stackManager.isEntityStackingEnabled();
         if (!entityStackingEnabled || this.stackManager.isEntityStackingTemporarilyDisabled())
+            return Collections.emptyIterator();
+
+        boolean fullPass = this.startFullEntityStackPass();
+        if (SettingKey.ENTITY_BATCH_STACKING.get())
+            return this.startBatchedEntityStackPass(fullPass);
+
+        Iterator<StackedEntity> stacks = this.stackedEntities.values().iterator();
+        if (!fullPass) {
+            double moveDistance = SettingKey.ENTITY_RESTACK_MOVE_DISTANCE.get();
+            double moveDistanceSqrd = moveDistance * moveDistance;
+            stacks = Iterators.filter(stacks, x -> x.isDirty(moveDistanceSqrd));
+        }
+
+        return Iterators.transform(stacks, x -> () -> this.processEntityStack(x));
+    }
+
+    /**
+     * Checks if the next entity stack pass should check every entity instead of only the ones that have changed
+     *
+     * @return true if every entity should be checked, false otherwise
+     */
+    private boolean startFullEntityStackPass() {
+        long fullStackFrequency = SettingKey.ENTITY_FULL_STACK_FREQUENCY.get();
+        if (fullStackFrequency > 0 && this.lastFullEntityStackPass >= 0 && this.currentTick - this.lastFullEntityStackPass < fullStackFrequency)
+            return false;
+
+        this.lastFullEntityStackPass = this.currentTick;
+        return true;
+    }
+
+    private void processEntityStack(StackedEntity stackedEntity) {
+        // The pass may span multiple ticks, the stack could have been merged into another since it started
+        if (this.stackManager.isEntityStackingTemporarilyDisabled() || this.stackedEntities.get(stackedEntity.getEntity().getUniqueId()) != stackedEntity)
+            return;
+
+        LivingEntity livingEntity = stackedEntity.getEntity();
+        if (this.isRemoved(livingEntity)) {
+            this.removeEntityStack(stackedEntity);
             return;
+        }
+
+        stackedEntity.clearDirty();
+        this.tryStackEntity(stackedEntity);
+    }
 
+    /**
+     * Finds groups of compatible nearby entity stacks for the whole world using union-find,
+     * then merges each group at once. Each compatible pair is only compared once per pass.
+     * The pass is made up of steps so it can be spread over several ticks like the other passes:
+     * one step to search each region, one to join the groups, and one to merge each group.
+     * Busy worlds have their regions searched in parallel in the background while the steps wait for the results.
+     *
+     * @param fullPass true to compare every pair of nearby stacks, false to only compare pairs where at least one
+     *                 of the stacks has changed since it was last checked
+     * @return the steps of the pass
+     */
+    private Iterator<Runnable> startBatchedEntityStackPass(boolean fullPass) {
+        // Candidates are sorted by region then UUID so the result doesn't depend on the order of the stack map
+        int regionSize = Math.max(SettingKey.ENTITY_BATCH_STACKING_REGION_SIZE.get(), 1);
+        Map<Long, List<StackedEntity>> regions = new TreeMap<>();
         for (StackedEntity stackedEntity : this.stackedEntities.values()) {
             LivingEntity livingEntity = stackedEntity.getEntity();
-            if (this.isRemoved(livingEntity)) {
+            if (this.isRemoved(livingEntity) || stackedEntity.checkNPC()) {
                 this.removeEntityStack(stackedEntity);
                 continue;
             }
 
-            this.tryStackEntity(stackedEntity);
+            Location location = livingEntity.getLocation();
+            if (stackedEntity.getStackSettings() != null && WorldGuardHook.testLocation(location))
+                regions.computeIfAbsent(getRegionKey(location, regionSize), x -> new ArrayList<>()).add(stackedEntity);
+        }
+
+        List<StackedEntity> candidates = new ArrayList<>(this.stackedEntities.size());
+        int[] regionBounds = new int[regions.size() + 1];
+        int regionCount = 0;
+        for (List<StackedEntity> region : regions.values()) {
+            region.sort(Comparator.comparing(x -> x.getEntity().getUniqueId()));
+            candidates.addAll(region);
+            regionBounds[++regionCount] = candidates.size();
+        }
+
+        int size = candidates.size();
+        if (size < 2)
+            return Collections.emptyIterator();
+
+        Map<UUID, Integer> indices = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++)
+            indices.put(candidates.get(i).getEntity().getUniqueId(), i);
+
+        // Only stacks with the same fingerprint are worth running the full set of stack conditions on
+        int[] fingerprints = new int[size];
+        for (int i = 0; i < size; i++)
+            fingerprints[i] = candidates.get(i).getCompatibilityFingerprint();
+
+        // Two stacks that haven't changed since they were last compared will still have the same result
+        double moveDistance = SettingKey.ENTITY_RESTACK_MOVE_DISTANCE.get();
+        double moveDistanceSqrd = moveDistance * moveDistance;
+        boolean[] dirty = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            StackedEntity stackedEntity = candidates.get(i);
+            dirty[i] = fullPass || stackedEntity.isDirty(moveDistanceSqrd);
+            stackedEntity.clearDirty();
         }
+
+        List<ImmutableLongArray> results = new ArrayList<>(regionCount);
+        Queue<Runnable> steps = new ArrayDeque<>();
+        boolean parallel = size >= PARALLEL_BATCH_MIN_CANDIDATES && regionCount >= 2;
+        ForkJoinPool regionPool = this.rosePlugin.getManager(WorkerPoolManager.class).getRegionPool();
+        for (int i = 0; i < regionCount; i++) {
+            int from = regionBounds[i];
+            int to = regionBounds[i + 1];
+            Callable<ImmutableLongArray> search = () -> this.findStackablePairs(candidates, indices, fingerprints, dirty, from, to);
+            Future<ImmutableLongArray> future = null;
+            if (parallel) {
+                try {
+                    future = regionPool.submit(search);
+                } catch (RejectedExecutionException e) {
+                    this.rosePlugin.getLogger().log(Level.WARNING, "Failed to search a region for stackable entities in the background, searching it on the stacking thread instead", e);
+                }
+            }
+
+            Future<ImmutableLongArray> searchFuture = future;
+            steps.add(() -> results.add(this.getStackablePairs(searchFuture, search)));
+        }
+
+        steps.add(() -> {
+            // Always keeping the lowest index as the root makes the groups independent of the order pairs were found in,
+            // so groups that cross a region border are joined the same way no matter which region finished first
+            int[] parents = new int[size];
+            for (int i = 0; i < size; i++)
+                parents[i] = i;
+
+            for (ImmutableLongArray pairs : results) {
+                for (int i = 0; i < pairs.length(); i++) {
+                    long pair = pairs.get(i);
+                    int rootA = findRoot(parents, (int) (pair >>> 32));
+                    int rootB = findRoot(parents, (int) pair);
+                    if (rootA != rootB)
+                        parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+                }
+            }
+
+            int[] roots = new int[size];
+            int[] clusterSizes = new int[size];
+            for (int i = 0; i < size; i++)
+                clusterSizes[roots[i] = findRoot(parents, i)]++;
+
+            Map<Integer, List<StackedEntity>> clusters = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++)
+                if (clusterSizes[roots[i]] > 1)
+                    clusters.computeIfAbsent(roots[i], x -> new ArrayList<>()).add(candidates.get(i));
+
+            for (List<StackedEntity> cluster : clusters.values())
+                steps.add(() -> this.mergeEntityCluster(cluster));
+        });
+
+        return Iterables.consumingIterable(steps).iterator();
     }
 
-    private void unstackEntities() {
-        boolean entityStackingEnabled = this.stackManager.isEntityStackingEnabled();
-        if (!entityStackingEnabled || this.stackManager.isEntityUnstackingTemporarilyDisabled())
+    /**
+     * Gets the result of a region search, running it on this thread if it couldn't be run in the background
+     *
+     * @param future the search running in the background, nullable if it isn't
+     * @param search the search
+     * @return the pairs of candidate indices that can stack together, empty if the search failed
+     */
+    private ImmutableLongArray getStackablePairs(Future<ImmutableLongArray> future, Callable<ImmutableLongArray> search) {
+        try {
+            return future != null ? future.get() : search.call();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            this.rosePlugin.getLogger().log(Level.WARNING, "Failed to search a region for stackable entities", e);
+        }
+        return ImmutableLongArray.of();
+    }
+
+    /**
+     * Merges a group of stacks found by the batched pass into the largest stack of the group
+     *
+     * @param cluster the stacks connected by compatible pairs
+     */
+    private void mergeEntityCluster(List<StackedEntity> cluster) {
+        // The group was found earlier in the pass, stacks may have been removed or merged into others since
+        if (this.stackManager.isEntityStackingTemporarilyDisabled())
             return;
 
-        boolean minSplitIfLower = SettingKey.ENTITY_MIN_SPLIT_IF_LOWER.get();
-        for (StackedEntity stackedEntity : this.stackedEntities.values()) {
+        cluster.removeIf(x -> this.isRemoved(x.getEntity()) || this.stackedEntities.get(x.getEntity().getUniqueId()) != x);
+        if (cluster.size() < 2)
+            return;
+
+        StackedEntity head = cluster.stream().max(StackedEntity::compareTo).orElseThrow();
+        EntityStackSettings stackSettings = head.getStackSettings();
+        LivingEntity headEntity = head.getEntity();
+        Location headLocation = head.getLocation();
+        double mergeRadius = stackSettings.getMergeRadius();
+        boolean mergeEntireChunk = SettingKey.ENTITY_MERGE_ENTIRE_CHUNK.get();
+        boolean requireLineOfSight = SettingKey.ENTITY_REQUIRE_LINE_OF_SIGHT.get();
+
+        // Stacks are only grouped through chains of compatible pairs, and neither distance nor checks such as line of sight
+        // carry over along a chain, so each stack is tested against the head again before it is merged into it
+        Set<StackedEntity> targetEntities = new LinkedHashSet<>();
+        for (StackedEntity stackedEntity : cluster) {
+            if (stackedEntity == head) {
+                targetEntities.add(stackedEntity);
+                continue;
+            }
+
+            Location location = stackedEntity.getLocation();
+            boolean inRange;
+            if (mergeEntireChunk) {
+                inRange = location.getBlockX() >> 4 == headLocation.getBlockX() >> 4 && location.getBlockZ() >> 4 == headLocation.getBlockZ() >> 4;
+            } else {
+                inRange = Math.abs(location.getX() - headLocation.getX()) <= mergeRadius
+                        && Math.abs(location.getY() - headLocation.getY()) <= mergeRadius
+                        && Math.abs(location.getZ() - headLocation.getZ()) <= mergeRadius;
+            }
+
+            // Keep the cluster order so the same stacks are picked when the max stack size is reached
+            if (inRange
+                    && stackSettings.testCanStackWith(head, stackedEntity, false)
+                    && (!requireLineOfSight || EntityUtils.hasLineOfSight(headEntity, stackedEntity.getEntity(), 0.75, false)))
+                targetEntities.add(stackedEntity);
+        }
+
+        if (targetEntities.size() > 1)
+            this.mergeEntityStacks(head, targetEntities, stackSettings);
+    }
+
+    /**
+     * Finds the pairs of compatible nearby stacks for a range of batch stacking candidates.
+     * Nothing shared is modified, so separate ranges can be searched at the same time.
+     *
+     * @param candidates the candidates of the batch stacking pass
+     * @param indices the index of each candidate by entity UUID
+     * @param fingerprints the compatibility fingerprint of each candidate
+     * @param dirty if each candidate has changed since it was last checked
+     * @param from the first candidate index to search from, inclusive
+     * @param to the last candidate index to search from, exclusive
+     * @return the pairs of candidate indices that can stack together, packed into longs
+     */
+    private ImmutableLongArray findStackablePairs(List<StackedEntity> candidates, Map<UUID, Integer> indices, int[] fingerprints, boolean[] dirty, int from, int to) {
+        boolean mergeEntireChunk = SettingKey.ENTITY_MERGE_ENTIRE_CHUNK.get();
+        boolean requireLineOfSight = SettingKey.ENTITY_REQUIRE_LINE_OF_SIGHT.get();
+
+        // Tracks which stacks in the range are already connected, pairs leaving the range are always tested
+        int[] parents = new int[to - from];
+        for (int i = 0; i < parents.length; i++)
+            parents[i] = i;
+
+        ImmutableLongArray.Builder pairs = ImmutableLongArray.builder();
+        List<Entity> nearbyEntities = NEARBY_ENTITIES_BUFFER.get();
+        for (int i = from; i < to; i++) {
+            if (!dirty[i])
+                continue;
+
+            StackedEntity stackedEntity = candidates.get(i);
+            EntityStackSettings stackSettings = stackedEntity.getStackSettings();
             LivingEntity entity = stackedEntity.getEntity();
-            if (!stackedEntity.shouldStayStacked() && entity.isValid()) {
-                ThreadUtils.runSync(() -> {
-                    if (stackedEntity.getStackSize() > 1)
-                        this.splitEntityStack(stackedEntity);
-                });
-            } else if (minSplitIfLower && stackedEntity.getStackSize() < stackedEntity.getStackSettings().getMinStackSize()) {
-                NMSHandler nmsHandler = NMSAdapter.getHandler();
-                StackedEntityDataStorage nbt = stackedEntity.getDataStorage();
-                stackedEntity.setDataStorage(nmsHandler.createEntityDataStorage(entity, this.stackManager.getEntityDataStorageType(entity.getType())));
-                ThreadUtils.runSync(() -> {
-                    for (EntityDataEntry entityDataEntry : nbt.getAll())
-                        entityDataEntry.createEntity(stackedEntity.getLocation(), true, entity.getType());
-                });
+            EntityType entityType = entity.getType();
+            Predicate<Entity> predicate = x -> x.getType() == entityType;
+
+            try {
+                if (!mergeEntireChunk) {
+                    this.entityCacheManager.getNearbyEntities(entity.getLocation(), stackSettings.getMergeRadius(), predicate, nearbyEntities);
+                } else {
+                    this.entityCacheManager.getEntitiesInChunk(entity.getLocation(), predicate, nearbyEntities);
+                }
+
+                for (Entity otherEntity : nearbyEntities) {
+                    // Pairs are symmetric, if both stacks are dirty only compare them from the side of the lower index
+                    Integer j = indices.get(otherEntity.getUniqueId());
+                    if (j == null || j == i || (j < i && dirty[j]) || fingerprints[i] != fingerprints[j])
+                        continue;
+
+                    boolean inRange = j >= from && j < to;
+                    if (inRange && findRoot(parents, i - from) == findRoot(parents, j - from))
+                        continue;
+
+                    StackedEntity other = candidates.get(j);
+                    if (stackSettings.testCanStackWith(stackedEntity, other, false)
+                            && (!requireLineOfSight || EntityUtils.hasLineOfSight(entity, otherEntity, 0.75, false))) {
+                        pairs.add((long) i << 32 | j);
+                        if (inRange)
+                            parents[findRoot(parents, j - from)] = findRoot(parents, i - from);
+                    }
+                }
+            } finally {
+                nearbyEntities.clear();
             }
         }
+
+        return pairs.build();
+    }
+
+    private static long getRegionKey(Location location, int regionSize) {
+        long regionX = Math.floorDiv(location.getBlockX() >> 4, regionSize);
+        long regionZ = Math.floorDiv(location.getBlockZ() >> 4, regionSize);
+        return regionX << 32 | (regionZ & 0xFFFFFFFFL);
+    }
+
+    private static int findRoot(int[] parents, int index) {
+        while (parents[index] != index) {
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+
+    private Iterator<StackedEntity> startEntityUnstackPass() {
+        boolean entityStackingEnabled = this.stackManager.isEntityStackingEnabled();
+        if (!entityStackingEnabled || this.stackManager.isEntityUnstackingTemporarilyDisabled())
+            return Collections.emptyIterator();
+
+        this.minSplitIfLower = SettingKey.ENTITY_MIN_SPLIT_IF_LOWER.get();
+        return this.stackedEntities.values().iterator();
+    }
+
+    private void processEntityUnstack(StackedEntity stackedEntity) {
+        if (this.stackManager.isEntityUnstackingTemporarilyDisabled())
+            return;
+
+        LivingEntity entity = stackedEntity.getEntity();
+        if (!stackedEntity.shouldStayStacked() && entity.isValid()) {
+            this.stackManager.getSyncMutationQueue().runSync(() -> {
+                if (stackedEntity.getStackSize() > 1)
+                    this.splitEntityStack(stackedEntity);
+            });
+        } else if (this.minSplitIfLower && stackedEntity.getStackSize() < stackedEntity.getStackSettings().getMinStackSize()) {
+            StackedEntityDataStorage nbt = stackedEntity.getDataStorage();
+            stackedEntity.setDataStorage(this.stackManager.createEntityDataStorage(entity));
+            this.stackManager.getSyncMutationQueue().runSync(() -> {
+                for (EntityDataEntry entityDataEntry : nbt.getAll())
+                    entityDataEntry.createEntity(stackedEntity.getLocation(), true, entity.getType());
+            });
+        }
     }
 
     private void cleanupOrphanedEntities() {
@@ -193,134 +567,137 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         }
     }
 
-    private void stackItems() {
+    private Iterator<StackedItem> startItemStackPass() {
         boolean itemStackingEnabled = this.stackManager.isItemStackingEnabled();
         if (!itemStackingEnabled)
+            return Collections.emptyIterator();
+
+        this.updateItemNametags = SettingKey.ITEM_DISPLAY_DESPAWN_TIMER_PLACEHOLDER.get();
+        return this.stackedItems.values().iterator();
+    }
+
+    private void processItemStack(StackedItem stackedItem) {
+        Item item = stackedItem.getItem();
+        if (item == null || this.isRemoved(item)) {
+            this.removeItemStack(stackedItem);
             return;
+        }
 
-        boolean updateItemNametags = SettingKey.ITEM_DISPLAY_DESPAWN_TIMER_PLACEHOLDER.get();
+        // The pass may span multiple ticks, the stack could have been merged into another since it started
+        if (this.stackedItems.get(item.getUniqueId()) != stackedItem)
+            return;
 
-        // Auto stack items
-        for (StackedItem stackedItem : this.stackedItems.values()) {
-            Item item = stackedItem.getItem();
-            if (item == null || this.isRemoved(item)) {
-                this.removeItemStack(stackedItem);
-                continue;
-            }
+        if (this.updateItemNametags)
+            stackedItem.updateDisplay();
 
-            if (updateItemNametags)
-                stackedItem.updateDisplay();
+        this.tryStackItem(stackedItem);
+    }
 
-            this.tryStackItem(stackedItem);
-        }
+    private Iterator<StackedSpawner> startHologramPass() {
+        return this.stackChunkData.values().stream().flatMap(x -> x.getSpawners().values().stream()).iterator();
     }
 
     public void processNametags() {
+        this.startNametagPass().forEachRemaining(Runnable::run);
+    }
+
+    /**
+     * Starts a pass over the dynamic nametags in this world, each player is processed separately
+     *
+     * @return an Iterator of tasks to update the nametags visible to each player
+     */
+    private Iterator<Runnable> startNametagPass() {
         if (!this.dynamicEntityTags && !this.dynamicItemTags)
-            return;
+            return Collections.emptyIterator();
 
         List<Player> players = this.targetWorld.getPlayers();
         if (players.isEmpty())
-            return;
+            return Collections.emptyIterator();
 
-        // Handle dynamic stack tags
-        NMSHandler nmsHandler = NMSAdapter.getHandler();
+        List<LivingEntity> entities = this.dynamicEntityTags ? this.stackedEntities.values().stream()
+                .map(StackedEntity::getEntity)
+                .filter(Objects::nonNull)
+                .toList() : null;
 
-        List<LivingEntity> entities = null;
-        if (this.dynamicEntityTags) {
-            entities = this.stackedEntities.values().stream()
-                    .map(StackedEntity::getEntity)
-                    .filter(Objects::nonNull)
-                    .toList();
-        }
+        List<Item> items = this.dynamicItemTags ? this.stackedItems.values().stream()
+                .map(StackedItem::getItem)
+                .toList() : null;
 
-        List<Item> items = null;
-        if (this.dynamicItemTags) {
-            items = this.stackedItems.values().stream()
-                    .map(StackedItem::getItem)
-                    .toList();
-        }
+        return players.stream().<Runnable>map(player -> () -> this.processNametags(player, entities, items)).iterator();
+    }
 
-        for (Player player : players) {
-            if (!player.getWorld().equals(this.targetWorld))
-                continue;
+    private void processNametags(Player player, List<LivingEntity> entities, List<Item> items) {
+        if (!player.getWorld().equals(this.targetWorld))
+            return;
 
-            ItemStack itemStack = player.getInventory().getItemInMainHand();
-            boolean displayStackingToolParticles = ItemUtils.isStackingTool(itemStack);
+        // Handle dynamic stack tags
+        NMSHandler nmsHandler = NMSAdapter.getHandler();
 
-            if (this.dynamicEntityTags) {
-                for (LivingEntity entity : entities) {
-                    double distanceSqrd;
-                    try { // The locations can end up comparing cross-world if the player/entity switches worlds mid-loop due to being async
-                        distanceSqrd = player.getLocation().distanceSquared(entity.getLocation());
-                    } catch (Exception e) {
-                        continue;
-                    }
+        ItemStack itemStack = player.getInventory().getItemInMainHand();
+        boolean displayStackingToolParticles = ItemUtils.isStackingTool(itemStack);
 
-                    if (distanceSqrd > StackerUtils.ASSUMED_ENTITY_VISIBILITY_RANGE)
-                        continue;
+        if (this.dynamicEntityTags) {
+            for (LivingEntity entity : entities) {
+                double distanceSqrd;
+                try { // The locations can end up comparing cross-world if the player/entity switches worlds mid-loop due to being async
+                    distanceSqrd = player.getLocation().distanceSquared(entity.getLocation());
+                } catch (Exception e) {
+                    continue;
+                }
 
-                    boolean visible = distanceSqrd < this.entityDynamicViewRangeSqrd;
-                    if (this.entityDynamicWallDetection)
-                        visible &= EntityUtils.hasLineOfSight(player, entity, 0.75, true);
+                if (distanceSqrd > StackerUtils.ASSUMED_ENTITY_VISIBILITY_RANGE)
+                    continue;
 
-                    StackedEntity stackedEntity = this.getStackedEntity(entity);
-                    if (stackedEntity != null)
-                        nmsHandler.updateEntityNameTagForPlayer(player, entity, stackedEntity.getDisplayName(), stackedEntity.isDisplayNameVisible() && visible);
+                boolean visible = distanceSqrd < this.entityDynamicViewRangeSqrd;
+                if (this.entityDynamicWallDetection)
+                    visible &= EntityUtils.hasLineOfSight(player, entity, 0.75, true);
 
-                    // Spawn particles for holding the stacking tool
-                    if (visible && displayStackingToolParticles) {
-                        Location location = entity.getLocation().add(0, entity.getEyeHeight(true) + 0.75, 0);
-                        DustOptions dustOptions;
-                        if (PersistentDataUtils.isUnstackable(entity)) {
-                            dustOptions = StackerUtils.UNSTACKABLE_DUST_OPTIONS;
-                        } else {
-                            dustOptions = StackerUtils.STACKABLE_DUST_OPTIONS;
-                        }
-                        player.spawnParticle(VersionUtils.DUST, location, 1, 0.0, 0.0, 0.0, 0.0, dustOptions);
+                StackedEntity stackedEntity = this.getStackedEntity(entity);
+                if (stackedEntity != null)
+                    nmsHandler.updateEntityNameTagForPlayer(player, entity, stackedEntity.getDisplayName(), stackedEntity.isDisplayNameVisible() && visible);
+
+                // Spawn particles for holding the stacking tool
+                if (visible && displayStackingToolParticles) {
+                    Location location = entity.getLocation().add(0, entity.getEyeHeight(true) + 0.75, 0);
+                    DustOptions dustOptions;
+                    if (PersistentDataUtils.isUnstackable(entity)) {
+                        dustOptions = StackerUtils.UNSTACKABLE_DUST_OPTIONS;
+                    } else {
+                        dustOptions = StackerUtils.STACKABLE_DUST_OPTIONS;
                     }
+                    player.spawnParticle(VersionUtils.DUST, location, 1, 0.0, 0.0, 0.0, 0.0, dustOptions);
                 }
             }
+        }
 
-            if (this.dynamicItemTags) {
-                for (Item item : items) {
-                    if (item.getCustomName() == null || !item.isCustomNameVisible())
-                        continue;
+        if (this.dynamicItemTags) {
+            for (Item item : items) {
+                if (item.getCustomName() == null || !item.isCustomNameVisible())
+                    continue;
 
-                    double distanceSqrd;
-                    try { // The locations can end up comparing cross-world if the player/entity switches worlds mid-loop due to being async
-                        distanceSqrd = player.getLocation().distanceSquared(item.getLocation());
-                    } catch (Exception e) {
-                        continue;
-                    }
+                double distanceSqrd;
+                try { // The locations can end up comparing cross-world if the player/entity switches worlds mid-loop due to being async
+                    distanceSqrd = player.getLocation().distanceSquared(item.getLocation());
+                } catch (Exception e) {
+                    continue;
+                }
 
-                    if (distanceSqrd > StackerUtils.ASSUMED_ENTITY_VISIBILITY_RANGE)
-                        continue;
+                if (distanceSqrd > StackerUtils.ASSUMED_ENTITY_VISIBILITY_RANGE)
+                    continue;
 
-                    boolean visible = distanceSqrd < this.itemDynamicViewRangeSqrd;
-                    if (this.itemDynamicWallDetection)
-                        visible &= EntityUtils.hasLineOfSight(player, item, 0.75, true);
+                boolean visible = distanceSqrd < this.itemDynamicViewRangeSqrd;
+                if (this.itemDynamicWallDetection)
+                    visible &= EntityUtils.hasLineOfSight(player, item, 0.75, true);
 
-                    nmsHandler.updateEntityNameTagVisibilityForPlayer(player, item, visible);
-                }
+                nmsHandler.updateEntityNameTagVisibilityForPlayer(player, item, visible);
             }
         }
     }
 
-    private void updateHolograms() {
-        this.stackChunkData.values().stream().flatMap(x -> x.getSpawners().values().stream()).forEach(StackedSpawner::updateDisplay);
-    }
-
     @Override
     public void close() {
-        // Cancel tasks
-        this.entityStackTask.cancel();
-        this.itemStackTask.cancel();
-        this.nametagTask.cancel();
-        this.hologramTask.cancel();
-
-        if (this.entityUnstackTask != null)
-            this.entityUnstackTask.cancel();
+        // Stop the StackingScheduler from running any more of our jobs and cancel tasks
+        this.closed = true;
 
         if (this.entityCleanupTask != null)
             this.entityCleanupTask.cancel();
@@ -405,6 +782,7 @@ public class StackingThread implements StackingLogic, AutoCloseable {
             UUID key = stackedEntity.getEntity().getUniqueId();
             this.stackedEntities.remove(key);
             this.setRemoved(entity);
+            this.entityCacheManager.uncacheEntity(entity);
         } else {
             // Entity is null so we have to remove by value instead
             for (Entry<UUID, StackedEntity> entry : this.stackedEntities.entrySet()) {
@@ -423,6 +801,7 @@ public class StackingThread implements StackingLogic, AutoCloseable {
             UUID key = stackedItem.getItem().getUniqueId();
             this.stackedItems.remove(key);
             this.setRemoved(item);
+            this.entityCacheManager.uncacheEntity(item);
         } else {
             // Item is null so we have to remove by value instead
             for (Entry<UUID, StackedItem> entry : this.stackedItems.entrySet()) {
@@ -629,7 +1008,7 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         if (world == null)
             return;
 
-        ThreadUtils.runAsync(() -> {
+        ThreadUtils.runAsync(WorkerPool.SPAWNING, () -> {
             EntityStackSettings stackSettings = this.rosePlugin.getManager(StackSettingManager.class).getEntityStackSettings(entityType);
             NMSHandler nmsHandler = NMSAdapter.getHandler();
             boolean removeAi = stackSettings.isMobAIDisabled();
@@ -645,7 +1024,7 @@ public class StackingThread implements StackingLogic, AutoCloseable {
             Set<StackedEntity> updatedEntities = new HashSet<>();
             Set<StackedEntity> newStackedEntities = new HashSet<>();
             switch (this.stackManager.getEntityDataStorageType(entityType)) {
-                case NBT -> {
+                case NBT, DELTA, COUNTED, SLAB -> {
                     for (int i = 0; i < amount; i++) {
                         StackedEntity newStack = this.createNewEntity(nmsHandler, entityType, location, spawnReason, removeAi);
                         Optional<StackedEntity> matchingEntity = nearbyStackedEntities.stream().filter(x ->
@@ -678,19 +1057,23 @@ public class StackingThread implements StackingLogic, AutoCloseable {
                 }
             }
 
-            updatedEntities.forEach(StackedEntity::updateDisplay);
+            SyncMutationQueue syncMutationQueue = this.stackManager.getSyncMutationQueue();
+            updatedEntities.forEach(syncMutationQueue::updateDisplay);
+
+            if (newStackedEntities.isEmpty())
+                return;
 
-            ThreadUtils.runSync(() -> {
+            syncMutationQueue.runSync(() -> {
                 this.stackManager.setEntityStackingTemporarilyDisabled(true);
                 for (StackedEntity stackedEntity : newStackedEntities) {
                     LivingEntity entity = stackedEntity.getEntity();
-                    this.entityCacheManager.preCacheEntity(entity);
                     nmsHandler.spawnExistingEntity(stackedEntity.getEntity(), spawnReason, SettingKey.SPAWNER_BYPASS_REGION_SPAWNING_RULES.get());
+                    this.entityCacheManager.preCacheEntity(entity);
                     if (removeAi)
-                        PersistentDataUtils.removeEntityAi(entity);
-                    entity.setVelocity(Vector.getRandom().multiply(0.01));
+                        syncMutationQueue.removeEntityAi(entity);
+                    syncMutationQueue.setVelocity(entity, Vector.getRandom().multiply(0.01));
                     this.addEntityStack(stackedEntity);
-                    stackedEntity.updateDisplay();
+                    syncMutationQueue.updateDisplay(stackedEntity);
                 }
                 this.stackManager.setEntityStackingTemporarilyDisabled(false);
             });
@@ -712,11 +1095,16 @@ public class StackingThread implements StackingLogic, AutoCloseable {
 
     @Override
     public void preStackItems(Collection<ItemStack> items, Location location, boolean dropNaturally) {
+        this.preStackItems(new ItemAggregator().addAll(items), location, dropNaturally);
+    }
+
+    @Override
+    public void preStackItems(ItemAggregator items, Location location, boolean dropNaturally) {
         if (location.getWorld() == null)
             return;
 
-        // Merge items and store their amounts
-        Map<ItemStack, Integer> itemStackAmounts = ItemUtils.reduceItemsByCounts(items);
+        // Other plugins expect a mutable map of the merged items and their amounts
+        Map<ItemStack, Integer> itemStackAmounts = items.toMap();
 
         // Fire the event to allow other plugins to manipulate the items before we stack and drop them
         PreDropStackedItemsEvent event = new PreDropStackedItemsEvent(itemStackAmounts, location);
@@ -808,8 +1196,12 @@ public class StackingThread implements StackingLogic, AutoCloseable {
             for (StackedBlock stackedBlock : DataUtils.readStackedBlocks(chunk))
                 stackedBlocks.put(stackedBlock.getBlock(), stackedBlock);
 
-        if (!stackedSpawners.isEmpty() || !stackedBlocks.isEmpty())
-            this.stackChunkData.put(chunk, new StackChunkData(stackedSpawners, stackedBlocks));
+        if (!stackedSpawners.isEmpty() || !stackedBlocks.isEmpty()) {
+            // Everything was just read from the chunk, so there's nothing new to save yet
+            StackChunkData stackChunkData = new StackChunkData(stackedSpawners, stackedBlocks);
+            this.captureSavedCounts(stackChunkData).run();
+            this.stackChunkData.put(chunk, stackChunkData);
+        }
     }
 
     @Override
@@ -817,6 +1209,8 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         if (entities.isEmpty())
             return;
 
+        this.entityCacheManager.cacheEntities(entities);
+
         if (this.stackManager.isEntityStackingEnabled()) {
             for (Entity entity : entities) {
                 if (!(entity instanceof LivingEntity livingEntity) || entity.getType() == EntityType.ARMOR_STAND || entity.getType() == EntityType.PLAYER)
@@ -824,6 +1218,7 @@ public class StackingThread implements StackingLogic, AutoCloseable {
 
                 StackedEntity stackedEntity = DataUtils.readStackedEntity(livingEntity, this.stackManager.getEntityDataStorageType(entity.getType()));
                 if (stackedEntity != null) {
+                    stackedEntity.markSaved(stackedEntity.getModificationCount());
                     this.stackedEntities.put(stackedEntity.getEntity().getUniqueId(), stackedEntity);
                 } else {
                     this.createEntityStack(livingEntity, true);
@@ -839,6 +1234,7 @@ public class StackingThread implements StackingLogic, AutoCloseable {
                 Item item = (Item) entity;
                 StackedItem stackedItem = DataUtils.readStackedItem(item);
                 if (stackedItem != null) {
+                    stackedItem.markSaved(stackedItem.getModificationCount());
                     this.stackedItems.put(stackedItem.getItem().getUniqueId(), stackedItem);
                 } else {
                     this.createItemStack(item, true);
@@ -853,24 +1249,37 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         if (stackChunkData == null)
             return;
 
+        // Anything an autosave is still encoding for this chunk is now out of date
+        this.pendingSaves.remove(chunk);
+
+        boolean modified = stackChunkData.isModifiedSinceSave();
+        Runnable onSaved = this.captureSavedCounts(stackChunkData);
+
         if (this.stackManager.isSpawnerStackingEnabled()) {
-            DataUtils.writeStackedSpawners(stackChunkData.getSpawners().values(), chunk);
+            if (modified)
+                DataUtils.writeStackedSpawners(stackChunkData.getSpawners().values(), chunk);
             if (clearStored)
                 stackChunkData.getSpawners().values().stream().map(StackedSpawner::getHologramLocation).forEach(this.hologramManager::deleteHologram);
         }
 
         if (this.stackManager.isBlockStackingEnabled()) {
-            DataUtils.writeStackedBlocks(stackChunkData.getBlocks().values(), chunk);
+            if (modified)
+                DataUtils.writeStackedBlocks(stackChunkData.getBlocks().values(), chunk);
             if (clearStored)
                 stackChunkData.getBlocks().values().stream().map(StackedBlock::getHologramLocation).forEach(this.hologramManager::deleteHologram);
         }
 
+        onSaved.run();
+
         if (clearStored)
             this.stackChunkData.remove(chunk);
     }
 
     @Override
     public void saveChunkEntities(List<Entity> entities, boolean clearStored) {
+        if (clearStored)
+            this.entityCacheManager.uncacheEntities(entities);
+
         if (this.stackManager.isEntityStackingEnabled()) {
             List<StackedEntity> stackedEntities = entities.stream()
                     .filter(x -> x instanceof LivingEntity && x.getType() != EntityType.ARMOR_STAND && x.getType() != EntityType.PLAYER)
@@ -878,7 +1287,14 @@ public class StackingThread implements StackingLogic, AutoCloseable {
                     .filter(Objects::nonNull)
                     .toList();
 
-            stackedEntities.forEach(DataUtils::writeStackedEntity);
+            for (StackedEntity stackedEntity : stackedEntities) {
+                this.pendingSaves.remove(stackedEntity.getEntity().getUniqueId());
+                if (stackedEntity.isModifiedSinceSave()) {
+                    int modificationCount = stackedEntity.getModificationCount();
+                    DataUtils.writeStackedEntity(stackedEntity);
+                    stackedEntity.markSaved(modificationCount);
+                }
+            }
 
             if (clearStored)
                 stackedEntities.stream().map(StackedEntity::getEntity).map(Entity::getUniqueId).forEach(this.stackedEntities::remove);
@@ -891,7 +1307,14 @@ public class StackingThread implements StackingLogic, AutoCloseable {
                     .filter(Objects::nonNull)
                     .toList();
 
-            stackedItems.forEach(DataUtils::writeStackedItem);
+            for (StackedItem stackedItem : stackedItems) {
+                this.pendingSaves.remove(stackedItem.getItem().getUniqueId());
+                if (stackedItem.isModifiedSinceSave()) {
+                    int modificationCount = stackedItem.getModificationCount();
+                    DataUtils.writeStackedItem(stackedItem);
+                    stackedItem.markSaved(modificationCount);
+                }
+            }
 
             if (clearStored)
                 stackedItems.stream().map(StackedItem::getItem).map(Entity::getUniqueId).forEach(this.stackedItems::remove);
@@ -900,6 +1323,11 @@ public class StackingThread implements StackingLogic, AutoCloseable {
 
     @Override
     public void saveAllData(boolean clearStored) {
+        if (!clearStored) {
+            this.saveAllDataAsync();
+            return;
+        }
+
         // Save stacked blocks and spawners
         for (Chunk chunk : this.stackChunkData.keySet())
             this.saveChunkBlocks(chunk, clearStored);
@@ -911,6 +1339,113 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         this.saveChunkEntities(entities, clearStored);
     }
 
+    /**
+     * Captures the data of all changed stacks on the main thread, then encodes it on the saving workers and writes it back in batches.
+     * If a stack is saved again before its batch is written back, such as when its chunk unloads, the batch skips it.
+     */
+    private void saveAllDataAsync() {
+        Object saveToken = new Object();
+        List<Object> keys = new ArrayList<>();
+        List<DataUtils.PendingWrite> writes = new ArrayList<>();
+        List<Runnable> savedCallbacks = new ArrayList<>();
+
+        for (Entry<Chunk, StackChunkData> entry : this.stackChunkData.entrySet()) {
+            Chunk chunk = entry.getKey();
+            StackChunkData stackChunkData = entry.getValue();
+            if (!stackChunkData.isModifiedSinceSave())
+                continue;
+
+            Runnable onSaved = this.captureSavedCounts(stackChunkData);
+            if (this.stackManager.isSpawnerStackingEnabled()) {
+                keys.add(chunk);
+                writes.add(DataUtils.prepareStackedSpawners(stackChunkData.getSpawners().values(), chunk));
+                savedCallbacks.add(onSaved);
+            }
+
+            if (this.stackManager.isBlockStackingEnabled()) {
+                keys.add(chunk);
+                writes.add(DataUtils.prepareStackedBlocks(stackChunkData.getBlocks().values(), chunk));
+                savedCallbacks.add(onSaved);
+            }
+        }
+
+        if (this.stackManager.isEntityStackingEnabled()) {
+            for (StackedEntity stackedEntity : this.stackedEntities.values()) {
+                if (!stackedEntity.isModifiedSinceSave())
+                    continue;
+
+                keys.add(stackedEntity.getEntity().getUniqueId());
+                savedCallbacks.add(this.captureSavedCount(stackedEntity));
+                writes.add(DataUtils.prepareStackedEntity(stackedEntity));
+            }
+        }
+
+        if (this.stackManager.isItemStackingEnabled()) {
+            for (StackedItem stackedItem : this.stackedItems.values()) {
+                if (!stackedItem.isModifiedSinceSave())
+                    continue;
+
+                keys.add(stackedItem.getItem().getUniqueId());
+                savedCallbacks.add(this.captureSavedCount(stackedItem));
+                writes.add(DataUtils.prepareStackedItem(stackedItem));
+            }
+        }
+
+        keys.forEach(key -> this.pendingSaves.put(key, saveToken));
+
+        SyncMutationQueue syncMutationQueue = this.stackManager.getSyncMutationQueue();
+        for (int start = 0; start < writes.size(); start += SAVE_BATCH_SIZE) {
+            int end = Math.min(start + SAVE_BATCH_SIZE, writes.size());
+            List<Object> batchKeys = keys.subList(start, end);
+            List<DataUtils.PendingWrite> batchWrites = writes.subList(start, end);
+            List<Runnable> batchCallbacks = savedCallbacks.subList(start, end);
+            ThreadUtils.runAsync(WorkerPool.SAVING, () -> {
+                batchWrites.forEach(DataUtils.PendingWrite::encode);
+                syncMutationQueue.runSync(() -> this.applySaves(saveToken, batchKeys, batchWrites, batchCallbacks));
+            });
+        }
+    }
+
+    private void applySaves(Object saveToken, List<Object> keys, List<DataUtils.PendingWrite> writes, List<Runnable> savedCallbacks) {
+        for (int i = 0; i < writes.size(); i++) {
+            if (this.pendingSaves.get(keys.get(i)) == saveToken) {
+                writes.get(i).apply();
+                savedCallbacks.get(i).run();
+            }
+        }
+
+        keys.forEach(key -> this.pendingSaves.remove(key, saveToken));
+    }
+
+    /**
+     * Captures the modification count of a stack so it can be marked as saved once its captured data has been written.
+     * Changes made after this point will still be saved by the next save.
+     *
+     * @param stack The stack to capture the modification count of
+     * @return a task that marks the stack as saved
+     */
+    private Runnable captureSavedCount(Stack<?> stack) {
+        int modificationCount = stack.getModificationCount();
+        return () -> stack.markSaved(modificationCount);
+    }
+
+    /**
+     * Captures the modification counts of a chunk and all of its stacks, see {@link #captureSavedCount(Stack)}
+     *
+     * @param stackChunkData The chunk data to capture the modification counts of
+     * @return a task that marks the chunk and its stacks as saved
+     */
+    private Runnable captureSavedCounts(StackChunkData stackChunkData) {
+        int modificationCount = stackChunkData.getModificationCount();
+        List<Runnable> stackCallbacks = new ArrayList<>(stackChunkData.getSpawners().size() + stackChunkData.getBlocks().size());
+        stackChunkData.getSpawners().values().stream().map(this::captureSavedCount).forEach(stackCallbacks::add);
+        stackChunkData.getBlocks().values().stream().map(this::captureSavedCount).forEach(stackCallbacks::add);
+        return () -> {
+            stackChunkData.markSaved(modificationCount);
+            stackCallbacks.forEach(Runnable::run);
+        };
+    }
+
     /**
      * Tries to stack a StackedEntity with all other StackedEntities
      *
@@ -933,31 +1468,48 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         if (!WorldGuardHook.testLocation(entity.getLocation()))
             return;
 
-        Collection<Entity> nearbyEntities;
-        Predicate<Entity> predicate = x -> x.getType() == entity.getType();
+        List<Entity> nearbyEntities = NEARBY_ENTITIES_BUFFER.get();
+        EntityType entityType = entity.getType();
+        Predicate<Entity> predicate = x -> x.getType() == entityType;
         if (!SettingKey.ENTITY_MERGE_ENTIRE_CHUNK.get()) {
-            nearbyEntities = this.entityCacheManager.getNearbyEntities(entity.getLocation(), stackSettings.getMergeRadius(), predicate);
+            this.entityCacheManager.getNearbyEntities(entity.getLocation(), stackSettings.getMergeRadius(), predicate, nearbyEntities);
         } else {
-            nearbyEntities = this.entityCacheManager.getEntitiesInChunk(entity.getLocation(), predicate);
+            this.entityCacheManager.getEntitiesInChunk(entity.getLocation(), predicate, nearbyEntities);
         }
 
         Set<StackedEntity> targetEntities = new HashSet<>();
         targetEntities.add(stackedEntity);
 
-        for (Entity otherEntity : nearbyEntities) {
-            if (entity == otherEntity || this.isRemoved(otherEntity))
-                continue;
+        int fingerprint = stackedEntity.getCompatibilityFingerprint();
+        try {
+            for (Entity otherEntity : nearbyEntities) {
+                if (entity == otherEntity || this.isRemoved(otherEntity))
+                    continue;
 
-            StackedEntity other = this.stackedEntities.get(otherEntity.getUniqueId());
-            if (other == null)
-                continue;
+                StackedEntity other = this.stackedEntities.get(otherEntity.getUniqueId());
+                if (other == null || other.getCompatibilityFingerprint() != fingerprint)
+                    continue;
 
-            if (stackSettings.testCanStackWith(stackedEntity, other, false)
-                    && (!SettingKey.ENTITY_REQUIRE_LINE_OF_SIGHT.get() || EntityUtils.hasLineOfSight(entity, otherEntity, 0.75, false))
-                    && WorldGuardHook.testLocation(otherEntity.getLocation()))
-                targetEntities.add(other);
+                if (stackSettings.testCanStackWith(stackedEntity, other, false)
+                        && (!SettingKey.ENTITY_REQUIRE_LINE_OF_SIGHT.get() || EntityUtils.hasLineOfSight(entity, otherEntity, 0.75, false))
+                        && WorldGuardHook.testLocation(otherEntity.getLocation()))
+                    targetEntities.add(other);
+            }
+        } finally {
+            nearbyEntities.clear();
         }
 
+        this.mergeEntityStacks(stackedEntity, targetEntities, stackSettings);
+    }
+
+    /**
+     * Merges a group of compatible StackedEntities into a single stack
+     *
+     * @param stackedEntity the StackedEntity the merge was initiated by, must be contained in targetEntities
+     * @param targetEntities the StackedEntities to merge together
+     * @param stackSettings the settings to use for the merge
+     */
+    private void mergeEntityStacks(StackedEntity stackedEntity, Set<StackedEntity> targetEntities, EntityStackSettings stackSettings) {
         StackedEntity increased;
         int totalSize;
         List<StackedEntity> removable = new ArrayList<>(targetEntities.size());
@@ -993,19 +1545,16 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         if (entityStackEvent.isCancelled())
             return;
 
+        SyncMutationQueue syncMutationQueue = this.stackManager.getSyncMutationQueue();
         for (StackedEntity toStack : removable) {
             stackSettings.applyStackProperties(toStack.getEntity(), increased.getEntity());
-            increased.increaseStackSize(toStack.getEntity());
-            increased.increaseStackSize(toStack.getDataStorage());
+            increased.increaseStackSize(toStack.getEntity(), false);
+            increased.increaseStackSize(toStack.getDataStorage(), false);
             this.removeEntityStack(toStack);
+            syncMutationQueue.removeEntity(toStack.getEntity());
         }
 
-        Runnable removeTask = () -> removable.stream().map(StackedEntity::getEntity).forEach(Entity::remove);
-        if (Bukkit.isPrimaryThread()) {
-            removeTask.run();
-        } else {
-            ThreadUtils.runSync(removeTask);
-        }
+        syncMutationQueue.updateDisplay(increased);
     }
 
     /**
@@ -1024,20 +1573,26 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         if (this.isRemoved(item))
             return;
 
+        List<Entity> nearbyItems = NEARBY_ENTITIES_BUFFER.get();
         Predicate<Entity> predicate = x -> x.getType() == VersionUtils.ITEM;
-        Set<Item> nearbyItems = this.entityCacheManager.getNearbyEntities(stackedItem.getLocation(), SettingKey.ITEM_MERGE_RADIUS.get(), predicate)
-                .stream()
-                .map(x -> (Item) x)
-                .collect(Collectors.toSet());
+        this.entityCacheManager.getNearbyEntities(stackedItem.getLocation(), SettingKey.ITEM_MERGE_RADIUS.get(), predicate, nearbyItems);
 
         Set<StackedItem> targetItems = new HashSet<>();
-        for (Item otherItem : nearbyItems) {
-            if (item == otherItem || otherItem.getPickupDelay() > 40 || !item.getItemStack().isSimilar(otherItem.getItemStack()) || this.isRemoved(otherItem))
-                continue;
+        int similarityKey = stackedItem.getSimilarityKey();
+        ItemStack itemStack = item.getItemStack();
+        try {
+            for (Entity otherEntity : nearbyItems) {
+                Item otherItem = (Item) otherEntity;
+                if (item == otherItem || otherItem.getPickupDelay() > 40 || this.isRemoved(otherItem))
+                    continue;
 
-            StackedItem other = this.stackedItems.get(otherItem.getUniqueId());
-            if (other != null)
-                targetItems.add(other);
+                // Only fall back to a full ItemStack comparison if the keys match, the keys can collide
+                StackedItem other = this.stackedItems.get(otherItem.getUniqueId());
+                if (other != null && other.getSimilarityKey() == similarityKey && itemStack.isSimilar(otherItem.getItemStack()))
+                    targetItems.add(other);
+            }
+        } finally {
+            nearbyItems.clear();
         }
 
         int totalSize = stackedItem.getStackSize();
@@ -1049,6 +1604,7 @@ public class StackingThread implements StackingLogic, AutoCloseable {
             }
         }
 
+        SyncMutationQueue syncMutationQueue = this.stackManager.getSyncMutationQueue();
         StackedItem headStack = stackedItem;
         for (StackedItem other : removable) {
             StackedItem increased = headStack.compareTo(other) > 0 ? headStack : other;
@@ -1061,20 +1617,15 @@ public class StackingThread implements StackingLogic, AutoCloseable {
             if (itemStackEvent.isCancelled())
                 continue;
 
-            increased.increaseStackSize(removed.getStackSize(), true);
+            increased.increaseStackSize(removed.getStackSize(), false);
+            syncMutationQueue.updateDisplay(increased);
             if (SettingKey.ITEM_RESET_DESPAWN_TIMER_ON_MERGE.get())
                 increased.getItem().setTicksLived(1); // Reset the 5 minute pickup timer
 
             increased.getItem().setPickupDelay(Math.max(increased.getItem().getPickupDelay(), removed.getItem().getPickupDelay()));
             removed.getItem().setPickupDelay(100); // Don't allow the item we just merged to get picked up or stacked
 
-            Runnable removeTask = () -> removed.getItem().remove();
-            if (Bukkit.isPrimaryThread()) {
-                removeTask.run();
-            } else {
-                ThreadUtils.runSync(removeTask);
-            }
-
+            syncMutationQueue.removeEntity(removed.getItem());
             this.removeItemStack(removed);
         }
     }
@@ -1114,4 +1665,55 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         return this.targetWorld;
     }
 
+    /**
+     * A recurring pass over a set of values that can be paused once a deadline is reached and resumed later.
+     * A new pass is only started once the previous one has finished, so passes of the same job never overlap.
+     *
+     * @param <T> the type of value processed by the pass
+     */
+    private class StackingJob<T> {
+
+        private final long frequency;
+        private final Supplier<Iterator<T>> passSupplier;
+        private final Consumer<T> processor;
+        private Iterator<T> pass;
+        private long nextRunTick;
+
+        public StackingJob(long frequency, Supplier<Iterator<T>> passSupplier, Consumer<T> processor) {
+            this.frequency = Math.max(frequency, 1);
+            this.passSupplier = passSupplier;
+            this.processor = processor;
+            this.nextRunTick = JOB_START_DELAY;
+        }
+
+        /**
+         * Starts a new pass if one is due, then processes the current pass until it finishes or the deadline is reached
+         *
+         * @param currentTick the tick number of the StackingScheduler
+         * @param deadline the {@link System#nanoTime()} to stop processing at
+         */
+        public void run(long currentTick, long deadline) {
+            try {
+                if (this.pass == null) {
+                    if (currentTick < this.nextRunTick)
+                        return;
+                    this.pass = this.passSupplier.get();
+                }
+
+                while (this.pass.hasNext()) {
+                    if (StackingThread.this.closed || System.nanoTime() >= deadline)
+                        return;
+                    this.processor.accept(this.pass.next());
+                }
+            } catch (Exception e) {
+                StackingThread.this.rosePlugin.getLogger().log(Level.WARNING, "A stacking pass for world " + StackingThread.this.targetWorld.getName() + " failed", e);
+            }
+
+            // The next pass is measured from when this one finished, so a slow pass can't cause a backlog
+            this.pass = null;
+            this.nextRunTick = currentTick + this.frequency;
+        }
+
+    }
+
 }
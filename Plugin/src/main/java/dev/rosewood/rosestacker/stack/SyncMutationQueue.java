@@ -0,0 +1,229 @@
+package dev.rosewood.rosestacker.stack;
+
+import dev.rosewood.rosegarden.RosePlugin;
+import dev.rosewood.rosestacker.config.SettingKey;
+import dev.rosewood.rosestacker.utils.PersistentDataUtils;
+import dev.rosewood.rosestacker.utils.ThreadUtils;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.Vector;
+
+/**
+ * Collects changes that have to be made to entities on the main thread and applies them in a single task each tick.
+ * Display updates and velocity changes for the same stack or entity are merged together while they are queued.
+ * At most sync-mutations-per-tick changes are applied per tick, anything left over is applied on the next tick.
+ * Once closed, changes are applied directly instead of being queued.
+ */
+public class SyncMutationQueue implements AutoCloseable {
+
+    private final RosePlugin rosePlugin;
+    private final BukkitTask task;
+    private final Queue<Entity> removals;
+    private final Queue<LivingEntity> aiRemovals;
+    private final Map<Entity, Vector> velocities;
+    private final Set<Stack<?>> displayUpdates;
+    private final Queue<Runnable> tasks;
+    private final AtomicInteger queueDepth;
+    private volatile boolean closed;
+
+    public SyncMutationQueue(RosePlugin rosePlugin) {
+        this.rosePlugin = rosePlugin;
+        this.removals = new ConcurrentLinkedQueue<>();
+        this.aiRemovals = new ConcurrentLinkedQueue<>();
+        this.velocities = new ConcurrentHashMap<>();
+        this.displayUpdates = ConcurrentHashMap.newKeySet();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.queueDepth = new AtomicInteger();
+        this.task = Bukkit.getScheduler().runTaskTimer(rosePlugin, this::drain, 1L, 1L);
+    }
+
+    /**
+     * Queues an entity to be removed from the world
+     *
+     * @param entity The entity to remove
+     */
+    public void removeEntity(Entity entity) {
+        if (Bukkit.isPrimaryThread()) {
+            entity.remove();
+            return;
+        }
+
+        if (this.applyIfClosed(entity::remove))
+            return;
+
+        this.removals.add(entity);
+        this.queueDepth.incrementAndGet();
+    }
+
+    /**
+     * Queues the AI of an entity to be removed
+     *
+     * @param entity The entity to remove the AI of
+     */
+    public void removeEntityAi(LivingEntity entity) {
+        if (this.applyIfClosed(() -> this.applyAiRemoval(entity)))
+            return;
+
+        this.aiRemovals.add(entity);
+        this.queueDepth.incrementAndGet();
+    }
+
+    /**
+     * Queues the velocity of an entity to be set, replaces any velocity already queued for the entity
+     *
+     * @param entity The entity to set the velocity of
+     * @param velocity The velocity to set
+     */
+    public void setVelocity(Entity entity, Vector velocity) {
+        if (this.applyIfClosed(() -> this.applyVelocity(entity, velocity)))
+            return;
+
+        if (this.velocities.put(entity, velocity) == null)
+            this.queueDepth.incrementAndGet();
+    }
+
+    /**
+     * Queues the display of a stack to be updated, does nothing if an update is already queued for the stack
+     *
+     * @param stack The stack to update the display of
+     */
+    public void updateDisplay(Stack<?> stack) {
+        if (this.applyIfClosed(stack::updateDisplay))
+            return;
+
+        if (this.displayUpdates.add(stack))
+            this.queueDepth.incrementAndGet();
+    }
+
+    /**
+     * Queues any other task that needs to be run on the main thread
+     *
+     * @param task The task to run
+     */
+    public void runSync(Runnable task) {
+        if (this.applyIfClosed(() -> this.applyTask(task)))
+            return;
+
+        this.tasks.add(task);
+        this.queueDepth.incrementAndGet();
+    }
+
+    /**
+     * @return the number of changes waiting to be applied
+     */
+    public int getQueueDepth() {
+        return this.queueDepth.get();
+    }
+
+    private void drain() {
+        int remaining = Math.max(SettingKey.SYNC_MUTATIONS_PER_TICK.get(), 1);
+        Iterator<Map.Entry<Entity, Vector>> velocityIterator = this.velocities.entrySet().iterator();
+        Iterator<Stack<?>> displayIterator = this.displayUpdates.iterator();
+
+        // Apply one change of each kind per round so a backlog of one kind can't starve the others under the limit.
+        // Removals go first in each round so we don't waste time updating entities that are about to be removed
+        while (remaining > 0) {
+            int previous = remaining;
+
+            Entity removal = this.removals.poll();
+            if (removal != null) {
+                removal.remove();
+                remaining = this.applied(remaining);
+            }
+
+            LivingEntity aiRemoval;
+            if (remaining > 0 && (aiRemoval = this.aiRemovals.poll()) != null) {
+                this.applyAiRemoval(aiRemoval);
+                remaining = this.applied(remaining);
+            }
+
+            if (remaining > 0 && velocityIterator.hasNext()) {
+                Map.Entry<Entity, Vector> entry = velocityIterator.next();
+                velocityIterator.remove();
+                this.applyVelocity(entry.getKey(), entry.getValue());
+                remaining = this.applied(remaining);
+            }
+
+            if (remaining > 0 && displayIterator.hasNext()) {
+                Stack<?> stack = displayIterator.next();
+                displayIterator.remove();
+                stack.updateDisplay();
+                remaining = this.applied(remaining);
+            }
+
+            Runnable task;
+            if (remaining > 0 && (task = this.tasks.poll()) != null) {
+                this.applyTask(task);
+                remaining = this.applied(remaining);
+            }
+
+            if (remaining == previous)
+                break;
+        }
+    }
+
+    private void applyAiRemoval(LivingEntity entity) {
+        if (entity.isValid())
+            PersistentDataUtils.removeEntityAi(entity);
+    }
+
+    private void applyVelocity(Entity entity, Vector velocity) {
+        if (entity.isValid())
+            entity.setVelocity(velocity);
+    }
+
+    private void applyTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            this.rosePlugin.getLogger().log(Level.WARNING, "Failed to apply a queued change", e);
+        }
+    }
+
+    private int applied(int remaining) {
+        this.queueDepth.decrementAndGet();
+        return remaining - 1;
+    }
+
+    /**
+     * Applies a change right away if the queue has been closed, on the main thread if we aren't already on it
+     *
+     * @param change The change to apply
+     * @return true if the change was applied, false if it should be queued
+     */
+    private boolean applyIfClosed(Runnable change) {
+        if (!this.closed)
+            return false;
+
+        if (Bukkit.isPrimaryThread()) {
+            change.run();
+        } else {
+            ThreadUtils.runSync(change);
+        }
+
+        return true;
+    }
+
+    /**
+     * Cancels the drain task and applies everything that is still queued, changes made after this are applied directly
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.task.cancel();
+
+        while (!this.removals.isEmpty() || !this.aiRemovals.isEmpty() || !this.velocities.isEmpty() || !this.displayUpdates.isEmpty() || !this.tasks.isEmpty())
+            this.drain();
+    }
+
+}
@@ -11,10 +11,12 @@ import dev.rosewood.rosestacker.hook.SpawnerFlagPersistenceHook;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorageType;
 import dev.rosewood.rosestacker.stack.EntityStackComparisonResult;
+import dev.rosewood.rosestacker.stack.LootDistribution;
 import dev.rosewood.rosestacker.stack.StackedEntity;
 import dev.rosewood.rosestacker.stack.settings.conditions.entity.StackConditions;
 import dev.rosewood.rosestacker.utils.PersistentDataUtils;
 import dev.rosewood.rosestacker.utils.StackerUtils;
+import dev.rosewood.rosestacker.utils.VersionUtils;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -22,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import org.bukkit.Material;
 import org.bukkit.entity.Ageable;
@@ -37,6 +40,8 @@ import org.bukkit.entity.PigZombie;
 import org.bukkit.entity.Raider;
 import org.bukkit.entity.Wolf;
 import org.bukkit.inventory.EntityEquipment;
+import org.bukkit.inventory.EquipmentSlot;
+import org.bukkit.inventory.ItemStack;
 import org.jetbrains.annotations.ApiStatus;
 
 public class EntityStackSettings extends StackSettings {
@@ -62,6 +67,9 @@ public class EntityStackSettings extends StackSettings {
     private final List<StackConditionEntry<?>> stackConditions;
     private final Map<String, EntitySetting> extraSettings;
 
+    // Drop rates learned from approximated loot, reset whenever the settings or loot tables are reloaded
+    private final Map<String, LootDistribution> lootDistributions;
+
     // Settings that apply to every entity
     private final boolean enabled;
     private final String displayName;
@@ -90,6 +98,7 @@ public class EntityStackSettings extends StackSettings {
             this.stackConditions.add(new StackConditionEntry<>(stackCondition));
 
         this.extraSettings = new HashMap<>();
+        this.lootDistributions = new ConcurrentHashMap<>();
 
         switch (this.entityType.getKey().getKey()) {
             case "chicken" -> {
@@ -216,6 +225,50 @@ public class EntityStackSettings extends StackSettings {
         return EntityStackComparisonResult.CAN_STACK;
     }
 
+    /**
+     * Calculates a fingerprint of the state of an entity that is relevant for stacking.
+     * If two entities have a different fingerprint then at least one stack condition will fail between them, the same
+     * fingerprint does not guarantee they can stack. Position-dependent and frequently changing state is not included.
+     *
+     * @param entity The entity to calculate the fingerprint for
+     * @return the compatibility fingerprint of the entity
+     */
+    public int calculateCompatibilityFingerprint(LivingEntity entity) {
+        int fingerprint = entity.getType().hashCode();
+        fingerprint = 31 * fingerprint + Boolean.hashCode(PersistentDataUtils.isUnstackable(entity));
+
+        if (SettingKey.ENTITY_DONT_STACK_CUSTOM_NAMED.get() && (entity.getType() != VersionUtils.SNOW_GOLEM || !this.getSettingValue(SNOW_GOLEM_FORCE_CUSTOM_NAMED_STACKING).getBoolean()))
+            fingerprint = 31 * fingerprint + Boolean.hashCode(entity.getCustomName() != null);
+
+        if (this.shouldOnlyStackFromSpawners())
+            fingerprint = 31 * fingerprint + Boolean.hashCode(PersistentDataUtils.isSpawnedFromSpawner(entity));
+
+        if (SettingKey.ENTITY_DONT_STACK_IF_INVULNERABLE.get())
+            fingerprint = 31 * fingerprint + Boolean.hashCode(entity.isInvulnerable());
+
+        if (SettingKey.ENTITY_DONT_STACK_IF_HAS_EQUIPMENT.get())
+            fingerprint = 31 * fingerprint + Boolean.hashCode(this.hasNonStandardEquipment(entity));
+
+        for (StackConditionEntry<?> stackCondition : this.stackConditions)
+            fingerprint = 31 * fingerprint + stackCondition.fingerprint(entity);
+
+        return fingerprint;
+    }
+
+    private boolean hasNonStandardEquipment(LivingEntity entity) {
+        EntityEquipment equipment = entity.getEquipment();
+        if (equipment == null)
+            return false;
+
+        for (EquipmentSlot equipmentSlot : EquipmentSlot.values()) {
+            ItemStack item = equipment.getItem(equipmentSlot);
+            if (item.getType() != Material.AIR && !this.entityTypeData.isStandardEquipment(item))
+                return true;
+        }
+
+        return false;
+    }
+
     @Override
     public String getConfigurationSectionKey() {
         return this.entityType.name();
@@ -364,6 +417,24 @@ public class EntityStackSettings extends StackSettings {
         return this.entityTypeData;
     }
 
+    /**
+     * Gets the learned drop rates of this EntityType for a looting level and variant
+     *
+     * @param lootingLevel The looting level the entities are killed with
+     * @param variant The variant of the entities, such as what they were killed by
+     * @return the drop rates, created empty if none have been learned yet
+     */
+    public LootDistribution getLootDistribution(int lootingLevel, String variant) {
+        return this.lootDistributions.computeIfAbsent(lootingLevel + ":" + variant, x -> new LootDistribution());
+    }
+
+    /**
+     * Forgets all learned drop rates of this EntityType
+     */
+    public void clearLootDistributions() {
+        this.lootDistributions.clear();
+    }
+
     @SuppressWarnings("unchecked")
     private class StackConditionEntry<T> {
 
@@ -397,6 +468,18 @@ public class EntityStackSettings extends StackSettings {
             }
         }
 
+        public int fingerprint(Entity entity) {
+            StackConditions.StackPropertyFunction<T> propertyFunction = this.condition.propertyFunction();
+            if (!this.enabled || propertyFunction == null || !this.condition.clazz().isInstance(entity))
+                return 0;
+
+            try {
+                return Objects.hashCode(propertyFunction.get((T) entity));
+            } catch (ClassCastException e) {
+                return 0;
+            }
+        }
+
         private void printWarning(Entity entity1, Entity entity2) {
             if (this.displayedWarning)
                 return;
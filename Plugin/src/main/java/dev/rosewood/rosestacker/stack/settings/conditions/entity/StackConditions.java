@@ -16,6 +16,8 @@ import dev.rosewood.rosestacker.stack.settings.EntityStackSettings;
 import dev.rosewood.rosestacker.utils.PersistentDataUtils;
 import dev.rosewood.rosestacker.utils.VersionUtils;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
 import org.bukkit.Material;
 import org.bukkit.entity.AbstractHorse;
 import org.bukkit.entity.Ageable;
@@ -163,9 +165,9 @@ public final class StackConditions {
         });
 
         // Register conditions for specific interfaces
-        registerConfig(Colorable.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, (entity1, entity2) -> entity1.getColor() != entity2.getColor());
+        registerConfigProperty(Colorable.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, Colorable::getColor);
         registerConfig(Sittable.class, "sitting", false, EntityStackComparisonResult.SITTING, (entity1, entity2) -> entity1.isSitting() || entity2.isSitting());
-        registerConfig(Tameable.class, "tamed", false, EntityStackComparisonResult.TAMED, (entity1, entity2) -> entity1.isTamed() || entity2.isTamed());
+        registerConfigFlag(Tameable.class, "tamed", false, EntityStackComparisonResult.TAMED, Tameable::isTamed);
         registerConfig(Tameable.class, "different-owners", false, EntityStackComparisonResult.DIFFERENT_OWNERS, (entity1, entity2) -> {
             AnimalTamer tamer1 = entity1.getOwner();
             AnimalTamer tamer2 = entity2.getOwner();
@@ -183,26 +185,26 @@ public final class StackConditions {
         registerConfig(Ageable.class, "different-age", true, EntityStackComparisonResult.DIFFERENT_AGES, (entity1, entity2) -> entity1.isAdult() != entity2.isAdult());
         registerConfig(Ageable.class, "baby", false, EntityStackComparisonResult.BABY, (entity1, entity2) -> !entity1.isAdult() || !entity2.isAdult());
         registerConfig(AbstractHorse.class, "saddled", false, EntityStackComparisonResult.SADDLED, (entity1, entity2) -> entity1.getInventory().getSaddle() != null || entity2.getInventory().getSaddle() != null);
-        registerConfig(ChestedHorse.class, "chested", false, EntityStackComparisonResult.HAS_CHEST, (entity1, entity2) -> entity1.isCarryingChest() || entity2.isCarryingChest());
-        registerConfig(Raider.class, "patrol-leader", false, EntityStackComparisonResult.PATROL_LEADER, (entity1, entity2) -> entity1.isPatrolLeader() || entity2.isPatrolLeader());
+        registerConfigFlag(ChestedHorse.class, "chested", false, EntityStackComparisonResult.HAS_CHEST, ChestedHorse::isCarryingChest);
+        registerConfigFlag(Raider.class, "patrol-leader", false, EntityStackComparisonResult.PATROL_LEADER, Raider::isPatrolLeader);
         registerConfig(Merchant.class, "trading", false, EntityStackComparisonResult.TRADING, (entity1, entity2) -> entity1.isTrading() || entity2.isTrading());
 
         // Register conditions for specific entities
         int versionNumber = NMSUtil.getVersionNumber();
         int minorVersionNumber = NMSUtil.getMinorVersionNumber();
         if (versionNumber >= 21) {
-            registerConfig(Wolf.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getVariant() != entity2.getVariant());
+            registerConfigProperty(Wolf.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Wolf::getVariant);
         }
 
         if (versionNumber > 20 || (versionNumber == 20 && minorVersionNumber >= 5)) {
             // Armadillo, Bogged, Breeze, only Bogged has API as of 17/August/2024
-            registerConfig(Bogged.class, "sheared", false, EntityStackComparisonResult.SHEARED, (entity1, entity2) -> shearedHandler.isSheared(entity1) || shearedHandler.isSheared(entity2));
+            registerConfigFlag(Bogged.class, "sheared", false, EntityStackComparisonResult.SHEARED, shearedHandler::isSheared);
         }
 
         if (versionNumber >= 19) {
             // Allay, Frog, Goat (extras), Tadpole, Warden
             registerConfig(Allay.class, "holding-items", false, EntityStackComparisonResult.HOLDING_ITEMS, (entity1, entity2) -> !entity1.getInventory().isEmpty() || !entity2.getInventory().isEmpty());
-            registerConfig(Frog.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getVariant() != entity2.getVariant());
+            registerConfigProperty(Frog.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Frog::getVariant);
             registerConfig(Goat.class, "different-horns", false, EntityStackComparisonResult.DIFFERENT_HORNS, (entity1, entity2) -> entity1.hasLeftHorn() != entity2.hasLeftHorn() || entity1.hasRightHorn() != entity2.hasRightHorn());
 
             // 1.19.3+
@@ -213,7 +215,7 @@ public final class StackConditions {
 
         if (versionNumber >= 17) {
             // Axolotl, Glow Squid, Goat
-            registerConfig(Axolotl.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, (entity1, entity2) -> entity1.getVariant() != entity2.getVariant());
+            registerConfigProperty(Axolotl.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, Axolotl::getVariant);
             registerConfig(Axolotl.class, "playing-dead", false, EntityStackComparisonResult.PLAYING_DEAD, (entity1, entity2) -> entity1.isPlayingDead() || entity2.isPlayingDead());
             registerConfig(GlowSquid.class, "dark", false, EntityStackComparisonResult.BRAVO_SIX_GOING_DARK, (entity1, entity2) -> entity1.getDarkTicksRemaining() > 0 || entity2.getDarkTicksRemaining() > 0);
             registerConfig(Goat.class, "screaming", false, EntityStackComparisonResult.SCREAMING, (entity1, entity2) -> entity1.isScreaming() || entity2.isScreaming());
@@ -227,39 +229,39 @@ public final class StackConditions {
         registerConfig(Bee.class, "stung", false, EntityStackComparisonResult.HAS_STUNG, (entity1, entity2) -> entity1.hasStung() || entity2.hasStung());
         registerConfig(Bee.class, "has-flower", false, EntityStackComparisonResult.HAS_FLOWER, (entity1, entity2) -> entity1.getFlower() != null || entity2.getFlower() != null);
         registerConfig(Bee.class, "has-nectar", false, EntityStackComparisonResult.HAS_NECTAR, (entity1, entity2) -> entity1.hasNectar() || entity2.hasNectar());
-        registerConfig(Cat.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getCatType() != entity2.getCatType());
-        registerConfig(Cat.class, "different-collar-color", false, EntityStackComparisonResult.DIFFERENT_COLLAR_COLORS, (entity1, entity2) -> entity1.getCollarColor() != entity2.getCollarColor());
-        registerConfig(Creeper.class, "charged", false, EntityStackComparisonResult.CHARGED, (entity1, entity2) -> entity1.isPowered() || entity2.isPowered());
+        registerConfigProperty(Cat.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Cat::getCatType);
+        registerConfigProperty(Cat.class, "different-collar-color", false, EntityStackComparisonResult.DIFFERENT_COLLAR_COLORS, Cat::getCollarColor);
+        registerConfigFlag(Creeper.class, "charged", false, EntityStackComparisonResult.CHARGED, Creeper::isPowered);
         registerConfig(Enderman.class, "holding-block", false, EntityStackComparisonResult.HOLDING_BLOCK, (entity1, entity2) -> entity1.getCarriedBlock() != null || entity2.getCarriedBlock() != null);
-        registerConfig(Fox.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getFoxType() != entity2.getFoxType());
+        registerConfigProperty(Fox.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Fox::getFoxType);
         registerConfig(Hoglin.class, "unhuntable", false, EntityStackComparisonResult.UNHUNTABLE, (entity1, entity2) -> !entity1.isAbleToBeHunted() || entity2.isAbleToBeHunted());
         registerConfig(Horse.class, "armored", false, EntityStackComparisonResult.HAS_ARMOR, (entity1, entity2) -> entity1.getInventory().getArmor() != null || entity2.getInventory().getArmor() != null);
-        registerConfig(Horse.class, "different-style", false, EntityStackComparisonResult.DIFFERENT_STYLES, (entity1, entity2) -> entity1.getStyle() != entity2.getStyle());
-        registerConfig(Horse.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, (entity1, entity2) -> entity1.getColor() != entity2.getColor());
-        registerConfig(IronGolem.class, "player-created", false, EntityStackComparisonResult.SPAWNED_BY_PLAYER, (entity1, entity2) -> entity1.isPlayerCreated() || entity2.isPlayerCreated());
+        registerConfigProperty(Horse.class, "different-style", false, EntityStackComparisonResult.DIFFERENT_STYLES, Horse::getStyle);
+        registerConfigProperty(Horse.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, Horse::getColor);
+        registerConfigFlag(IronGolem.class, "player-created", false, EntityStackComparisonResult.SPAWNED_BY_PLAYER, IronGolem::isPlayerCreated);
         registerConfig(Llama.class, "different-decor", false, EntityStackComparisonResult.DIFFERENT_DECORS, (entity1, entity2) -> entity1.getInventory().getDecor() != entity2.getInventory().getDecor());
-        registerConfig(Llama.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, (entity1, entity2) -> entity1.getColor() != entity2.getColor());
-        registerConfig(MushroomCow.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getVariant() != entity2.getVariant());
-        registerConfig(Panda.class, "different-main-gene", false, EntityStackComparisonResult.DIFFERENT_MAIN_GENES, (entity1, entity2) -> entity1.getMainGene() != entity2.getMainGene());
-        registerConfig(Panda.class, "different-recessive-gene", false, EntityStackComparisonResult.DIFFERENT_RECESSIVE_GENES, (entity1, entity2) -> entity1.getHiddenGene() != entity2.getHiddenGene());
-        registerConfig(Parrot.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getVariant() != entity2.getVariant());
-        registerConfig(Phantom.class, "different-size", true, EntityStackComparisonResult.DIFFERENT_SIZES, (entity1, entity2) -> entity1.getSize() != entity2.getSize());
+        registerConfigProperty(Llama.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, Llama::getColor);
+        registerConfigProperty(MushroomCow.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, MushroomCow::getVariant);
+        registerConfigProperty(Panda.class, "different-main-gene", false, EntityStackComparisonResult.DIFFERENT_MAIN_GENES, Panda::getMainGene);
+        registerConfigProperty(Panda.class, "different-recessive-gene", false, EntityStackComparisonResult.DIFFERENT_RECESSIVE_GENES, Panda::getHiddenGene);
+        registerConfigProperty(Parrot.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Parrot::getVariant);
+        registerConfigProperty(Phantom.class, "different-size", true, EntityStackComparisonResult.DIFFERENT_SIZES, Phantom::getSize);
         registerConfig(PiglinAbstract.class, "converting", false, EntityStackComparisonResult.CONVERTING, (entity1, entity2) -> entity1.isConverting() || entity2.isConverting());
-        registerConfig(PiglinAbstract.class, "immune-to-zombification", false, EntityStackComparisonResult.IMMUNE_TO_ZOMBIFICATION, (entity1, entity2) -> entity1.isImmuneToZombification() != entity2.isImmuneToZombification());
+        registerConfigProperty(PiglinAbstract.class, "immune-to-zombification", false, EntityStackComparisonResult.IMMUNE_TO_ZOMBIFICATION, PiglinAbstract::isImmuneToZombification);
         registerConfig(Piglin.class, "unable-to-hunt", false, EntityStackComparisonResult.UNABLE_TO_HUNT, (entity1, entity2) -> !entity1.isAbleToHunt() || !entity2.isAbleToHunt());
         registerConfig(PigZombie.class, "angry", false, EntityStackComparisonResult.ANGRY, (entity1, entity2) -> entity1.isAngry() || entity2.isAngry());
-        registerConfig(Pig.class, "saddled", false, EntityStackComparisonResult.SADDLED, (entity1, entity2) -> entity1.hasSaddle() || entity2.hasSaddle());
+        registerConfigFlag(Pig.class, "saddled", false, EntityStackComparisonResult.SADDLED, Pig::hasSaddle);
         registerConfig(PufferFish.class, "different-inflation", false, EntityStackComparisonResult.DIFFERENT_INFLATIONS, (entity1, entity2) -> entity1.getPuffState() != entity2.getPuffState());
-        registerConfig(Rabbit.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getRabbitType() != entity2.getRabbitType());
+        registerConfigProperty(Rabbit.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Rabbit::getRabbitType);
         registerConfig(Sheep.class, "sheared", false, EntityStackComparisonResult.SHEARED, (entity1, entity2) -> shearedHandler.isSheared(entity1) || shearedHandler.isSheared(entity2));
         registerConfig(Sheep.class, "different-shear-state", false, EntityStackComparisonResult.SHEARED_STATE_DIFFERENT, (entity1, entity2) -> shearedHandler.isSheared(entity1) != shearedHandler.isSheared(entity2));
-        registerConfig(Slime.class, "different-size", true, EntityStackComparisonResult.DIFFERENT_SIZES, (entity1, entity2) -> entity1.getSize() != entity2.getSize());
-        registerConfig(Snowman.class, "no-pumpkin", false, EntityStackComparisonResult.NO_PUMPKIN, (entity1, entity2) -> entity1.isDerp() || entity2.isDerp());
+        registerConfigProperty(Slime.class, "different-size", true, EntityStackComparisonResult.DIFFERENT_SIZES, Slime::getSize);
+        registerConfigFlag(Snowman.class, "no-pumpkin", false, EntityStackComparisonResult.NO_PUMPKIN, Snowman::isDerp);
         registerConfig(Strider.class, "shivering", false, EntityStackComparisonResult.SHIVERING, (entity1, entity2) -> entity1.isShivering() || entity2.isShivering());
-        registerConfig(Strider.class, "saddled", false, EntityStackComparisonResult.SADDLED, (entity1, entity2) -> entity1.hasSaddle() || entity2.hasSaddle());
-        registerConfig(TropicalFish.class, "different-body-color", false, EntityStackComparisonResult.DIFFERENT_BODY_COLORS, (entity1, entity2) -> entity1.getBodyColor() != entity2.getBodyColor());
-        registerConfig(TropicalFish.class, "different-pattern", false, EntityStackComparisonResult.DIFFERENT_PATTERNS, (entity1, entity2) -> entity1.getPattern() != entity2.getPattern());
-        registerConfig(TropicalFish.class, "different-pattern-color", false, EntityStackComparisonResult.DIFFERENT_PATTERN_COLORS, (entity1, entity2) -> entity1.getPatternColor() != entity2.getPatternColor());
+        registerConfigFlag(Strider.class, "saddled", false, EntityStackComparisonResult.SADDLED, Strider::hasSaddle);
+        registerConfigProperty(TropicalFish.class, "different-body-color", false, EntityStackComparisonResult.DIFFERENT_BODY_COLORS, TropicalFish::getBodyColor);
+        registerConfigProperty(TropicalFish.class, "different-pattern", false, EntityStackComparisonResult.DIFFERENT_PATTERNS, TropicalFish::getPattern);
+        registerConfigProperty(TropicalFish.class, "different-pattern-color", false, EntityStackComparisonResult.DIFFERENT_PATTERN_COLORS, TropicalFish::getPatternColor);
         registerConfig(Vex.class, "charging", false, EntityStackComparisonResult.CHARGING, (entity1, entity2) -> entity1.isCharging() || entity2.isCharging());
         registerConfig(Villager.class, "professioned", false, EntityStackComparisonResult.PROFESSIONED, (entity1, entity2) -> {
             List<String> professionValues = List.of("none", "nitwit");
@@ -267,13 +269,13 @@ public final class StackConditions {
             WrappedKeyed profession2 = oldEnumHandler.getProfession(entity2);
             return !professionValues.contains(profession1.getKey().getKey()) || !professionValues.contains(profession2.getKey().getKey());
         });
-        registerConfig(Villager.class, "different-profession", false, EntityStackComparisonResult.DIFFERENT_PROFESSIONS, (entity1, entity2) -> entity1.getProfession() != entity2.getProfession());
-        registerConfig(Villager.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getVillagerType() != entity2.getVillagerType());
-        registerConfig(Villager.class, "different-level", false, EntityStackComparisonResult.DIFFERENT_LEVELS, (entity1, entity2) -> entity1.getVillagerLevel() != entity2.getVillagerLevel());
+        registerConfigProperty(Villager.class, "different-profession", false, EntityStackComparisonResult.DIFFERENT_PROFESSIONS, Villager::getProfession);
+        registerConfigProperty(Villager.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Villager::getVillagerType);
+        registerConfigProperty(Villager.class, "different-level", false, EntityStackComparisonResult.DIFFERENT_LEVELS, Villager::getVillagerLevel);
         registerConfig(Wolf.class, "angry", false, EntityStackComparisonResult.ANGRY, (entity1, entity2) -> entity1.isAngry() || entity2.isAngry());
-        registerConfig(Wolf.class, "different-collar-color", false, EntityStackComparisonResult.DIFFERENT_COLLAR_COLORS, (entity1, entity2) -> entity1.getCollarColor() != entity2.getCollarColor());
+        registerConfigProperty(Wolf.class, "different-collar-color", false, EntityStackComparisonResult.DIFFERENT_COLLAR_COLORS, Wolf::getCollarColor);
         registerConfig(Zombie.class, "converting", false, EntityStackComparisonResult.CONVERTING, (entity1, entity2) -> entity1.isConverting() || entity2.isConverting());
-        registerConfig(ZombieVillager.class, "different-profession", false, EntityStackComparisonResult.DIFFERENT_PROFESSIONS, (entity1, entity2) -> entity1.getVillagerProfession() != entity2.getVillagerProfession());
+        registerConfigProperty(ZombieVillager.class, "different-profession", false, EntityStackComparisonResult.DIFFERENT_PROFESSIONS, ZombieVillager::getVillagerProfession);
         registerConfig(ZombieVillager.class, "converting", false, EntityStackComparisonResult.CONVERTING, (entity1, entity2) -> entity1.isConverting() || entity2.isConverting());
     }
 
@@ -293,17 +295,57 @@ public final class StackConditions {
                 -> validationPredicate.test(entity1, entity2) ? failureReason : EntityStackComparisonResult.CAN_STACK);
     }
 
+    /**
+     * Registers a condition that fails when two entities have a different value for a property.
+     * The property is also included in the compatibility fingerprint of the entity, so it should only be used for state
+     * that doesn't change often.
+     *
+     * @param assignableClass The class the condition applies to
+     * @param key The config key of the condition, prefixed with dont-stack-if-
+     * @param defaultEnabled true if the condition should be enabled by default, false otherwise
+     * @param failureReason The result to return when the condition fails
+     * @param propertyFunction The function to get the property value from an entity
+     */
+    public static <T> void registerConfigProperty(Class<T> assignableClass, String key, boolean defaultEnabled, EntityStackComparisonResult failureReason, StackPropertyFunction<T> propertyFunction) {
+        registerInternal(assignableClass, new ConfigProperties("dont-stack-if-" + key, defaultEnabled), (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                -> !Objects.equals(propertyFunction.get(entity1), propertyFunction.get(entity2)) ? failureReason : EntityStackComparisonResult.CAN_STACK, propertyFunction);
+    }
+
+    /**
+     * Registers a condition that fails when either entity has a flag set.
+     * The flag is also included in the compatibility fingerprint of the entity, so it should only be used for state
+     * that doesn't change often.
+     *
+     * @param assignableClass The class the condition applies to
+     * @param key The config key of the condition, prefixed with dont-stack-if-
+     * @param defaultEnabled true if the condition should be enabled by default, false otherwise
+     * @param failureReason The result to return when the condition fails
+     * @param flagPredicate The predicate to test if the flag is set on an entity
+     */
+    public static <T> void registerConfigFlag(Class<T> assignableClass, String key, boolean defaultEnabled, EntityStackComparisonResult failureReason, Predicate<T> flagPredicate) {
+        registerInternal(assignableClass, new ConfigProperties("dont-stack-if-" + key, defaultEnabled), (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                -> flagPredicate.test(entity1) || flagPredicate.test(entity2) ? failureReason : EntityStackComparisonResult.CAN_STACK, flagPredicate::test);
+    }
+
     public static <T> void register(Class<T> assignableClass, StackValidationFunction<T> validationFunction) {
         registerInternal(assignableClass, null, validationFunction);
     }
 
     private static <T, P extends StackValidationFunction<T>> void registerInternal(Class<T> assignableClass, ConfigProperties configProperties, P validationFunction) {
-        CLASS_STACK_EVALUATION_MAP.put(assignableClass, new StackCondition<>(assignableClass, configProperties, validationFunction));
+        registerInternal(assignableClass, configProperties, validationFunction, null);
+    }
+
+    private static <T, P extends StackValidationFunction<T>> void registerInternal(Class<T> assignableClass, ConfigProperties configProperties, P validationFunction, StackPropertyFunction<T> propertyFunction) {
+        CLASS_STACK_EVALUATION_MAP.put(assignableClass, new StackCondition<>(assignableClass, configProperties, validationFunction, propertyFunction));
     }
 
     public record ConfigProperties(String key, boolean defaultValue) { }
 
-    public record StackCondition<T>(Class<T> clazz, ConfigProperties configProperties, StackValidationFunction<T> function) { }
+    /**
+     * @param propertyFunction Gets the value this condition compares, two entities with different values can never stack
+     *                         together while the condition is enabled. Null if the condition can't be fingerprinted.
+     */
+    public record StackCondition<T>(Class<T> clazz, ConfigProperties configProperties, StackValidationFunction<T> function, StackPropertyFunction<T> propertyFunction) { }
 
     @FunctionalInterface
     public interface StackValidationFunction<T> {
@@ -317,4 +359,9 @@ public final class StackConditions {
         boolean test(T entity1, T entity2);
     }
 
+    @FunctionalInterface
+    public interface StackPropertyFunction<T> {
+        Object get(T entity);
+    }
+
 }
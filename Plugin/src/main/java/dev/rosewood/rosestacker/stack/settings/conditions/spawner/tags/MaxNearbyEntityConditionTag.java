@@ -9,7 +9,7 @@ import dev.rosewood.rosestacker.stack.StackedEntity;
 import dev.rosewood.rosestacker.stack.StackedSpawner;
 import dev.rosewood.rosestacker.stack.settings.SpawnerStackSettings;
 import dev.rosewood.rosestacker.stack.settings.conditions.spawner.ConditionTag;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.List;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
@@ -18,6 +18,9 @@ import org.bukkit.entity.LivingEntity;
 
 public class MaxNearbyEntityConditionTag extends ConditionTag {
 
+    // Spawner conditions are checked asynchronously, so each thread gets its own buffer
+    private static final ThreadLocal<List<Entity>> NEARBY_ENTITIES_BUFFER = ThreadLocal.withInitial(ArrayList::new);
+
     private int maxNearbyEntities;
     private StackManager stackManager;
     private EntityCacheManager entityCacheManager;
@@ -38,18 +41,26 @@ public class MaxNearbyEntityConditionTag extends ConditionTag {
         Block block = stackedSpawner.getBlock();
         List<EntityType> entityTypes = stackedSpawner.getSpawnerTile().getSpawnerType().getEntityTypes();
 
-        Collection<Entity> nearbyEntities = this.entityCacheManager.getNearbyEntities(
-                block.getLocation().clone().add(0.5, 0.5, 0.5),
-                detectionRange,
-                entity -> entityTypes.contains(entity.getType()));
+        List<Entity> nearbyEntities = NEARBY_ENTITIES_BUFFER.get();
+        try {
+            this.entityCacheManager.getNearbyEntities(
+                    block.getLocation().add(0.5, 0.5, 0.5),
+                    detectionRange,
+                    entity -> entityTypes.contains(entity.getType()),
+                    nearbyEntities);
 
-        if (SettingKey.SPAWNER_MAX_NEARBY_ENTITIES_INCLUDE_STACKS.get()) {
-            return nearbyEntities.stream().mapToInt(x -> {
-                StackedEntity stackedEntity = this.stackManager.getStackedEntity((LivingEntity) x);
-                return stackedEntity == null ? 1 : stackedEntity.getStackSize();
-            }).sum() < this.maxNearbyEntities;
-        } else {
-            return nearbyEntities.size() < this.maxNearbyEntities;
+            if (SettingKey.SPAWNER_MAX_NEARBY_ENTITIES_INCLUDE_STACKS.get()) {
+                int total = 0;
+                for (Entity entity : nearbyEntities) {
+                    StackedEntity stackedEntity = this.stackManager.getStackedEntity((LivingEntity) entity);
+                    total += stackedEntity == null ? 1 : stackedEntity.getStackSize();
+                }
+                return total < this.maxNearbyEntities;
+            } else {
+                return nearbyEntities.size() < this.maxNearbyEntities;
+            }
+        } finally {
+            nearbyEntities.clear();
         }
     }
 
@@ -2,8 +2,12 @@ package dev.rosewood.rosestacker.utils;
 
 import dev.rosewood.rosestacker.RoseStacker;
 import dev.rosewood.rosestacker.config.SettingKey;
+import dev.rosewood.rosestacker.manager.StackManager;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.nms.NMSHandler;
+import dev.rosewood.rosestacker.nms.storage.LazyStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.storage.SerializedEntityData;
+import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorage;
 import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorageType;
 import dev.rosewood.rosestacker.stack.StackedBlock;
 import dev.rosewood.rosestacker.stack.StackedEntity;
@@ -11,97 +15,161 @@ import dev.rosewood.rosestacker.stack.StackedItem;
 import dev.rosewood.rosestacker.stack.StackedSpawner;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 import org.bukkit.Chunk;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
 import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.Item;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataHolder;
 import org.bukkit.persistence.PersistentDataType;
 
 public final class DataUtils {
 
-    private static final NamespacedKey ENTITY_KEY = new NamespacedKey(RoseStacker.getInstance(), "stacked_entity_data");
-    private static final int ENTITY_DATA_VERSION = 2;
+    // Versions 1 and 2 were written with Java serialization streams, they are still read so existing data can migrate
+    private static final int DATA_VERSION = 3;
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int COMPRESSION_THRESHOLD = 256;
 
-    private static final NamespacedKey ITEM_KEY = new NamespacedKey(RoseStacker.getInstance(), "stacked_item_data");
-    private static final int ITEM_DATA_VERSION = 1;
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> COMPRESSION_BUFFER = ThreadLocal.withInitial(() -> new byte[8192]);
 
+    private static final NamespacedKey ENTITY_KEY = new NamespacedKey(RoseStacker.getInstance(), "stacked_entity_data");
+    private static final NamespacedKey ENTITY_SIZE_KEY = new NamespacedKey(RoseStacker.getInstance(), "stacked_entity_size");
+    private static final NamespacedKey ITEM_KEY = new NamespacedKey(RoseStacker.getInstance(), "stacked_item_data");
     private static final NamespacedKey CHUNK_SPAWNERS_KEY = new NamespacedKey(RoseStacker.getInstance(), "stacked_spawner_data");
-    private static final int SPAWNER_DATA_VERSION = 1;
-
     private static final NamespacedKey CHUNK_BLOCKS_KEY = new NamespacedKey(RoseStacker.getInstance(), "stacked_block_data");
-    private static final int BLOCK_DATA_VERSION = 1;
 
     public static StackedEntity readStackedEntity(LivingEntity entity, StackedEntityDataStorageType storageType) {
         PersistentDataContainer pdc = entity.getPersistentDataContainer();
         NMSHandler nmsHandler = NMSAdapter.getHandler();
         byte[] data = pdc.get(ENTITY_KEY, PersistentDataType.BYTE_ARRAY);
         if (data == null)
-            return new StackedEntity(entity, nmsHandler.createEntityDataStorage(entity, storageType));
-
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-             ObjectInputStream dataInput = new ObjectInputStream(new GZIPInputStream(inputStream))) {
-
-            int dataVersion = dataInput.readInt();
-            if (dataVersion == 1) {
-                int length = dataInput.readInt();
-                byte[] nbt = new byte[length];
-                for (int i = 0; i < length; i++)
-                    nbt[i] = dataInput.readByte();
-                return new StackedEntity(entity, nmsHandler.deserializeEntityDataStorage(entity, nbt, StackedEntityDataStorageType.NBT));
-            } else if (dataVersion == 2) {
-                StackedEntityDataStorageType type = StackedEntityDataStorageType.fromId(dataInput.readInt());
-                int length = dataInput.readInt();
-                byte[] nbt = new byte[length];
-                for (int i = 0; i < length; i++)
-                    nbt[i] = dataInput.readByte();
-                return new StackedEntity(entity, nmsHandler.deserializeEntityDataStorage(entity, nbt, type));
+            return new StackedEntity(entity, RoseStacker.getInstance().getManager(StackManager.class).wrapEntityDataStorage(entity, nmsHandler.createEntityDataStorage(entity, storageType)));
+
+        try {
+            DataInputStream dataInput = readCompactData(data);
+            if (dataInput != null) {
+                StackedEntityDataStorageType type = StackedEntityDataStorageType.fromId(readVarInt(dataInput));
+                int size = readVarInt(dataInput);
+                byte[] nbt = new byte[readVarInt(dataInput)];
+                dataInput.readFully(nbt);
+                if (dataInput.available() == 0)
+                    return createStackedEntity(entity, type, nbt, size);
+
+                // Stacks that were spilled are saved in several parts, each part is a storage of its own
+                List<byte[]> parts = new ArrayList<>();
+                parts.add(nbt);
+                while (dataInput.available() > 0) {
+                    byte[] part = new byte[readVarInt(dataInput)];
+                    dataInput.readFully(part);
+                    parts.add(part);
+                }
+                return createStackedEntity(entity, type, parts);
+            }
+
+            try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+                 ObjectInputStream legacyInput = new ObjectInputStream(new GZIPInputStream(inputStream))) {
+
+                int dataVersion = legacyInput.readInt();
+                if (dataVersion == 1) {
+                    byte[] nbt = new byte[legacyInput.readInt()];
+                    legacyInput.readFully(nbt);
+                    return createStackedEntity(entity, StackedEntityDataStorageType.NBT, nbt, null);
+                } else if (dataVersion == 2) {
+                    StackedEntityDataStorageType type = StackedEntityDataStorageType.fromId(legacyInput.readInt());
+                    byte[] nbt = new byte[legacyInput.readInt()];
+                    legacyInput.readFully(nbt);
+                    return createStackedEntity(entity, type, nbt, pdc.get(ENTITY_SIZE_KEY, PersistentDataType.INTEGER));
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
             pdc.remove(ENTITY_KEY);
+            pdc.remove(ENTITY_SIZE_KEY);
         }
         return null;
     }
 
-    public static void writeStackedEntity(StackedEntity stackedEntity) {
-        PersistentDataContainer pdc = stackedEntity.getEntity().getPersistentDataContainer();
-        byte[] data = null;
+    private static StackedEntity createStackedEntity(LivingEntity entity, StackedEntityDataStorageType type, byte[] nbt, Integer size) {
+        NMSHandler nmsHandler = NMSAdapter.getHandler();
+        StackManager stackManager = RoseStacker.getInstance().getManager(StackManager.class);
+
+        // With a known size the entries don't need to be decoded until they are used
+        StackedEntityDataStorage dataStorage;
+        if (size != null && type != StackedEntityDataStorageType.SIMPLE && SettingKey.ENTITY_LAZY_LOAD_DATA.get()) {
+            dataStorage = new LazyStackedEntityDataStorage(type, entity, nbt, size, (x, y) -> nmsHandler.deserializeEntityDataStorage(x, y, type));
+        } else {
+            dataStorage = nmsHandler.deserializeEntityDataStorage(entity, nbt, type);
+        }
 
-        int maxSaveAmount = SettingKey.ENTITY_SAVE_MAX_STACK_SIZE.get();
-        if (maxSaveAmount <= 0)
-            maxSaveAmount = Integer.MAX_VALUE;
+        return new StackedEntity(entity, stackManager.wrapEntityDataStorage(entity, dataStorage));
+    }
 
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-             ObjectOutputStream dataOutput = new ObjectOutputStream(new GZIPOutputStream(outputStream))) {
+    private static StackedEntity createStackedEntity(LivingEntity entity, StackedEntityDataStorageType type, List<byte[]> parts) {
+        NMSHandler nmsHandler = NMSAdapter.getHandler();
+        StackManager stackManager = RoseStacker.getInstance().getManager(StackManager.class);
 
-            dataOutput.writeInt(ENTITY_DATA_VERSION);
-            dataOutput.writeInt(stackedEntity.getDataStorage().getType().getId());
-            byte[] nbt = stackedEntity.getDataStorage().serialize(maxSaveAmount - 1);
-            dataOutput.writeInt(nbt.length);
-            dataOutput.write(nbt);
+        // Each part is added to the wrapped storage on its own, so a spilling storage can spill them again as they are added
+        StackedEntityDataStorage dataStorage = stackManager.wrapEntityDataStorage(entity, nmsHandler.deserializeEntityDataStorage(entity, parts.get(0), type));
+        for (int i = 1; i < parts.size(); i++)
+            dataStorage.addAll(nmsHandler.deserializeEntityDataStorage(entity, parts.get(i), type));
 
-            dataOutput.close();
-            data = outputStream.toByteArray();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        return new StackedEntity(entity, dataStorage);
+    }
 
-        if (data != null)
-            pdc.set(ENTITY_KEY, PersistentDataType.BYTE_ARRAY, data);
+    public static void writeStackedEntity(StackedEntity stackedEntity) {
+        prepareStackedEntity(stackedEntity).write();
+    }
+
+    /**
+     * Captures the data of a stacked entity so it can be encoded later.
+     * The data storage is read when the data is encoded, it is safe to read from any thread.
+     *
+     * @param stackedEntity The stacked entity to capture
+     * @return the captured data
+     */
+    public static PendingWrite prepareStackedEntity(StackedEntity stackedEntity) {
+        int maxSaveAmount = SettingKey.ENTITY_SAVE_MAX_STACK_SIZE.get();
+        int maxAmount = (maxSaveAmount <= 0 ? Integer.MAX_VALUE : maxSaveAmount) - 1;
+
+        StackedEntityDataStorage dataStorage = stackedEntity.getDataStorage();
+        return new PendingWrite(stackedEntity.getEntity(), ENTITY_KEY, ENTITY_SIZE_KEY, dataOutput -> {
+            // The size is taken with the data, the storage can still be changed on the main thread while this runs.
+            // Spilled stacks are written as several parts so their spilled data doesn't have to be decoded to be saved.
+            List<SerializedEntityData> parts = dataStorage.serializeParts(maxAmount);
+            writeVarInt(dataOutput, dataStorage.getType().getId());
+            writeVarInt(dataOutput, parts.stream().mapToInt(SerializedEntityData::size).sum());
+            for (SerializedEntityData part : parts) {
+                writeVarInt(dataOutput, part.data().length);
+                dataOutput.write(part.data());
+            }
+        });
     }
 
     public static void clearStackedEntityData(LivingEntity entity) {
-        entity.getPersistentDataContainer().remove(ENTITY_KEY);
+        PersistentDataContainer pdc = entity.getPersistentDataContainer();
+        pdc.remove(ENTITY_KEY);
+        pdc.remove(ENTITY_SIZE_KEY);
     }
 
     public static StackedItem readStackedItem(Item item) {
@@ -111,13 +179,19 @@ public final class DataUtils {
         if (data == null)
             return new StackedItem(item.getItemStack().getAmount(), item);
 
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-             ObjectInputStream dataInput = new ObjectInputStream(inputStream)) {
+        try {
+            DataInput dataInput = readCompactData(data);
+            if (dataInput != null)
+                return new StackedItem(readVarInt(dataInput), item);
+
+            try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+                 ObjectInputStream legacyInput = new ObjectInputStream(inputStream)) {
 
-            int dataVersion = dataInput.readInt();
-            if (dataVersion == 1) {
-                int stackSize = dataInput.readInt();
-                return new StackedItem(stackSize, item);
+                int dataVersion = legacyInput.readInt();
+                if (dataVersion == 1) {
+                    int stackSize = legacyInput.readInt();
+                    return new StackedItem(stackSize, item);
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -127,23 +201,18 @@ public final class DataUtils {
     }
 
     public static void writeStackedItem(StackedItem stackedItem) {
-        PersistentDataContainer pdc = stackedItem.getItem().getPersistentDataContainer();
-        byte[] data = null;
-
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-             ObjectOutputStream dataOutput = new ObjectOutputStream(outputStream)) {
-
-            dataOutput.writeInt(ITEM_DATA_VERSION);
-            dataOutput.writeInt(stackedItem.getStackSize());
-
-            dataOutput.close();
-            data = outputStream.toByteArray();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        prepareStackedItem(stackedItem).write();
+    }
 
-        if (data != null)
-            pdc.set(ITEM_KEY, PersistentDataType.BYTE_ARRAY, data);
+    /**
+     * Captures the data of a stacked item so it can be encoded later
+     *
+     * @param stackedItem The stacked item to capture
+     * @return the captured data
+     */
+    public static PendingWrite prepareStackedItem(StackedItem stackedItem) {
+        int stackSize = stackedItem.getStackSize();
+        return new PendingWrite(stackedItem.getItem(), ITEM_KEY, null, dataOutput -> writeVarInt(dataOutput, stackSize));
     }
 
     public static List<StackedSpawner> readStackedSpawners(Chunk chunk) {
@@ -154,22 +223,38 @@ public final class DataUtils {
         if (data == null)
             return stackedSpawners;
 
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-             ObjectInputStream dataInput = new ObjectInputStream(inputStream)) {
-
-            int dataVersion = dataInput.readInt();
-            if (dataVersion == 1) {
-                int length = dataInput.readInt();
+        try {
+            DataInput dataInput = readCompactData(data);
+            if (dataInput != null) {
+                int length = readVarInt(dataInput);
                 for (int i = 0; i < length; i++) {
-                    int stackSize = dataInput.readInt();
-                    int x = dataInput.readInt();
-                    int y = dataInput.readInt();
-                    int z = dataInput.readInt();
+                    int stackSize = readVarInt(dataInput);
+                    int position = readZigZagVarInt(dataInput);
                     boolean placedByPlayer = dataInput.readBoolean();
-                    Block block = chunk.getBlock(x, y, z);
+                    Block block = getPackedBlock(chunk, position);
                     if (block.getType() == Material.SPAWNER)
                         stackedSpawners.add(new StackedSpawner(stackSize, block, placedByPlayer));
                 }
+                return stackedSpawners;
+            }
+
+            try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+                 ObjectInputStream legacyInput = new ObjectInputStream(inputStream)) {
+
+                int dataVersion = legacyInput.readInt();
+                if (dataVersion == 1) {
+                    int length = legacyInput.readInt();
+                    for (int i = 0; i < length; i++) {
+                        int stackSize = legacyInput.readInt();
+                        int x = legacyInput.readInt();
+                        int y = legacyInput.readInt();
+                        int z = legacyInput.readInt();
+                        boolean placedByPlayer = legacyInput.readBoolean();
+                        Block block = chunk.getBlock(x, y, z);
+                        if (block.getType() == Material.SPAWNER)
+                            stackedSpawners.add(new StackedSpawner(stackSize, block, placedByPlayer));
+                    }
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -180,32 +265,40 @@ public final class DataUtils {
     }
 
     public static void writeStackedSpawners(Collection<StackedSpawner> stackedSpawners, Chunk chunk) {
-        PersistentDataContainer pdc = chunk.getPersistentDataContainer();
-        byte[] data = null;
-
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-             ObjectOutputStream dataOutput = new ObjectOutputStream(outputStream)) {
-
-            dataOutput.writeInt(SPAWNER_DATA_VERSION);
-            dataOutput.writeInt(stackedSpawners.size());
-
-            for (StackedSpawner stackedSpawner : stackedSpawners) {
-                dataOutput.writeInt(stackedSpawner.getStackSize());
-                dataOutput.writeInt(stackedSpawner.getLocation().getBlockX() & 0xF);
-                dataOutput.writeInt(stackedSpawner.getLocation().getBlockY());
-                dataOutput.writeInt(stackedSpawner.getLocation().getBlockZ() & 0xF);
-                dataOutput.writeBoolean(stackedSpawner.isPlacedByPlayer());
-            }
+        prepareStackedSpawners(stackedSpawners, chunk).write();
+    }
 
-            // Serialize that array
-            dataOutput.close();
-            data = outputStream.toByteArray();
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Captures the data of the stacked spawners in a chunk so it can be encoded later
+     *
+     * @param stackedSpawners The stacked spawners to capture
+     * @param chunk The chunk the stacked spawners are in
+     * @return the captured data
+     */
+    public static PendingWrite prepareStackedSpawners(Collection<StackedSpawner> stackedSpawners, Chunk chunk) {
+        int[] stackSizes = new int[stackedSpawners.size()];
+        int[] positions = new int[stackSizes.length];
+        boolean[] placedByPlayer = new boolean[stackSizes.length];
+        int count = 0;
+        for (StackedSpawner stackedSpawner : stackedSpawners) {
+            if (count == stackSizes.length)
+                break;
+
+            stackSizes[count] = stackedSpawner.getStackSize();
+            positions[count] = packPosition(stackedSpawner.getLocation());
+            placedByPlayer[count] = stackedSpawner.isPlacedByPlayer();
+            count++;
         }
 
-        if (data != null)
-            pdc.set(CHUNK_SPAWNERS_KEY, PersistentDataType.BYTE_ARRAY, data);
+        int spawnerCount = count;
+        return new PendingWrite(chunk, CHUNK_SPAWNERS_KEY, null, dataOutput -> {
+            writeVarInt(dataOutput, spawnerCount);
+            for (int i = 0; i < spawnerCount; i++) {
+                writeVarInt(dataOutput, stackSizes[i]);
+                writeZigZagVarInt(dataOutput, positions[i]);
+                dataOutput.writeBoolean(placedByPlayer[i]);
+            }
+        });
     }
 
     public static List<StackedBlock> readStackedBlocks(Chunk chunk) {
@@ -216,19 +309,32 @@ public final class DataUtils {
         if (data == null)
             return stackedBlocks;
 
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-             ObjectInputStream dataInput = new ObjectInputStream(inputStream)) {
-
-            int dataVersion = dataInput.readInt();
-            if (dataVersion == 1) {
-                int length = dataInput.readInt();
+        try {
+            DataInput dataInput = readCompactData(data);
+            if (dataInput != null) {
+                int length = readVarInt(dataInput);
                 for (int i = 0; i < length; i++) {
-                    int stackSize = dataInput.readInt();
-                    int x = dataInput.readInt();
-                    int y = dataInput.readInt();
-                    int z = dataInput.readInt();
+                    int stackSize = readVarInt(dataInput);
+                    int position = readZigZagVarInt(dataInput);
+                    stackedBlocks.add(new StackedBlock(stackSize, getPackedBlock(chunk, position)));
+                }
+                return stackedBlocks;
+            }
+
+            try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+                 ObjectInputStream legacyInput = new ObjectInputStream(inputStream)) {
 
-                    stackedBlocks.add(new StackedBlock(stackSize, chunk.getBlock(x, y, z)));
+                int dataVersion = legacyInput.readInt();
+                if (dataVersion == 1) {
+                    int length = legacyInput.readInt();
+                    for (int i = 0; i < length; i++) {
+                        int stackSize = legacyInput.readInt();
+                        int x = legacyInput.readInt();
+                        int y = legacyInput.readInt();
+                        int z = legacyInput.readInt();
+
+                        stackedBlocks.add(new StackedBlock(stackSize, chunk.getBlock(x, y, z)));
+                    }
                 }
             }
         } catch (Exception e) {
@@ -240,31 +346,242 @@ public final class DataUtils {
     }
 
     public static void writeStackedBlocks(Collection<StackedBlock> stackedBlocks, Chunk chunk) {
-        PersistentDataContainer pdc = chunk.getPersistentDataContainer();
-        byte[] data = null;
+        prepareStackedBlocks(stackedBlocks, chunk).write();
+    }
 
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-             ObjectOutputStream dataOutput = new ObjectOutputStream(outputStream)) {
+    /**
+     * Captures the data of the stacked blocks in a chunk so it can be encoded later
+     *
+     * @param stackedBlocks The stacked blocks to capture
+     * @param chunk The chunk the stacked blocks are in
+     * @return the captured data
+     */
+    public static PendingWrite prepareStackedBlocks(Collection<StackedBlock> stackedBlocks, Chunk chunk) {
+        int[] stackSizes = new int[stackedBlocks.size()];
+        int[] positions = new int[stackSizes.length];
+        int count = 0;
+        for (StackedBlock stackedBlock : stackedBlocks) {
+            if (count == stackSizes.length)
+                break;
+
+            stackSizes[count] = stackedBlock.getStackSize();
+            positions[count] = packPosition(stackedBlock.getLocation());
+            count++;
+        }
 
-            dataOutput.writeInt(BLOCK_DATA_VERSION);
-            dataOutput.writeInt(stackedBlocks.size());
+        int blockCount = count;
+        return new PendingWrite(chunk, CHUNK_BLOCKS_KEY, null, dataOutput -> {
+            writeVarInt(dataOutput, blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                writeVarInt(dataOutput, stackSizes[i]);
+                writeZigZagVarInt(dataOutput, positions[i]);
+            }
+        });
+    }
 
-            for (StackedBlock stackedBlock : stackedBlocks) {
-                dataOutput.writeInt(stackedBlock.getStackSize());
-                dataOutput.writeInt(stackedBlock.getLocation().getBlockX() & 0xF);
-                dataOutput.writeInt(stackedBlock.getLocation().getBlockY());
-                dataOutput.writeInt(stackedBlock.getLocation().getBlockZ() & 0xF);
+    /**
+     * Writes data in the compact format.
+     * The data starts with the version and a flags byte, and is only deflated once it is large enough to benefit.
+     *
+     * @param writer The writer for the data
+     * @return the encoded data
+     * @throws IOException if the data could not be written
+     */
+    private static byte[] writeCompactData(DataWriter writer) throws IOException {
+        ByteArrayOutputStream bodyStream = new ByteArrayOutputStream();
+        writer.write(new DataOutputStream(bodyStream));
+        byte[] body = bodyStream.toByteArray();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(body.length + 8);
+        DataOutputStream dataOutput = new DataOutputStream(outputStream);
+        dataOutput.writeByte(DATA_VERSION);
+
+        if (body.length >= COMPRESSION_THRESHOLD) {
+            byte[] compressed = deflate(body);
+            if (compressed.length < body.length) {
+                dataOutput.writeByte(FLAG_COMPRESSED);
+                writeVarInt(dataOutput, body.length);
+                dataOutput.write(compressed);
+                return outputStream.toByteArray();
             }
+        }
 
-            // Serialize that array
-            dataOutput.close();
-            data = outputStream.toByteArray();
-        } catch (Exception e) {
-            e.printStackTrace();
+        dataOutput.writeByte(0);
+        dataOutput.write(body);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Opens data written in the compact format
+     *
+     * @param data The encoded data
+     * @return an input positioned at the start of the data, or null if the data is in one of the older formats
+     * @throws IOException if the data could not be read
+     */
+    private static DataInputStream readCompactData(byte[] data) throws IOException {
+        // Older formats start with a Java serialization or GZIP stream header, neither of which starts with this byte
+        if (data.length < 2 || data[0] != DATA_VERSION)
+            return null;
+
+        DataInputStream dataInput = new DataInputStream(new ByteArrayInputStream(data, 2, data.length - 2));
+        if ((data[1] & FLAG_COMPRESSED) == 0)
+            return dataInput;
+
+        int length = readVarInt(dataInput);
+        int offset = data.length - dataInput.available();
+        return new DataInputStream(new ByteArrayInputStream(inflate(data, offset, length)));
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = DEFLATER.get();
+        byte[] buffer = COMPRESSION_BUFFER.get();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 2);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                outputStream.write(buffer, 0, length);
+            }
+        } finally {
+            deflater.reset();
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int length) throws IOException {
+        Inflater inflater = INFLATER.get();
+        byte[] inflated = new byte[length];
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            int position = 0;
+            while (position < length) {
+                int read = inflater.inflate(inflated, position, length - position);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    throw new EOFException("Compressed data ended early");
+                position += read;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.reset();
+        }
+        return inflated;
+    }
+
+    /**
+     * Packs a block position into a single int relative to its chunk, the y value keeps its sign
+     *
+     * @param location The location to pack
+     * @return the packed position
+     */
+    private static int packPosition(Location location) {
+        return location.getBlockY() << 8 | (location.getBlockX() & 0xF) << 4 | (location.getBlockZ() & 0xF);
+    }
+
+    private static Block getPackedBlock(Chunk chunk, int position) {
+        return chunk.getBlock(position >> 4 & 0xF, position >> 8, position & 0xF);
+    }
+
+    private static void writeVarInt(DataOutput dataOutput, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            dataOutput.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dataOutput.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput dataInput) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = dataInput.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("VarInt is too long");
+    }
+
+    private static void writeZigZagVarInt(DataOutput dataOutput, int value) throws IOException {
+        writeVarInt(dataOutput, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readZigZagVarInt(DataInput dataInput) throws IOException {
+        int value = readVarInt(dataInput);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @FunctionalInterface
+    private interface DataWriter {
+        void write(DataOutput dataOutput) throws IOException;
+    }
+
+    /**
+     * Stack data that has been captured on the main thread and still needs to be encoded and written.
+     * Encoding can be done on any thread, writing has to be done on the main thread.
+     */
+    public static final class PendingWrite {
+
+        private final PersistentDataHolder holder;
+        private final NamespacedKey key;
+        private final NamespacedKey replacedKey;
+        private final DataWriter writer;
+        private volatile byte[] data;
+
+        private PendingWrite(PersistentDataHolder holder, NamespacedKey key, NamespacedKey replacedKey, DataWriter writer) {
+            this.holder = holder;
+            this.key = key;
+            this.replacedKey = replacedKey;
+            this.writer = writer;
+        }
+
+        /**
+         * @return the entity or chunk the data will be written to
+         */
+        public PersistentDataHolder getHolder() {
+            return this.holder;
+        }
+
+        /**
+         * Encodes the captured data, can be called from any thread
+         */
+        public void encode() {
+            try {
+                this.data = writeCompactData(this.writer);
+            } catch (Exception e) {
+                RoseStacker.getInstance().getLogger().log(Level.WARNING, "Failed to encode stack data for saving", e);
+            }
+        }
+
+        /**
+         * Writes the encoded data to the holder, does nothing if encoding failed or the holder is no longer loaded
+         */
+        public void apply() {
+            if (this.data == null)
+                return;
+
+            if (this.holder instanceof Entity entity && !entity.isValid())
+                return;
+
+            if (this.holder instanceof Chunk chunk && !chunk.isLoaded())
+                return;
+
+            this.store();
+        }
+
+        private void write() {
+            this.encode();
+            if (this.data != null)
+                this.store();
+        }
+
+        private void store() {
+            PersistentDataContainer pdc = this.holder.getPersistentDataContainer();
+            pdc.set(this.key, PersistentDataType.BYTE_ARRAY, this.data);
+            if (this.replacedKey != null)
+                pdc.remove(this.replacedKey);
         }
 
-        if (data != null)
-            pdc.set(CHUNK_BLOCKS_KEY, PersistentDataType.BYTE_ARRAY, data);
     }
 
 }
@@ -3,19 +3,25 @@ package dev.rosewood.rosestacker.utils;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import dev.rosewood.rosestacker.RoseStacker;
+import dev.rosewood.rosestacker.config.SettingKey;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import org.bukkit.Chunk;
 import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
 import org.bukkit.World;
 import org.bukkit.block.Block;
+import org.bukkit.entity.Ageable;
 import org.bukkit.entity.Animals;
 import org.bukkit.entity.Bat;
 import org.bukkit.entity.Blaze;
@@ -27,11 +33,14 @@ import org.bukkit.entity.Item;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.NPC;
 import org.bukkit.entity.Player;
+import org.bukkit.entity.Sheep;
+import org.bukkit.entity.Slime;
 import org.bukkit.entity.Wither;
 import org.bukkit.event.entity.CreatureSpawnEvent;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.loot.LootContext;
 import org.bukkit.loot.Lootable;
+import org.bukkit.material.Colorable;
 import org.bukkit.util.BoundingBox;
 import org.bukkit.util.Vector;
 
@@ -44,6 +53,11 @@ public final class EntityUtils {
             .expireAfterWrite(1, TimeUnit.SECONDS)
             .build();
 
+    // Expires to pick up loot table changes that can't be detected, such as data pack reloads on Spigot
+    private static final Cache<LootProfile, LootPool> lootPoolCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+
     /**
      * Get loot for a given entity
      *
@@ -53,19 +67,7 @@ public final class EntityUtils {
      * @return The loot
      */
     public static Collection<ItemStack> getEntityLoot(LivingEntity entity, Player killer, Location lootedLocation) {
-        if (entity instanceof Lootable lootable) {
-            if (lootable.getLootTable() == null)
-                return Set.of();
-
-            LootContext lootContext = new LootContext.Builder(lootedLocation)
-                    .lootedEntity(entity)
-                    .killer(killer)
-                    .build();
-
-            return lootable.getLootTable().populateLoot(RANDOM, lootContext);
-        }
-
-        return Set.of();
+        return getPooledEntityLoot(entity, killer, lootedLocation, null, RANDOM);
     }
 
     /**
@@ -78,20 +80,90 @@ public final class EntityUtils {
      * @return The loot
      */
     public static Collection<ItemStack> getEntityLoot(LivingEntity entity, Player killer, Location lootedLocation, int lootingModifier) {
-        if (entity instanceof Lootable lootable) {
-            if (lootable.getLootTable() == null)
-                return Set.of();
+        return getPooledEntityLoot(entity, killer, lootedLocation, lootingModifier, RANDOM);
+    }
 
-            LootContext lootContext = new LootContext.Builder(lootedLocation)
-                    .lootedEntity(entity)
-                    .killer(killer)
-                    .lootingModifier(lootingModifier)
-                    .build();
+    /**
+     * Get loot for a given entity using a specific random, so each thread rolling loot can use its own
+     *
+     * @param entity The entity to drop loot for
+     * @param killer The player who is killing that entity
+     * @param lootedLocation The location the entity is being looted at
+     * @param lootingModifier The looting modifier to use, nullable to use the killer's looting level
+     * @param random The random to roll the loot with
+     * @return The loot
+     */
+    public static Collection<ItemStack> getEntityLoot(LivingEntity entity, Player killer, Location lootedLocation, Integer lootingModifier, Random random) {
+        return getPooledEntityLoot(entity, killer, lootedLocation, lootingModifier, random);
+    }
 
-            return lootable.getLootTable().populateLoot(RANDOM, lootContext);
-        }
+    /**
+     * Runs the loot table of an entity without drawing from the loot pools, for when the loot has to be independent of other kills
+     *
+     * @param entity The entity to drop loot for
+     * @param killer The player who is killing that entity
+     * @param lootedLocation The location the entity is being looted at
+     * @param lootingModifier The looting modifier to use, nullable to use the killer's looting level
+     * @param random The random to roll the loot with
+     * @return The loot
+     */
+    public static Collection<ItemStack> rollEntityLoot(LivingEntity entity, Player killer, Location lootedLocation, Integer lootingModifier, Random random) {
+        if (!(entity instanceof Lootable lootable) || lootable.getLootTable() == null)
+            return Set.of();
+        return populateLoot(lootable, entity, killer, lootedLocation, lootingModifier, random);
+    }
+
+    /**
+     * Gets loot for an entity from the pool of its loot profile, entities with the same profile get the same loot from their loot table
+     *
+     * @param entity The entity to drop loot for
+     * @param killer The player who is killing that entity
+     * @param lootedLocation The location the entity is being looted at
+     * @param lootingModifier The looting modifier to use, nullable to use the killer's looting level
+     * @param random The random to roll the loot with
+     * @return The loot
+     */
+    private static Collection<ItemStack> getPooledEntityLoot(LivingEntity entity, Player killer, Location lootedLocation, Integer lootingModifier, Random random) {
+        if (!(entity instanceof Lootable lootable) || lootable.getLootTable() == null)
+            return Set.of();
+
+        int poolSize = SettingKey.ENTITY_LOOT_POOL_SIZE.get();
+        if (poolSize <= 0)
+            return populateLoot(lootable, entity, killer, lootedLocation, lootingModifier, random);
+
+        LootProfile profile = LootProfile.of(entity, lootable.getLootTable().getKey(), killer, lootingModifier);
+        LootPool lootPool = lootPoolCache.asMap().computeIfAbsent(profile, x -> new LootPool(poolSize));
+        return lootPool.draw(random, () -> populateLoot(lootable, entity, killer, lootedLocation, lootingModifier, random));
+    }
 
-        return Set.of();
+    private static Collection<ItemStack> populateLoot(Lootable lootable, LivingEntity entity, Player killer, Location lootedLocation, Integer lootingModifier, Random random) {
+        LootContext.Builder lootContext = new LootContext.Builder(lootedLocation)
+                .lootedEntity(entity)
+                .killer(killer);
+
+        if (lootingModifier != null)
+            lootContext.lootingModifier(lootingModifier);
+
+        return lootable.getLootTable().populateLoot(random, lootContext.build());
+    }
+
+    /**
+     * Gets the looting level of the item a player is killing with
+     *
+     * @param killer The player, nullable
+     * @return the looting level, 0 if there is no killer
+     */
+    public static int getLootingLevel(Player killer) {
+        if (killer == null || VersionUtils.LOOTING == null)
+            return 0;
+        return killer.getInventory().getItemInMainHand().getEnchantmentLevel(VersionUtils.LOOTING);
+    }
+
+    /**
+     * Clears all pooled loot, needs to be called whenever loot tables may have changed
+     */
+    public static void clearLootPools() {
+        lootPoolCache.invalidateAll();
     }
 
     /**
@@ -269,8 +341,82 @@ public final class EntityUtils {
 
     public static void clearCache() {
         cachedBoundingBoxes = null;
+        clearLootPools();
     }
 
     private record ChunkLocation(String world, int x, int z) { }
 
+    /**
+     * Everything about an entity and how it was killed that can change what its loot table drops
+     */
+    private record LootProfile(EntityType entityType, NamespacedKey lootTable, String variant, int lootingLevel, boolean killedByPlayer, boolean onFire) {
+
+        public static LootProfile of(LivingEntity entity, NamespacedKey lootTable, Player killer, Integer lootingModifier) {
+            StringBuilder variant = new StringBuilder();
+            if (entity instanceof Ageable ageable && !ageable.isAdult())
+                variant.append("baby;");
+            if (entity instanceof Colorable colorable && colorable.getColor() != null)
+                variant.append(colorable.getColor().name()).append(';');
+            if (entity instanceof Sheep sheep && sheep.isSheared())
+                variant.append("sheared;");
+            if (entity instanceof Slime slime)
+                variant.append("size=").append(slime.getSize()).append(';');
+
+            int lootingLevel = lootingModifier != null ? lootingModifier : getLootingLevel(killer);
+            return new LootProfile(entity.getType(), lootTable, variant.toString(), lootingLevel, killer != null, entity.getFireTicks() > 0);
+        }
+
+    }
+
+    /**
+     * A rolling pool of loot for a single loot profile.
+     * The pool is filled with newly rolled loot until it is full, then loot is drawn from it at random.
+     * One drawn result is rolled again for each full pool of draws, so the pool keeps changing over time.
+     * Drawn loot has less variance than running the loot table every time, a rare drop that made it into the pool
+     * keeps being drawn until it is rolled out again.
+     */
+    private static class LootPool {
+
+        private final int size;
+        private final List<List<ItemStack>> results;
+        private int draws;
+
+        public LootPool(int size) {
+            this.size = size;
+            this.results = new ArrayList<>(size);
+        }
+
+        public Collection<ItemStack> draw(Random random, Supplier<Collection<ItemStack>> roller) {
+            int index = -1;
+            synchronized (this) {
+                if (this.results.size() >= this.size) {
+                    index = random.nextInt(this.results.size());
+                    if (++this.draws < this.size)
+                        return this.copy(this.results.get(index));
+                    this.draws = 0;
+                }
+            }
+
+            // Roll outside the lock so other threads can keep drawing
+            Collection<ItemStack> loot = roller.get();
+            List<ItemStack> result = this.copy(loot);
+            synchronized (this) {
+                if (index >= 0) {
+                    this.results.set(index, result);
+                } else if (this.results.size() < this.size) {
+                    this.results.add(result);
+                }
+            }
+            return loot;
+        }
+
+        private List<ItemStack> copy(Collection<ItemStack> items) {
+            List<ItemStack> copy = new ArrayList<>(items.size());
+            for (ItemStack itemStack : items)
+                copy.add(itemStack.clone());
+            return copy;
+        }
+
+    }
+
 }
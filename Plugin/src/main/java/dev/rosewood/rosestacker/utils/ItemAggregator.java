@@ -0,0 +1,138 @@
+package dev.rosewood.rosestacker.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Adds up the amounts of similar items as they are fed in, without building a list of the items first.
+ * Items are grouped by {@link ItemUtils#getSimilarityHash(ItemStack)},
+ * so isSimilar only has to be called for items that share a hash.
+ * Multiplied and coalesced loot is fed in directly and handed to {@link dev.rosewood.rosestacker.stack.StackingLogic#preStackItems(ItemAggregator, org.bukkit.Location, boolean)},
+ * a map or list is only built where an event or API method needs one.
+ */
+public class ItemAggregator {
+
+    private final Map<Key, Integer> counts;
+
+    public ItemAggregator() {
+        this.counts = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds an item with its own amount
+     *
+     * @param itemStack The item to add, ignored if null or air
+     * @return this aggregator
+     */
+    public ItemAggregator add(ItemStack itemStack) {
+        if (itemStack == null)
+            return this;
+        return this.add(itemStack, itemStack.getAmount());
+    }
+
+    /**
+     * Adds an amount of an item, the amount of the item itself is ignored
+     *
+     * @param itemStack The item to add, ignored if null or air
+     * @param amount The amount of the item to add
+     * @return this aggregator
+     */
+    public ItemAggregator add(ItemStack itemStack, int amount) {
+        if (itemStack == null || itemStack.getType() == Material.AIR)
+            return this;
+
+        Key key = new Key(itemStack, ItemUtils.getSimilarityHash(itemStack));
+        Integer count = this.counts.get(key);
+        if (count != null) {
+            this.counts.put(key, count + amount);
+        } else {
+            ItemStack clone = itemStack.clone();
+            clone.setAmount(1);
+            this.counts.put(new Key(clone, key.hash()), amount);
+        }
+        return this;
+    }
+
+    /**
+     * Adds items with their own amounts
+     *
+     * @param items The items to add
+     * @return this aggregator
+     */
+    public ItemAggregator addAll(Iterable<ItemStack> items) {
+        for (ItemStack itemStack : items)
+            this.add(itemStack);
+        return this;
+    }
+
+    /**
+     * @return true if no items have been added, otherwise false
+     */
+    public boolean isEmpty() {
+        return this.counts.isEmpty();
+    }
+
+    /**
+     * Calls a consumer for each distinct item with its total amount, in the order the items were first added
+     *
+     * @param consumer The consumer to call, the item has an amount of 1 and must not be modified
+     */
+    public void forEach(ObjIntConsumer<ItemStack> consumer) {
+        this.counts.forEach((key, count) -> consumer.accept(key.itemStack(), count));
+    }
+
+    /**
+     * @return a new map of each distinct item with an amount of 1 to its total amount
+     */
+    public Map<ItemStack, Integer> toMap() {
+        Map<ItemStack, Integer> map = new LinkedHashMap<>();
+        this.counts.forEach((key, count) -> map.put(key.itemStack(), count));
+        return map;
+    }
+
+    /**
+     * Turns the totals back into items, multiplying each total first
+     *
+     * @param multiplier The multiplier for the total amounts
+     * @param reduce true to create one item per distinct item, false to split them by their max stack size
+     * @return the items
+     */
+    public List<ItemStack> toItemStacks(double multiplier, boolean reduce) {
+        List<ItemStack> items = new ArrayList<>(this.counts.size());
+        for (Map.Entry<Key, Integer> entry : this.counts.entrySet()) {
+            ItemStack itemStack = entry.getKey().itemStack();
+            int amount = (int) (entry.getValue() * multiplier);
+            if (reduce) {
+                ItemStack clone = itemStack.clone();
+                clone.setAmount(amount);
+                items.add(clone);
+            } else {
+                items.addAll(ItemUtils.splitItemStack(itemStack, amount));
+            }
+        }
+        return items;
+    }
+
+    private record Key(ItemStack itemStack, int hash) {
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            // Similar items always share a hash, isSimilar only separates items whose hashes collide
+            return obj instanceof Key other && this.hash == other.hash && this.itemStack.isSimilar(other.itemStack);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+    }
+
+}
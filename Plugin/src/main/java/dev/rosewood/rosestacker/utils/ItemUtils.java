@@ -26,9 +26,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.DyeColor;
@@ -416,27 +414,22 @@ public final class ItemUtils {
         return getStackingTool().isSimilar(item);
     }
 
-    public static List<ItemStack> getMultipliedItemStacks(Collection<ItemStack> itemStacks, double multiplier, boolean reduce) {
-        // Reduce and multiply counts
-        Map<ItemStack, Integer> counts = reduceItemsByCounts(itemStacks).entrySet()
-                .stream()
-                .collect(Collectors.toMap(Map.Entry::getKey, entry -> (int) (entry.getValue() * multiplier)));
-
-        // Split items back into normal stacks by their max stack size
-        List<ItemStack> items = new ArrayList<>();
-        for (Map.Entry<ItemStack, Integer> entry : counts.entrySet()) {
-            ItemStack itemStack = entry.getKey();
-            int amount = entry.getValue();
-            if (reduce) {
-                ItemStack clone = itemStack.clone();
-                clone.setAmount(amount);
-                items.add(clone);
-            } else {
-                items.addAll(splitItemStack(itemStack, amount));
-            }
-        }
+    /**
+     * Hashes the parts of an item that {@link ItemStack#isSimilar(ItemStack)} compares, ignoring the amount.
+     * Similar items always have the same hash, items with the same hash still need to be checked with isSimilar.
+     *
+     * @param itemStack The item to hash
+     * @return the hash
+     */
+    public static int getSimilarityHash(ItemStack itemStack) {
+        int hash = itemStack.getType().hashCode();
+        if (itemStack.hasItemMeta())
+            hash = 31 * hash + itemStack.getItemMeta().hashCode();
+        return hash;
+    }
 
-        return items;
+    public static List<ItemStack> getMultipliedItemStacks(Collection<ItemStack> itemStacks, double multiplier, boolean reduce) {
+        return new ItemAggregator().addAll(itemStacks).toItemStacks(multiplier, reduce);
     }
 
     /**
@@ -472,21 +465,7 @@ public final class ItemUtils {
      * @return the reduced items reduced by counts
      */
     public static Map<ItemStack, Integer> reduceItemsByCounts(Collection<ItemStack> items) {
-        Map<ItemStack, Integer> itemStackAmounts = new HashMap<>();
-        for (ItemStack itemStack : items) {
-            if (itemStack == null || itemStack.getType() == Material.AIR)
-                continue;
-
-            Optional<Map.Entry<ItemStack, Integer>> similar = itemStackAmounts.entrySet().stream().filter(x -> x.getKey().isSimilar(itemStack)).findFirst();
-            if (similar.isPresent()) {
-                similar.get().setValue(similar.get().getValue() + itemStack.getAmount());
-            } else {
-                ItemStack clone = itemStack.clone();
-                clone.setAmount(1);
-                itemStackAmounts.put(clone, itemStack.getAmount());
-            }
-        }
-        return itemStackAmounts;
+        return new ItemAggregator().addAll(items).toMap();
     }
 
     public static void clearCache() {
@@ -78,6 +78,18 @@ public final class StackerUtils {
      * @return A value between the min and max, inclusively
      */
     public static int randomInRange(int min, int max) {
+        return randomInRange(RANDOM, min, max);
+    }
+
+    /**
+     * Gets a random value between the given range, inclusively, using a specific random
+     *
+     * @param random The random to use
+     * @param min The minimum value
+     * @param max The maximum value
+     * @return A value between the min and max, inclusively
+     */
+    public static int randomInRange(Random random, int min, int max) {
         if (min == max)
             return min;
 
@@ -86,7 +98,7 @@ public final class StackerUtils {
             min = max;
             max = temp;
         }
-        return RANDOM.nextInt(max - min + 1) + min;
+        return random.nextInt(max - min + 1) + min;
     }
 
     public static Set<EntityType> getStackableEntityTypes() {
@@ -112,20 +124,49 @@ public final class StackerUtils {
      * @return The number of times that the chance passed in the number of attempts
      */
     public static int countPassedChances(double chance, int attempts) {
+        return countPassedChances(chance, attempts, RANDOM);
+    }
+
+    /**
+     * Calculates the number of times a chance passes against a certain number of attempts
+     *
+     * @param chance The percent chance, 0-1, that the attempt will pass
+     * @param attempts The number of times to attempt the chance
+     * @param random The random to roll the attempts with
+     * @return The number of times that the chance passed in the number of attempts
+     */
+    public static int countPassedChances(double chance, int attempts, Random random) {
         if (chance == 0) return 0;
         if (chance == 1) return attempts;
 
         if (attempts < 128) {
             int passes = 0;
             for (int i = 0; i < attempts; i++)
-                if (passesChance(chance))
+                if (random.nextDouble() <= chance)
                     passes++;
             return passes;
         }
 
+        // Count the rarer outcome so the exact count below stays short
+        if (chance > 0.5)
+            return attempts - countPassedChances(1 - chance, attempts, random);
+
         double mean = attempts * chance;
-        double stdDev = Math.sqrt(attempts * chance) * (1 - chance);
-        return (int) Math.round(RANDOM.nextGaussian(mean, stdDev));
+        if (mean < 32) {
+            // Skip straight to each pass, the gaps between passes are geometrically distributed
+            double logFailure = Math.log1p(-chance);
+            int passes = 0;
+            long attempt = 0;
+            while (true) {
+                attempt += (long) (Math.log(1 - random.nextDouble()) / logFailure) + 1;
+                if (attempt > attempts)
+                    return passes;
+                passes++;
+            }
+        }
+
+        double stdDev = Math.sqrt(mean * (1 - chance));
+        return (int) Math.max(0, Math.min(attempts, Math.round(random.nextGaussian(mean, stdDev))));
     }
 
     /**
@@ -2,8 +2,10 @@ package dev.rosewood.rosestacker.utils;
 
 import dev.rosewood.rosegarden.RosePlugin;
 import dev.rosewood.rosestacker.RoseStacker;
+import dev.rosewood.rosestacker.manager.WorkerPoolManager;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
 
 public final class ThreadUtils {
 
@@ -29,6 +31,41 @@ public final class ThreadUtils {
             Bukkit.getScheduler().runTaskAsynchronously(rosePlugin, wrap(runnable));
     }
 
+    /**
+     * Runs a task on one of RoseStacker's worker pools instead of the shared Bukkit async scheduler
+     *
+     * @param pool The pool to run the task on
+     * @param runnable The task to run
+     */
+    public static void runAsync(WorkerPool pool, Runnable runnable) {
+        runAsync(pool, null, runnable);
+    }
+
+    /**
+     * Runs a task on one of RoseStacker's worker pools, the task is skipped if one with the same key is still waiting to run
+     *
+     * @param pool The pool to run the task on
+     * @param key The key to merge redundant tasks with, or null to never merge
+     * @param runnable The task to run
+     */
+    public static void runAsync(WorkerPool pool, Object key, Runnable runnable) {
+        if (checkEnabled())
+            rosePlugin.getManager(WorkerPoolManager.class).submit(pool, key, wrap(runnable));
+    }
+
+    /**
+     * Runs a task repeatedly on one of RoseStacker's worker pools, a run is skipped if the previous one hasn't started yet
+     *
+     * @param pool The pool to run the task on
+     * @param runnable The task to run
+     * @param delay The delay in ticks before the first run
+     * @param period The period in ticks between runs
+     * @return the task that submits the runs, cancel it to stop them
+     */
+    public static BukkitTask runAsyncTimer(WorkerPool pool, Runnable runnable, long delay, long period) {
+        return rosePlugin.getManager(WorkerPoolManager.class).submitTimer(pool, wrap(runnable), delay, period);
+    }
+
     public static void runAsyncDelayed(Runnable runnable, long delay) {
         if (checkEnabled())
             Bukkit.getScheduler().runTaskLaterAsynchronously(rosePlugin, wrap(runnable), delay);
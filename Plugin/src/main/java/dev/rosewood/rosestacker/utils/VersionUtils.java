@@ -18,6 +18,7 @@ public class VersionUtils {
     public static final Particle POOF;
     public static final Particle SMOKE;
     public static final Enchantment INFINITY;
+    public static final Enchantment LOOTING;
     public static final Enchantment SWEEPING_EDGE;
     public static final ItemFlag HIDE_ADDITIONAL_TOOLTIP;
     static {
@@ -29,6 +30,7 @@ public class VersionUtils {
             SMOKE = Particle.SMOKE;
             DUST = Particle.DUST;
             INFINITY = Registry.ENCHANTMENT.get(NamespacedKey.minecraft("infinity"));
+            LOOTING = Registry.ENCHANTMENT.get(NamespacedKey.minecraft("looting"));
             SWEEPING_EDGE = Registry.ENCHANTMENT.get(NamespacedKey.minecraft("sweeping_edge"));
             HIDE_ADDITIONAL_TOOLTIP = ItemFlag.HIDE_ADDITIONAL_TOOLTIP;
         } else {
@@ -39,6 +41,7 @@ public class VersionUtils {
             SMOKE = Particle.valueOf("SMOKE_NORMAL");
             DUST = Particle.valueOf("REDSTONE");
             INFINITY = findEnchantmentLegacy("infinity", "arrow_infinite");
+            LOOTING = findEnchantmentLegacy("looting", "loot_bonus_mobs");
             SWEEPING_EDGE = findEnchantmentLegacy("sweeping", "sweeping_edge");
             HIDE_ADDITIONAL_TOOLTIP = ItemFlag.valueOf("HIDE_POTION_EFFECTS");
         }
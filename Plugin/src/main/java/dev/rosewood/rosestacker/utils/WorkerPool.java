@@ -0,0 +1,66 @@
+package dev.rosewood.rosestacker.utils;
+
+import dev.rosewood.rosegarden.config.RoseSetting;
+import dev.rosewood.rosestacker.config.SettingKey;
+
+/**
+ * The separate pools of worker threads RoseStacker uses to run work off the main thread
+ */
+public enum WorkerPool {
+
+    /**
+     * Stacking passes, nearby entity cache updates, and hologram watcher updates.
+     * These run repeatedly, so work is dropped when the queue is full and picked up again on the next run.
+     */
+    STACKING("Stacking", SettingKey.WORKER_STACKING_THREADS, true),
+
+    /**
+     * Spawner spawn location calculations and pre-stacking of spawned entities.
+     * Work is dropped when the queue is full, the spawner will try again on its next spawn.
+     */
+    SPAWNING("Spawning", SettingKey.WORKER_SPAWNING_THREADS, true),
+
+    /**
+     * Loot calculations for stacked entity deaths.
+     * Loot can't be lost, so work is run on the submitting thread instead when the queue is full.
+     */
+    LOOT("Loot", SettingKey.WORKER_LOOT_THREADS, false),
+
+    /**
+     * Encoding of stack data for autosaves.
+     * Saves can't be lost, so work is run on the submitting thread instead when the queue is full.
+     */
+    SAVING("Saving", SettingKey.WORKER_SAVING_THREADS, false);
+
+    private final String name;
+    private final RoseSetting<Integer> threadsSetting;
+    private final boolean dropWhenSaturated;
+
+    WorkerPool(String name, RoseSetting<Integer> threadsSetting, boolean dropWhenSaturated) {
+        this.name = name;
+        this.threadsSetting = threadsSetting;
+        this.dropWhenSaturated = dropWhenSaturated;
+    }
+
+    /**
+     * @return the name of this pool, used to name its threads
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the number of threads this pool should use
+     */
+    public int getThreadCount() {
+        return Math.max(this.threadsSetting.get(), 1);
+    }
+
+    /**
+     * @return true if work should be dropped when the queue is full, false if it should be run on the submitting thread
+     */
+    public boolean shouldDropWhenSaturated() {
+        return this.dropWhenSaturated;
+    }
+
+}